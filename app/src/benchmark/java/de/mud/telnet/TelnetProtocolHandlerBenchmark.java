@@ -0,0 +1,46 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.telnet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Read throughput of the telnet filter on loopback, with the local server
+ * from {@link TelnetProtocolHandlerTest}.
+ */
+public class TelnetProtocolHandlerBenchmark {
+	private final TelnetProtocolHandlerTest harness = new TelnetProtocolHandlerTest();
+
+	@Before
+	public void setUp() {
+		harness.setUp();
+	}
+
+	@Test
+	public void throughputFromLocalServer() throws Exception {
+		int chunks = 512;
+
+		long start = System.nanoTime();
+		harness.streamFromLocalServer(chunks);
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		System.out.printf("%d MiB from a local server in %d ms, %d MiB/s%n", chunks / 16, millis,
+				chunks / 16 * 1000L / Math.max(millis, 1));
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class PrecomposerBenchmark {
+	/**
+	 * The binary search over the sorted table that the hashed lookup
+	 * replaced.
+	 */
+	private static char binarySearch(char base, char comb) {
+		int min = 0;
+		int max = Precomposer.precompositions.length - 1;
+		long sought = base << 21 | comb;
+		while (max >= min) {
+			int mid = (min + max) / 2;
+			long that = Precomposer.precompositions[mid][1] << 21 | Precomposer.precompositions[mid][2];
+			if (that < sought)
+				min = mid + 1;
+			else if (that > sought)
+				max = mid - 1;
+			else
+				return Precomposer.precompositions[mid][0];
+		}
+		return base;
+	}
+
+	/**
+	 * Every pair in the table looked up a few thousand times with each
+	 * method. The second round is the one reported.
+	 */
+	@Test
+	public void lookup() {
+		char[][] table = Precomposer.precompositions;
+		int rounds = 2000;
+		long sink = 0;
+		long searchNanos = 0, tableNanos = 0;
+		for (int warm = 0; warm < 2; warm++) {
+			long start = System.nanoTime();
+			for (int r = 0; r < rounds; r++)
+				for (char[] row : table)
+					sink += binarySearch(row[1], row[2]);
+			searchNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int r = 0; r < rounds; r++)
+				for (char[] row : table)
+					sink += Precomposer.precompose(row[1], row[2]);
+			tableNanos = System.nanoTime() - start;
+		}
+
+		// uses the results, so the lookups can't be optimized away
+		assertTrue(sink != 0);
+		long lookups = (long) rounds * table.length;
+		System.out.printf("precompose: binary search %d ns, table %d ns per lookup%n",
+				searchNanos / lookups, tableNanos / lookups);
+	}
+}
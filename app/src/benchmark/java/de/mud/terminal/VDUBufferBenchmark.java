@@ -0,0 +1,195 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class VDUBufferBenchmark {
+	private static final int WIDTH = 80;
+	private static final int HEIGHT = 24;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static VDUBuffer newBuffer(int scrollback) {
+		VDUBuffer buffer = new VDUBuffer(WIDTH, HEIGHT);
+		buffer.setDisplay(new NullDisplay());
+		buffer.setBufferSize(scrollback);
+		return buffer;
+	}
+
+	/** Print a line at the bottom of the screen and scroll it up. */
+	private static void printLine(VDUBuffer buffer, String text, long attributes) {
+		buffer.deleteArea(0, HEIGHT - 1, WIDTH, 1);
+		buffer.putString(0, HEIGHT - 1, text, attributes);
+		buffer.insertLine(HEIGHT - 1);
+	}
+
+	/** Heap in use after giving the collector a few chances to run. */
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Heap taken by a full 5000 line scrollback, next to the old layout of a
+	 * char[] and a long[] for every line.
+	 */
+	@Test
+	public void packedScrollbackMemory() {
+		int lines = 5000;
+
+		long before = usedMemory();
+		char[][] oldChars = new char[lines][WIDTH];
+		long[][] oldAttributes = new long[lines][WIDTH];
+		long oldLayout = usedMemory() - before;
+
+		before = usedMemory();
+		VDUBuffer buffer = newBuffer(lines);
+		for (int i = 0; i < lines; i++)
+			printLine(buffer, "line " + i, VDUBuffer.NORMAL);
+		long packed = usedMemory() - before;
+
+		// both layouts have to stay reachable until they have been measured
+		assertEquals(lines, oldChars.length);
+		assertEquals(lines, oldAttributes.length);
+		assertEquals(lines, buffer.getBufferSize());
+		System.out.printf("%d lines: packed %d KiB, char[] and long[] %d KiB%n",
+				lines, packed / 1024, oldLayout / 1024);
+	}
+
+	/**
+	 * Heap growth while a million lines go through a buffer that keeps its
+	 * scrollback in a page file. Only the in-memory rows and the archive's
+	 * index should show up.
+	 */
+	@Test
+	public void millionLineScrollbackHeap() throws Exception {
+		int lines = 1000000;
+		VDUBuffer buffer = newBuffer(1000);
+		ScrollbackArchive archive = new ScrollbackArchive(new File(folder.getRoot(), "scrollback.pages"), lines);
+		buffer.setScrollbackArchive(archive);
+
+		long before = usedMemory();
+		long start = System.nanoTime();
+		for (int i = 0; i < lines; i++)
+			printLine(buffer, "build step " + i + ": compiling module", VDUBuffer.NORMAL);
+		long millis = (System.nanoTime() - start) / 1000000;
+		long heap = usedMemory() - before;
+
+		// the oldest line has to come back from the page file intact
+		char[] first = new char[WIDTH];
+		buffer.getChars(HEIGHT - 1, first, 0);
+		assertEquals("build step 0: compiling module", new String(first).trim());
+
+		System.out.printf("%d lines in %d ms: heap grew %d KiB, page file %d MiB%n", lines, millis,
+				heap / 1024, archive.getFileSize() >> 20);
+		archive.close();
+	}
+
+	/**
+	 * Repeated searches through 100000 lines of test output with a handful
+	 * of failures, most of which the index should let the search skip.
+	 */
+	@Test
+	public void searchLongScrollback() {
+		int lines = 100000;
+		VDUBuffer buffer = newBuffer(lines);
+		for (int i = 0; i < lines; i++)
+			printLine(buffer, (i % 5000 == 17 ? "FAILED test " : "passed test ") + i, VDUBuffer.NORMAL);
+
+		int bottom = buffer.screenBase + HEIGHT - 1;
+		int passes = 10;
+		buffer.find("FAILED", false, bottom, WIDTH, true);
+		long start = System.nanoTime();
+		int found = 0;
+		for (int pass = 0; pass < passes; pass++) {
+			SearchMatch match = buffer.find("FAILED", false, bottom, WIDTH, true);
+			for (; match != null; match = buffer.find("FAILED", false, match.row, match.start, true))
+				found++;
+		}
+		long micros = (System.nanoTime() - start) / passes / 1000;
+
+		assertEquals(passes * lines / 5000, found);
+		System.out.printf("searching %d lines for %d matches: %d us%n", lines, found / passes, micros);
+	}
+
+	/**
+	 * Bytes per line of scrollback compressed on the heap, for web server
+	 * style logs with some colored lines, next to a row kept in memory.
+	 */
+	@Test
+	public void compressedScrollbackSize() {
+		int lines = 20000;
+		VDUBuffer buffer = newBuffer(500);
+		ScrollbackArchive archive = new ScrollbackArchive(lines);
+		buffer.setScrollbackArchive(archive);
+
+		long bold = VDUBuffer.BOLD | (2L << VDUBuffer.COLOR_FG_SHIFT);
+		long start = System.nanoTime();
+		for (int i = 0; i < lines; i++) {
+			buffer.deleteArea(0, HEIGHT - 1, WIDTH, 1);
+			buffer.putString(0, HEIGHT - 1, "[" + (i % 60) + "s] ");
+			buffer.putString(6, HEIGHT - 1, "GET /static/asset-" + i + ".js 200 " + (i * 37 % 9000) + " bytes",
+					i % 7 == 0 ? bold : VDUBuffer.NORMAL);
+			buffer.insertLine(HEIGHT - 1);
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		int archived = buffer.getArchivedRows();
+		assertEquals(archived, archive.size());
+		System.out.printf("%d lines archived in %d ms: %d bytes per line compressed, %d in memory%n",
+				archived, millis, archive.getHeapSize() / archived, 16 + 4 * WIDTH);
+		archive.close();
+	}
+
+	private static class NullDisplay implements VDUDisplay {
+		@Override
+		public void redraw() {
+		}
+
+		@Override
+		public void updateScrollBar() {
+		}
+
+		@Override
+		public void setVDUBuffer(VDUBuffer buffer) {
+		}
+
+		@Override
+		public VDUBuffer getVDUBuffer() {
+			return null;
+		}
+
+		@Override
+		public void setColor(int index, int red, int green, int blue) {
+		}
+
+		@Override
+		public void resetColors() {
+		}
+	}
+}
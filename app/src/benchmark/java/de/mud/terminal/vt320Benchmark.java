@@ -0,0 +1,64 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import org.junit.Test;
+
+public class vt320Benchmark {
+	/**
+	 * Decomposed accented text put through an 80x24 terminal over and over,
+	 * so nearly every character goes through precomposition.
+	 */
+	@Test
+	public void combiningThroughput() {
+		vt320 big = vt320Test.createTerminal(80, 24);
+		char[] chars = vt320Test.DECOMPOSED.toCharArray();
+		byte[] widths = new byte[chars.length];
+
+		int rounds = 20000;
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			big.putString(chars, widths, 0, chars.length);
+		long nanos = Math.max(1, System.nanoTime() - start);
+
+		System.out.printf("combining text: %d kchars/s%n", (long) rounds * chars.length * 1000000 / nanos);
+	}
+
+	/**
+	 * Time per resize with a full scrollback of 1000 and of 10000 lines.
+	 * Scrollback is reflowed lazily, so the two should be close.
+	 */
+	@Test
+	public void resizeCost() {
+		String line = vt320Test.wideLine();
+		for (int scrollback : new int[] {1000, 10000}) {
+			vt320 big = vt320Test.createTerminal(80, 24);
+			big.setBufferSize(scrollback);
+			while (big.getBufferSize() < scrollback)
+				big.putString(line);
+
+			int resizes = 200;
+			long start = System.nanoTime();
+			for (int i = 0; i < resizes; i++)
+				big.setScreenSize(i % 2 == 0 ? 100 : 80, 24, false);
+			long micros = (System.nanoTime() - start) / 1000 / resizes;
+
+			System.out.printf("resize with %d lines of scrollback: %d us%n", scrollback, micros);
+		}
+	}
+}
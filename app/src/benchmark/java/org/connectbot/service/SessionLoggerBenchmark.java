@@ -0,0 +1,56 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Time {@link SessionLogger#log} takes on the relay thread for each chunk of
+ * host output, with the disk writes left to the logger's own thread.
+ */
+public class SessionLoggerBenchmark {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void perChunkLatency() throws Exception {
+		SessionLogger logger = new SessionLogger(folder.getRoot(), "benchmark",
+				SessionLogger.Format.RAW, SessionLogger.DEFAULT_SEGMENT_SIZE, 80, 24);
+		logger.start();
+
+		byte[] chunk = new byte[4096];
+		Arrays.fill(chunk, (byte) 'x');
+		// few enough that none are dropped for going over MAX_PENDING
+		int chunks = 500;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < chunks; i++)
+			logger.log(chunk, 0, chunk.length);
+		long perChunk = (System.nanoTime() - start) / chunks;
+
+		logger.close();
+		logger.join(5000);
+
+		System.out.printf("%d ns per %d byte chunk, %d bytes logged, %d dropped%n",
+				perChunk, chunk.length, logger.getLoggedBytes(), logger.getDroppedBytes());
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import org.junit.Test;
+
+/**
+ * Decode rates of {@link Utf8Decoder} next to the {@link CharsetDecoder}
+ * that {@link Relay} falls back to for other charsets. On a desktop JVM the
+ * JDK's ASCII path is intrinsified and usually comes out ahead; the CJK
+ * numbers are the ones to watch.
+ */
+public class Utf8DecoderBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final long TOTAL = 16 * 1024 * 1024;
+	private static final int CHUNK = 4096;
+
+	@Test
+	public void decodeRates() {
+		StringBuilder ascii = new StringBuilder();
+		StringBuilder cjk = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			ascii.append("drwxr-xr-x  2 root root 4096 Jan  1 00:00 directory").append(i).append("\r\n");
+			cjk.append("\u65E5\u672C\u8A9E\u306E\u30C6\u30AD\u30B9\u30C8 \u4E2D\u6587\u6587\u672C ").append(i).append("\r\n");
+		}
+
+		// the first rounds only warm up the JIT
+		for (int round = 0; round < 3; round++) {
+			report("ASCII", ascii.toString().getBytes(UTF8), round == 2);
+			report("CJK", cjk.toString().getBytes(UTF8), round == 2);
+		}
+	}
+
+	private static void report(String name, byte[] text, boolean print) {
+		Utf8Decoder decoder = new Utf8Decoder();
+		char[] out = new char[CHUNK + 1];
+
+		long start = System.nanoTime();
+		for (long done = 0; done < TOTAL; done += CHUNK)
+			decoder.decode(text, (int) (done % (text.length - CHUNK)), CHUNK, out);
+		long utf8Nanos = System.nanoTime() - start;
+
+		CharsetDecoder cd = UTF8.newDecoder();
+		cd.onMalformedInput(CodingErrorAction.REPLACE);
+		cd.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer charBuffer = CharBuffer.allocate(CHUNK);
+
+		start = System.nanoTime();
+		for (long done = 0; done < TOTAL; done += CHUNK) {
+			cd.decode(ByteBuffer.wrap(text, (int) (done % (text.length - CHUNK)), CHUNK), charBuffer, false);
+			charBuffer.clear();
+		}
+		long referenceNanos = System.nanoTime() - start;
+
+		if (print)
+			System.out.printf("%s: Utf8Decoder %d MB/s, CharsetDecoder %d MB/s%n", name,
+					TOTAL * 1000 / utf8Nanos, TOTAL * 1000 / referenceNanos);
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Throughput of the engine with many forwarded sockets busy at once, using
+ * the echo server and socket tunnels from {@link PortForwardEngineTest}.
+ */
+public class PortForwardEngineBenchmark {
+	private final PortForwardEngineTest harness = new PortForwardEngineTest();
+
+	@Before
+	public void setUp() throws Exception {
+		harness.setUp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		harness.tearDown();
+	}
+
+	@Test
+	public void manyConcurrentSockets() throws Exception {
+		int sockets = 64;
+		int perSocket = 1 << 20;
+
+		long start = System.nanoTime();
+		harness.echoThroughSockets(sockets, perSocket);
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		System.out.printf("%d sockets, %d KiB each way: %d ms, %d MiB/s%n", sockets, perSocket >> 10,
+				millis, 2L * sockets * perSocket * 1000 / Math.max(millis, 1) >> 20);
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.util;
+
+import java.security.KeyPairGenerator;
+
+import org.connectbot.bean.HostBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.trilead.ssh2.KnownHosts;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Host key checks with the per-host lookup against loading every known
+ * host, for a small and a large table. The per-host lookup should cost
+ * about the same at both sizes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HostDatabaseBenchmark {
+	private static final String ALGORITHM = "ssh-rsa";
+	private static final int LOOKUPS = 200;
+
+	private byte[] hostKey;
+	private HostDatabase hostdb;
+
+	@Before
+	public void setUp() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(1024);
+		hostKey = PubkeyUtils.extractOpenSSHPublic(generator.generateKeyPair());
+
+		hostdb = new HostDatabase(ApplicationProvider.getApplicationContext(), null);
+	}
+
+	@After
+	public void tearDown() {
+		hostdb.close();
+	}
+
+	private void addHosts(int count) {
+		hostdb.getWritableDatabase().beginTransaction();
+		try {
+			for (int i = 0; i < count; i++) {
+				hostdb.saveHost(new HostBean("host" + i, "ssh", "user", "host" + i + ".example.com", 22));
+				hostdb.saveKnownHost("host" + i + ".example.com", 22, ALGORITHM, hostKey);
+			}
+			hostdb.getWritableDatabase().setTransactionSuccessful();
+		} finally {
+			hostdb.getWritableDatabase().endTransaction();
+		}
+	}
+
+	@Test
+	public void lookupTime() throws Exception {
+		for (int hosts : new int[] {100, 2000}) {
+			hostdb.resetDatabase();
+			addHosts(hosts);
+
+			long start = System.nanoTime();
+			for (int i = 0; i < LOOKUPS; i++) {
+				// step through the hosts so most lookups miss the cache
+				String hostname = "host" + (i * 7 % hosts) + ".example.com";
+				assertEquals(KnownHosts.HOSTKEY_IS_OK, hostdb.getKnownHostsForHost(hostname, 22)
+						.verifyHostkey(hostname + ":22", ALGORITHM, hostKey));
+			}
+			long indexedNanos = (System.nanoTime() - start) / LOOKUPS;
+
+			start = System.nanoTime();
+			for (int i = 0; i < 5; i++) {
+				assertEquals(KnownHosts.HOSTKEY_IS_OK, hostdb.getKnownHosts()
+						.verifyHostkey("host0.example.com:22", ALGORITHM, hostKey));
+			}
+			long fullTableNanos = (System.nanoTime() - start) / 5;
+
+			System.out.printf("%d hosts: per-host lookup %d us, full table %d us%n",
+					hosts, indexedNanos / 1000, fullTableNanos / 1000);
+		}
+	}
+}
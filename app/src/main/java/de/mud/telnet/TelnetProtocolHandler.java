@@ -27,6 +27,7 @@ package de.mud.telnet;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This is a telnet protocol handler. The handler needs implementations
@@ -45,8 +46,13 @@ public abstract class TelnetProtocolHandler {
   /** debug level */
   private final static int debug = 0;
 
-  /** temporary buffer for data-telnetstuff-data transformation */
+  /** temporary buffer for data-telnetstuff-data transformation, reused
+   *  between calls; the unprocessed bytes are tempbuf[tempstart..tempend) */
   private byte[] tempbuf = new byte[0];
+  private int tempstart, tempend;
+
+  /** reply buffer for simple three byte negotiation answers */
+  private final byte[] sendbuf = new byte[3];
 
   /** the data sent on pressing <RETURN>  \n */
   private byte[] crlf = new byte[2];
@@ -143,8 +149,9 @@ public abstract class TelnetProtocolHandler {
   /** What IAC SB <xx> we are handling right now */
   private byte current_sb;
 
-  /** current SB negotiation buffer */
-  private byte[] sbbuf;
+  /** current SB negotiation buffer, the first sblen bytes are valid */
+  private byte[] sbbuf = new byte[64];
+  private int sblen;
 
   /** IAC - init sequence for telnet negotiation. */
   private final static byte IAC  = (byte)255;
@@ -439,17 +446,38 @@ public abstract class TelnetProtocolHandler {
   public int negotiate(byte nbuf[], int offset)
   throws IOException
   {
-    int count = tempbuf.length;
+    return negotiate(nbuf, offset, nbuf.length - offset);
+  }
+
+  /**
+   * Handle telnet protocol negotiation, putting out at most len bytes.
+   * @see #negotiate(byte[], int)
+   */
+  public int negotiate(byte nbuf[], int offset, int len)
+  throws IOException
+  {
+    int count = tempend;
     byte[] buf = tempbuf;
-    byte sendbuf[] = new byte[3];
     byte b,reply;
-    int boffset = 0, noffset = offset;
+    int boffset = tempstart, noffset = offset, nend = offset + len;
     boolean dobreak = false;
 
-    if (count == 0) 	// buffer is empty.
+    if (boffset == count) 	// buffer is empty.
       return -1;
 
-    while(!dobreak && (boffset < count) && (noffset < nbuf.length)) {
+    while(!dobreak && (boffset < count) && (noffset < nend)) {
+      if (neg_state == STATE_DATA) {
+        // copy everything up to the next IAC in one go
+        int limit = Math.min(count, boffset + nend - noffset);
+        int span = boffset;
+        while (span < limit && buf[span] != IAC)
+          span++;
+        System.arraycopy(buf, boffset, nbuf, noffset, span - boffset);
+        noffset += span - boffset;
+        boffset = span;
+        if (span == limit)
+          continue;
+      }
       b=buf[boffset++];
       // of course, byte is a signed entity (-128 -> 127)
       // but apparently the SGI Netscape 3.0 doesn't seem
@@ -683,7 +711,7 @@ public abstract class TelnetProtocolHandler {
       case STATE_IACSBIAC:
         if(debug > 2) System.err.println(""+b+" ");
         if (b == IAC) {
-	  sbbuf = new byte[0];
+	  sblen = 0;
           current_sb = b;
           neg_state = STATE_IACSBDATA;
         } else {
@@ -699,7 +727,7 @@ public abstract class TelnetProtocolHandler {
           break;
         default:
           current_sb = b;
-	  sbbuf = new byte[0];
+	  sblen = 0;
           neg_state = STATE_IACSBDATA;
           break;
         }
@@ -711,10 +739,7 @@ public abstract class TelnetProtocolHandler {
           neg_state = STATE_IACSBDATAIAC;
           break;
         default:
-	  byte[] xsb = new byte[sbbuf.length+1];
-          System.arraycopy(sbbuf,0,xsb,0,sbbuf.length);
-	  sbbuf = xsb;
-          sbbuf[sbbuf.length-1] = b;
+          sbappend(b);
           break;
         }
         break;
@@ -723,18 +748,15 @@ public abstract class TelnetProtocolHandler {
         switch (b) {
         case IAC:
           neg_state = STATE_IACSBDATA;
-	  byte[] xsb = new byte[sbbuf.length+1];
-          System.arraycopy(sbbuf,0,xsb,0,sbbuf.length);
-	  sbbuf = xsb;
-          sbbuf[sbbuf.length-1] = IAC;
+          sbappend(IAC);
           break;
         case SE:
-          handle_sb(current_sb,sbbuf);
+          handle_sb(current_sb,Arrays.copyOf(sbbuf,sblen));
           current_sb = 0;
           neg_state = STATE_DATA;
           break;
         case SB:
-          handle_sb(current_sb,sbbuf);
+          handle_sb(current_sb,Arrays.copyOf(sbbuf,sblen));
           neg_state = STATE_IACSB;
           break;
         default:
@@ -749,18 +771,55 @@ public abstract class TelnetProtocolHandler {
         break;
       }
     }
-    // shrink tempbuf to new processed size.
-    byte[] xb = new byte[count-boffset];
-    System.arraycopy(tempbuf,boffset,xb,0,count-boffset);
-    tempbuf = xb;
+    // move the read cursor past the processed bytes.
+    tempstart = boffset;
+    if (tempstart == tempend)
+      tempstart = tempend = 0;
     return noffset - offset;
   }
 
+  private void sbappend(byte b) {
+    if (sblen == sbbuf.length)
+      sbbuf = Arrays.copyOf(sbbuf, sblen * 2);
+    sbbuf[sblen++] = b;
+  }
+
+  /**
+   * Queue received bytes for negotiate().
+   */
   public void inputfeed(byte[] b, int offset, int len) {
-    byte[] xb = new byte[tempbuf.length+len];
+    if (tempend + len > tempbuf.length) {
+      int count = tempend - tempstart;
+      if (count + len > tempbuf.length) {
+        byte[] xb = new byte[Math.max(tempbuf.length * 2, count + len)];
+        System.arraycopy(tempbuf,tempstart,xb,0,count);
+        tempbuf = xb;
+      } else
+        System.arraycopy(tempbuf,tempstart,tempbuf,0,count);
+      tempstart = 0;
+      tempend = count;
+    }
+    System.arraycopy(b,offset,tempbuf,tempend,len);
+    tempend += len;
+  }
 
-    System.arraycopy(tempbuf,0,xb,0,tempbuf.length);
-    System.arraycopy(b,offset,xb,tempbuf.length,len);
-    tempbuf = xb;
+  /**
+   * Take received bytes without copying the plain data. Everything in
+   * front of the first IAC is left in place in b; the rest is queued
+   * for negotiate(). Nothing is left in place while earlier input is
+   * still queued or a command is half read.
+   * @return number of data bytes at b[offset] that need no processing
+   */
+  public int inputfilter(byte[] b, int offset, int len) {
+    if (neg_state != STATE_DATA || tempend > tempstart) {
+      inputfeed(b, offset, len);
+      return 0;
+    }
+    int end = offset + len, i = offset;
+    while (i < end && b[i] != IAC)
+      i++;
+    if (i < end)
+      inputfeed(b, i, end - i);
+    return i - offset;
   }
 }
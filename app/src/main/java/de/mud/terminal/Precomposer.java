@@ -1025,28 +1025,94 @@ public class Precomposer {
 		{ 0xFB2D, 0xFB49, 0x05C2},
 	};
 
-	private static final int UNICODE_SHIFT = 21;
+	/** Open addressing table of base << 16 | mark, at most half full. */
+	private static final int TABLE_BITS = 11;
+	private static final int[] keys = new int[1 << TABLE_BITS];
+	private static final char[] composed = new char[1 << TABLE_BITS];
 
-	public static char precompose(char base, char comb) {
-		int min = 0;
-		int max = precompositions.length - 1;
-		int mid;
+	/* flags per character, in blocks of 256 */
+	static final int MARK = 1;
+	static final int COMBINER = 2;
+	private static final byte[] NO_FLAGS = new byte[256];
+	private static final byte[][] flags = new byte[256][];
+
+	static {
+		final int mask = keys.length - 1;
+		for (char[] row : precompositions) {
+			int key = row[1] << 16 | row[2];
+			int slot = hash(key);
+			while (keys[slot] != 0)
+				slot = (slot + 1) & mask;
+			keys[slot] = key;
+			composed[slot] = row[0];
+		}
+
+		for (int block = 0; block < flags.length; block++) {
+			byte[] blockFlags = null;
+			for (int i = 0; i < 256; i++) {
+				int type = Character.getType((char) (block << 8 | i));
+				if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK) {
+					if (blockFlags == null)
+						blockFlags = new byte[256];
+					blockFlags[i] = MARK;
+				}
+			}
+			flags[block] = blockFlags != null ? blockFlags : NO_FLAGS;
+		}
 
-		long sought = base << UNICODE_SHIFT | comb;
-		long that;
+		for (char[] row : precompositions) {
+			char mark = row[2];
+			if (flags[mark >> 8] == NO_FLAGS)
+				flags[mark >> 8] = new byte[256];
+			flags[mark >> 8][mark & 0xff] |= COMBINER;
+		}
+	}
+
+	private static int hash(int key) {
+		return (key * 0x9E3779B9) >>> (32 - TABLE_BITS);
+	}
 
-		while (max >= min) {
-			mid = (min + max) / 2;
-			that = precompositions[mid][1] << UNICODE_SHIFT | precompositions[mid][2];
-			if (that < sought)
-				min = mid + 1;
-			else if (that > sought)
-				max = mid - 1;
-			else
-				return precompositions[mid][0];
+	/**
+	 * @return the character composed of {@code base} and {@code comb}, or -1
+	 *         if there is none
+	 */
+	public static int compose(char base, char comb) {
+		final int key = base << 16 | comb;
+		final int mask = keys.length - 1;
+		for (int slot = hash(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+			if (keys[slot] == key)
+				return composed[slot];
 		}
+		return -1;
+	}
+
+	public static char precompose(char base, char comb) {
+		int c = compose(base, comb);
 
 		// No match; return character without combiner
-		return base;
+		return c < 0 ? base : (char) c;
+	}
+
+	/**
+	 * @return whether {@code c} is a mark that takes no cell of its own,
+	 *         i.e. a non-spacing or enclosing mark
+	 */
+	public static boolean isCombining(char c) {
+		return (flags(c) & MARK) != 0;
+	}
+
+	/**
+	 * @return whether {@code c} combines with some character in
+	 *         {@link #precompositions}; this includes a few spacing marks
+	 */
+	public static boolean isCombiner(char c) {
+		return (flags(c) & COMBINER) != 0;
+	}
+
+	/**
+	 * @return {@link #MARK} and {@link #COMBINER} bits of {@code c}
+	 */
+	static int flags(char c) {
+		return flags[c >> 8][c & 0xff];
 	}
 }
@@ -0,0 +1,585 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Holds scrollback lines that no longer fit in a {@link VDUBuffer}'s memory
+ * in an append-only page file. The file is split into fixed-size segments
+ * that are memory-mapped as they are needed, so only the few pages being
+ * written or read are resident and the heap only holds a small index.
+ * <p>
+ * Without a file, the segments are kept on the heap instead. Each one is
+ * deflated as soon as it is full, and inflated again only while it is being
+ * read; a couple of inflated segments are kept around for scrolling back and
+ * forth.
+ * <p>
+ * Lines are stored with their attributes rather than style ids, so they stay
+ * valid when the buffer's {@link StyleTable} is compacted. Each line also
+ * keeps its {@link ScrollbackIndex} signature so searches can skip it without
+ * decoding it. Once more than
+ * {@code maxLines} are held, whole segments are dropped from the oldest end
+ * and their space in the file is reused.
+ * <p>
+ * Lines are numbered from 0 for the oldest line still held.
+ */
+public final class ScrollbackArchive {
+	/** Default number of lines kept on disk. */
+	public final static int DEFAULT_MAX_LINES = 1000000;
+
+	/** Default size of each mapped segment of the page file. */
+	final static int SEGMENT_SIZE = 4 << 20;
+
+	/** Size of each segment held on the heap. */
+	final static int COMPRESSED_SEGMENT_SIZE = 32 << 10;
+
+	/* how many compressed segments are kept inflated at once */
+	private final static int INFLATED_SEGMENTS = 2;
+
+	/* how many lines share one index entry */
+	private final static int PAGE_LINES = 64;
+
+	private final static int BLANK = ' ';
+
+	private static final class Segment {
+		final int slot;
+		/* the records, or null while only the compressed copy is held */
+		ByteBuffer map;
+		/* deflated records of a full segment held on the heap */
+		byte[] packed;
+		final int firstLine;
+		int lineCount;
+		/* offset of every PAGE_LINES-th line */
+		int[] pages = new int[16];
+		int end;
+
+		Segment(int slot, ByteBuffer map, int firstLine) {
+			this.slot = slot;
+			this.map = map;
+			this.firstLine = firstLine;
+		}
+	}
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final int maxLines;
+	private final int segmentSize;
+
+	private final ArrayList<Segment> segments = new ArrayList<Segment>();
+	private final ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();
+	private int slotCount;
+
+	/* compressed segments that are also inflated, most recently used last */
+	private final ArrayDeque<Segment> inflated = new ArrayDeque<Segment>();
+	private ByteBuffer spareBuffer;
+	private final Deflater deflater;
+	private final Inflater inflater;
+
+	/* absolute number of the oldest line held and of the next line appended */
+	private int firstLine;
+	private int nextLine;
+
+	private byte[] record = new byte[256];
+	private final long[] signature = new long[2];
+
+	/* record offsets of one page, for walking it backwards */
+	private final int[] pageOffsets = new int[PAGE_LINES];
+
+	private boolean closed;
+
+	/**
+	 * Create an empty archive, replacing whatever is in the file.
+	 * @param file page file, which is deleted again by {@link #close}
+	 * @param maxLines number of lines to keep
+	 */
+	public ScrollbackArchive(File file, int maxLines) throws IOException {
+		this(file, maxLines, SEGMENT_SIZE);
+	}
+
+	ScrollbackArchive(File file, int maxLines, int segmentSize) throws IOException {
+		this.file = file;
+		this.maxLines = maxLines;
+		this.segmentSize = segmentSize;
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+		deflater = null;
+		inflater = null;
+	}
+
+	/**
+	 * Create an empty archive that keeps its lines compressed on the heap.
+	 * @param maxLines number of lines to keep
+	 */
+	public ScrollbackArchive(int maxLines) {
+		this.file = null;
+		this.maxLines = maxLines;
+		this.segmentSize = COMPRESSED_SEGMENT_SIZE;
+		raf = null;
+		channel = null;
+		deflater = new Deflater(Deflater.BEST_SPEED);
+		inflater = new Inflater();
+	}
+
+	/**
+	 * @return number of lines held
+	 */
+	public synchronized int size() {
+		return nextLine - firstLine;
+	}
+
+	/**
+	 * @return absolute number of the oldest line held, which grows by the
+	 *         number of lines dropped so far
+	 */
+	public synchronized int getFirstLine() {
+		return firstLine;
+	}
+
+	/**
+	 * @return bytes of the page file in use
+	 */
+	public synchronized long getFileSize() {
+		return (long) slotCount * segmentSize;
+	}
+
+	/**
+	 * @return bytes of heap taken by the lines of an archive without a file:
+	 *         the compressed segments plus the ones currently inflated
+	 */
+	public synchronized long getHeapSize() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.pages.length * 4;
+			if (segment.packed != null)
+				size += segment.packed.length;
+			if (file == null && segment.map != null)
+				size += segmentSize;
+		}
+		return size;
+	}
+
+	/**
+	 * Add a line at the newest end.
+	 * @param cells packed cells of the line
+	 * @param styles table the style ids in the cells refer to
+	 * @return false if the line could not be written; the archive is unusable
+	 *         from then on
+	 */
+	public synchronized boolean append(int[] cells, StyleTable styles) {
+		if (closed)
+			return false;
+
+		int length = encode(cells, styles);
+		int needed = length + 5 + 16;
+		if (needed > segmentSize)
+			return false;
+
+		Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		try {
+			if (segment == null || segmentSize - segment.end < needed)
+				segment = addSegment();
+		} catch (IOException e) {
+			close();
+			return false;
+		}
+
+		int local = segment.lineCount;
+		if (local % PAGE_LINES == 0) {
+			int page = local / PAGE_LINES;
+			if (page == segment.pages.length)
+				segment.pages = Arrays.copyOf(segment.pages, page * 2);
+			segment.pages[page] = segment.end;
+		}
+
+		int pos = putVarint(segment.map, segment.end, length + 16);
+		ScrollbackIndex.signature(cells, signature);
+		segment.map.putLong(pos, signature[0]);
+		segment.map.putLong(pos + 8, signature[1]);
+		pos += 16;
+		for (int i = 0; i < length; i++)
+			segment.map.put(pos++, record[i]);
+		segment.end = pos;
+		segment.lineCount++;
+		nextLine++;
+
+		while (segments.size() > 1 && size() - segments.get(0).lineCount >= maxLines)
+			dropOldestSegment();
+
+		return true;
+	}
+
+	/**
+	 * Decode a line into packed cells.
+	 * @param line line number, 0 being the oldest line held
+	 * @param dest receives the cells; cells beyond the stored line are blank
+	 * @param styles table to look up or add the line's attributes in
+	 * @return false if the style table was full, in which case the affected
+	 *         cells use style 0
+	 */
+	public synchronized boolean read(int line, int[] dest, StyleTable styles) {
+		if (closed || line < 0 || line >= size()) {
+			Arrays.fill(dest, BLANK);
+			return true;
+		}
+
+		Segment segment = findSegment(firstLine + line);
+		ByteBuffer map = records(segment);
+		int local = firstLine + line - segment.firstLine;
+		int pos = segment.pages[local / PAGE_LINES];
+		for (int i = local % PAGE_LINES; i > 0; i--)
+			pos = skipRecord(map, pos);
+		pos = skipVarint(map, pos) + 16;
+
+		boolean complete = true;
+		int header = getVarint(map, pos);
+		int cells = header >>> 1;
+		pos = skipVarint(map, pos);
+		int c = 0;
+		while (c < cells) {
+			int run = getVarint(map, pos);
+			pos = skipVarint(map, pos);
+			long attributes = getVarlong(map, pos);
+			pos = skipVarint(map, pos);
+
+			int style = styles.intern(attributes);
+			if (style < 0) {
+				style = 0;
+				complete = false;
+			}
+			style <<= 16;
+
+			for (int end = c + run; c < end; c++) {
+				int ch = getVarint(map, pos);
+				pos = skipVarint(map, pos);
+				if (c < dest.length)
+					dest[c] = style | ch;
+			}
+		}
+		if (c < dest.length)
+			Arrays.fill(dest, c, dest.length, BLANK);
+		if ((header & 1) != 0)
+			dest[dest.length - 1] |= VDUBuffer.WRAPPED;
+
+		return complete;
+	}
+
+	/**
+	 * Find the nearest line whose signature has all the given bits, starting
+	 * at {@code line} and moving in the given direction.
+	 * @return the line number or -1 if no line passes
+	 * @see ScrollbackIndex
+	 */
+	public synchronized int findCandidate(int line, boolean backwards, long low, long high) {
+		int size = size();
+		if (line >= size) {
+			if (!backwards)
+				return -1;
+			line = size - 1;
+		}
+		if (line < 0)
+			return -1;
+
+		int absolute = firstLine + line;
+		while (absolute >= firstLine && absolute < nextLine) {
+			Segment segment = findSegment(absolute);
+			ByteBuffer map = records(segment);
+			int local = absolute - segment.firstLine;
+
+			if (!backwards) {
+				int pos = segment.pages[local / PAGE_LINES];
+				for (int i = local % PAGE_LINES; i > 0; i--)
+					pos = skipRecord(map, pos);
+				for (; local < segment.lineCount; local++) {
+					if (matches(map, pos, low, high))
+						return segment.firstLine + local - firstLine;
+					pos = skipRecord(map, pos);
+				}
+				absolute = segment.firstLine + segment.lineCount;
+			} else {
+				for (int page = local / PAGE_LINES; page >= 0; page--) {
+					int last = page == local / PAGE_LINES ? local % PAGE_LINES : PAGE_LINES - 1;
+					int pos = segment.pages[page];
+					for (int i = 0; i <= last; i++) {
+						pageOffsets[i] = pos;
+						pos = skipRecord(map, pos);
+					}
+					for (int i = last; i >= 0; i--) {
+						if (matches(map, pageOffsets[i], low, high))
+							return segment.firstLine + page * PAGE_LINES + i - firstLine;
+					}
+				}
+				absolute = segment.firstLine - 1;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean matches(ByteBuffer map, int pos, long low, long high) {
+		pos = skipVarint(map, pos);
+		return (map.getLong(pos) & low) == low && (map.getLong(pos + 8) & high) == high;
+	}
+
+	private static int skipRecord(ByteBuffer map, int pos) {
+		int length = getVarint(map, pos);
+		return skipVarint(map, pos) + length;
+	}
+
+	/**
+	 * Forget every line without giving the file space back.
+	 */
+	public synchronized void clear() {
+		for (Segment segment : segments) {
+			if (file != null)
+				freeSlots.add(segment.slot);
+		}
+		segments.clear();
+		inflated.clear();
+		firstLine = nextLine;
+	}
+
+	/**
+	 * Let go of the mapped segments and delete the page file.
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		segments.clear();
+		freeSlots.clear();
+		inflated.clear();
+		spareBuffer = null;
+		firstLine = nextLine;
+		if (file == null) {
+			deflater.end();
+			inflater.end();
+			return;
+		}
+		try {
+			raf.close();
+		} catch (IOException e) {
+			// nothing left to do with it
+		}
+		file.delete();
+	}
+
+	/**
+	 * Encode a line into {@link #record}: the number of cells shifted left by
+	 * one with the wrap mark in the low bit, then runs of cells sharing
+	 * attributes. Trailing blank cells are left out. On disk
+	 * the record is preceded by its length and the line's signature.
+	 * @return length of the record
+	 */
+	private int encode(int[] cells, StyleTable styles) {
+		int cellCount = cells.length;
+		while (cellCount > 0 && cells[cellCount - 1] == BLANK)
+			cellCount--;
+
+		int worst = 5 + cellCount * (5 + 10 + 3);
+		if (record.length < worst)
+			record = new byte[worst];
+
+		boolean wrapped = cells.length > 0 && (cells[cells.length - 1] & VDUBuffer.WRAPPED) != 0;
+		int pos = putVarint(record, 0, cellCount << 1 | (wrapped ? 1 : 0));
+		int c = 0;
+		while (c < cellCount) {
+			int style = VDUBuffer.cellStyle(cells[c]);
+			int end = c + 1;
+			while (end < cellCount && VDUBuffer.cellStyle(cells[end]) == style)
+				end++;
+
+			pos = putVarint(record, pos, end - c);
+			pos = putVarlong(record, pos, styles.get(style));
+			for (; c < end; c++)
+				pos = putVarint(record, pos, VDUBuffer.cellChar(cells[c]));
+		}
+		return pos;
+	}
+
+	private Segment addSegment() throws IOException {
+		Segment segment;
+		if (file == null) {
+			if (!segments.isEmpty())
+				compress(segments.get(segments.size() - 1));
+			segment = new Segment(-1, takeBuffer(), nextLine);
+		} else {
+			int slot = freeSlots.isEmpty() ? slotCount++ : freeSlots.poll();
+			ByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE,
+					(long) slot * segmentSize, segmentSize);
+			segment = new Segment(slot, map, nextLine);
+		}
+		segments.add(segment);
+		return segment;
+	}
+
+	private void dropOldestSegment() {
+		Segment oldest = segments.remove(0);
+		firstLine += oldest.lineCount;
+		if (file != null)
+			freeSlots.add(oldest.slot);
+		else if (inflated.remove(oldest))
+			release(oldest);
+	}
+
+	/**
+	 * Deflate a full segment. Its records stay readable until it is pushed
+	 * out of the inflated segments.
+	 */
+	private void compress(Segment segment) {
+		deflater.reset();
+		deflater.setInput(segment.map.array(), 0, segment.end);
+		deflater.finish();
+		byte[] packed = new byte[segment.end / 2 + 64];
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == packed.length)
+				packed = Arrays.copyOf(packed, packed.length * 2);
+			length += deflater.deflate(packed, length, packed.length - length);
+		}
+		segment.packed = Arrays.copyOf(packed, length);
+		touch(segment);
+	}
+
+	/**
+	 * @return the records of a segment, inflating them if needed
+	 */
+	private ByteBuffer records(Segment segment) {
+		if (segment.packed == null)
+			return segment.map;
+		if (segment.map == null) {
+			ByteBuffer map = takeBuffer();
+			inflater.reset();
+			inflater.setInput(segment.packed);
+			try {
+				inflater.inflate(map.array(), 0, segment.end);
+			} catch (DataFormatException e) {
+				throw new IllegalStateException("Compressed scrollback is corrupt", e);
+			}
+			segment.map = map;
+		}
+		touch(segment);
+		return segment.map;
+	}
+
+	/**
+	 * Mark an inflated segment as the most recently used one, letting go of
+	 * the records of the least recently used one if there are too many.
+	 */
+	private void touch(Segment segment) {
+		if (inflated.peekLast() == segment)
+			return;
+		inflated.remove(segment);
+		inflated.addLast(segment);
+		if (inflated.size() > INFLATED_SEGMENTS)
+			release(inflated.removeFirst());
+	}
+
+	private void release(Segment segment) {
+		spareBuffer = segment.map;
+		segment.map = null;
+	}
+
+	private ByteBuffer takeBuffer() {
+		ByteBuffer buffer = spareBuffer;
+		spareBuffer = null;
+		return buffer != null ? buffer : ByteBuffer.allocate(segmentSize);
+	}
+
+	private Segment findSegment(int absolute) {
+		int low = 0;
+		int high = segments.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (segments.get(mid).firstLine <= absolute)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return segments.get(low);
+	}
+
+	private static int putVarint(byte[] dest, int pos, int value) {
+		while ((value & ~0x7f) != 0) {
+			dest[pos++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		dest[pos++] = (byte) value;
+		return pos;
+	}
+
+	private static int putVarlong(byte[] dest, int pos, long value) {
+		while ((value & ~0x7fL) != 0) {
+			dest[pos++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		dest[pos++] = (byte) value;
+		return pos;
+	}
+
+	private static int putVarint(ByteBuffer dest, int pos, int value) {
+		while ((value & ~0x7f) != 0) {
+			dest.put(pos++, (byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		dest.put(pos++, (byte) value);
+		return pos;
+	}
+
+	private static int getVarint(ByteBuffer src, int pos) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = src.get(pos++);
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	private static long getVarlong(ByteBuffer src, int pos) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = src.get(pos++);
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	private static int skipVarint(ByteBuffer src, int pos) {
+		while (src.get(pos++) < 0) {
+			// continuation byte
+		}
+		return pos;
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+/**
+ * Trigram signatures of the scrollback lines a {@link VDUBuffer} holds in
+ * memory, oldest first. Each line gets a 128-bit set with one bit for every
+ * case-folded trigram in it. A line can only contain a literal if its
+ * signature has all the bits of the literal's signature, so a search only
+ * has to look at the text of the few lines that pass this test.
+ * <p>
+ * Lines are added as they scroll off the screen and dropped as they leave
+ * memory, so keeping the index up to date costs one pass over each line.
+ */
+final class ScrollbackIndex {
+	/* two longs per line, in a ring starting at head */
+	private long[] signatures = new long[2 * 64];
+	private int head;
+	private int size;
+
+	private final long[] scratch = new long[2];
+
+	/**
+	 * @return number of lines in the index
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Add the signature of a line at the newest end.
+	 */
+	void append(int[] cells) {
+		if (size * 2 == signatures.length)
+			grow();
+		signature(cells, scratch);
+		int slot = slot(size);
+		signatures[slot] = scratch[0];
+		signatures[slot + 1] = scratch[1];
+		size++;
+	}
+
+	/**
+	 * Forget the given number of oldest lines.
+	 */
+	void dropOldest(int count) {
+		if (count >= size) {
+			clear();
+			return;
+		}
+		head = (head + count * 2) % signatures.length;
+		size -= count;
+	}
+
+	void clear() {
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Find the nearest line that may contain a literal with the given
+	 * signature, starting at {@code line} and moving in the given direction.
+	 * @return index of the line or -1 if no line passes
+	 */
+	int findCandidate(int line, boolean backwards, long low, long high) {
+		int step = backwards ? -1 : 1;
+		for (; line >= 0 && line < size; line += step) {
+			int slot = slot(line);
+			if ((signatures[slot] & low) == low && (signatures[slot + 1] & high) == high)
+				return line;
+		}
+		return -1;
+	}
+
+	private int slot(int line) {
+		int slot = head + line * 2;
+		return slot >= signatures.length ? slot - signatures.length : slot;
+	}
+
+	private void grow() {
+		long[] grown = new long[signatures.length * 2];
+		for (int i = 0; i < size * 2; i++)
+			grown[i] = signatures[(head + i) % signatures.length];
+		signatures = grown;
+		head = 0;
+	}
+
+	/**
+	 * Bit of the signature a trigram sets, 0 to 127.
+	 */
+	private static int trigramBit(char a, char b, char c) {
+		int h = (Character.toLowerCase(a) * 31 + Character.toLowerCase(b)) * 31
+				+ Character.toLowerCase(c);
+		h *= 0x9E3779B1;
+		return h >>> 25;
+	}
+
+	/**
+	 * Compute the signature of a line of packed cells.
+	 * @param out receives the low and high 64 bits
+	 */
+	static void signature(int[] cells, long[] out) {
+		long low = 0, high = 0;
+		for (int i = 2; i < cells.length; i++) {
+			int bit = trigramBit(VDUBuffer.cellChar(cells[i - 2]), VDUBuffer.cellChar(cells[i - 1]),
+					VDUBuffer.cellChar(cells[i]));
+			if (bit < 64)
+				low |= 1L << bit;
+			else
+				high |= 1L << (bit - 64);
+		}
+		out[0] = low;
+		out[1] = high;
+	}
+
+	/**
+	 * Compute the signature every line containing the text must have.
+	 * Text shorter than a trigram matches every line.
+	 * @param out receives the low and high 64 bits
+	 */
+	static void signature(CharSequence text, long[] out) {
+		long low = 0, high = 0;
+		for (int i = 2; i < text.length(); i++) {
+			int bit = trigramBit(text.charAt(i - 2), text.charAt(i - 1), text.charAt(i));
+			if (bit < 64)
+				low |= 1L << bit;
+			else
+				high |= 1L << (bit - 64);
+		}
+		out[0] = low;
+		out[1] = high;
+	}
+}
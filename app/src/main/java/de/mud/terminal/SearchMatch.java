@@ -0,0 +1,47 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+/**
+ * Where a search of a {@link VDUBuffer} found its text.
+ */
+public final class SearchMatch {
+	/** Buffer row, in the same coordinates as screenBase and windowBase. */
+	public final int row;
+	/**
+	 * Line number of the row, which unlike the row stays put as output
+	 * scrolls. See {@link VDUBuffer#getRowOfLine}.
+	 */
+	public final long line;
+	/** First column of the match. */
+	public final int start;
+	/** Column after the last one of the match. */
+	public final int end;
+
+	public SearchMatch(int row, long line, int start, int end) {
+		this.row = row;
+		this.line = line;
+		this.start = start;
+		this.end = end;
+	}
+
+	@Override
+	public String toString() {
+		return "SearchMatch[row=" + row + ", line=" + line + ", start=" + start + ", end=" + end + "]";
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.util.Arrays;
+
+/**
+ * Interns the attribute values used by a {@link VDUBuffer} so that each cell
+ * only needs to store a small style id instead of the full 64-bit value.
+ * Style ids are stable until {@link #compact} is called. Truecolor
+ * attributes are stored like any other value, so each distinct 24-bit color
+ * pair takes up one entry.
+ * <p>
+ * Id 0 is always {@link VDUBuffer#NORMAL}.
+ */
+public final class StyleTable {
+	/**
+	 * Number of distinct styles the table can hold. A cell keeps its style
+	 * id in 15 bits; the top bit marks wrapped rows.
+	 */
+	public final static int MAX_STYLES = 1 << 15;
+
+	private long[] styles = new long[16];
+	private int size;
+
+	/* open addressing hash of styles, holding style id + 1 */
+	private int[] hash;
+
+	/* the last value interned and its id, since runs of one style are common */
+	private long lastAttributes;
+	private int lastStyle;
+
+	public StyleTable() {
+		clear();
+	}
+
+	/**
+	 * Find the id of the given attributes, adding them if they are new.
+	 *
+	 * @return the style id, or -1 if the table is full
+	 */
+	public int intern(long attributes) {
+		if (attributes == lastAttributes)
+			return lastStyle;
+
+		int mask = hash.length - 1;
+		int slot = hashOf(attributes) & mask;
+		int entry;
+		while ((entry = hash[slot]) != 0) {
+			if (styles[entry - 1] == attributes)
+				return remember(attributes, entry - 1);
+			slot = (slot + 1) & mask;
+		}
+
+		if (size == MAX_STYLES)
+			return -1;
+
+		int style = size++;
+		if (style == styles.length)
+			styles = Arrays.copyOf(styles, styles.length * 2);
+		styles[style] = attributes;
+		hash[slot] = style + 1;
+		if (size * 2 > hash.length)
+			rehash(hash.length * 2);
+
+		return remember(attributes, style);
+	}
+
+	/**
+	 * @return the attributes of a style id
+	 */
+	public long get(int style) {
+		return styles[style];
+	}
+
+	/**
+	 * @return number of styles in the table
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Forget every style except {@link VDUBuffer#NORMAL}.
+	 */
+	public void clear() {
+		styles = new long[16];
+		styles[0] = VDUBuffer.NORMAL;
+		size = 1;
+		rehash(32);
+		remember(VDUBuffer.NORMAL, 0);
+	}
+
+	/**
+	 * Drop the styles that are no longer used and renumber the rest, keeping
+	 * their order. Id 0 is always kept.
+	 *
+	 * @param used marks the ids still referred to, indexed by style id
+	 * @return maps each old id to its new one; unused ids map to 0
+	 */
+	public int[] compact(boolean[] used) {
+		int[] remap = new int[size];
+		int kept = 1;
+		for (int style = 1; style < size; style++) {
+			if (used[style]) {
+				styles[kept] = styles[style];
+				remap[style] = kept++;
+			}
+		}
+		size = kept;
+
+		rehash(hash.length);
+		remember(VDUBuffer.NORMAL, 0);
+		return remap;
+	}
+
+	private int remember(long attributes, int style) {
+		lastAttributes = attributes;
+		lastStyle = style;
+		return style;
+	}
+
+	private static int hashOf(long attributes) {
+		long h = attributes * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private void rehash(int capacity) {
+		hash = new int[capacity];
+		int mask = capacity - 1;
+		for (int style = 0; style < size; style++) {
+			int slot = hashOf(styles[style]) & mask;
+			while (hash[slot] != 0)
+				slot = (slot + 1) & mask;
+			hash[slot] = style + 1;
+		}
+	}
+}
@@ -25,7 +25,11 @@
 
 package de.mud.terminal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Implementation of a Video Display Unit (VDU) buffer. This class contains
@@ -45,14 +49,73 @@ public class VDUBuffer {
 
   public int height, width;                          /* rows and columns */
   public boolean[] update;        /* contains the lines that need update */
-  public char[][] charArray;                  /* contains the characters */
-  public long[][] charAttributes;            /* contains character attrs */
+  public int[] updateLeft;        /* first column that needs update */
+  public int[] updateRight;       /* column after the last one that needs update */
+  public int scrolledLines;       /* lines the window scrolled up since the last redraw */
+  /*
+   * Every cell is packed into one int: the character in the low 16 bits and
+   * an index into the style table in the high 16 bits (see cellChar() and
+   * cellStyle()). A typical screen only uses a handful of distinct
+   * attribute values, so this takes 4 bytes per cell instead of 10. The top
+   * bit of a row's last cell is set when the row was wrapped at the right
+   * margin, i.e. its text continues on the next row (see isWrapped()).
+   *
+   * lines is used as a circular line store: buffer row 0 lives at index
+   * lineOffset and rows wrap around the end of the array. Always go through
+   * getCellLine() or physicalRow() instead of indexing it with screenBase or
+   * windowBase.
+   *
+   * With a scrollback archive attached, the oldest rows are held there
+   * instead, on disk or compressed: rows 0 to archived - 1 come from the
+   * archive and row archived is the first one in lines. maxBufSize then only
+   * limits the rows kept uncompressed in memory.
+   *
+   * When the width changes, only the lines from the start of the screen
+   * onwards are reflowed right away. The first staleRows rows in memory keep
+   * the width they had and are reflowed once the window is scrolled back to
+   * them; until then getCellLine() hands out copies cut to the width.
+   *
+   * Rows are renumbered as old ones leave the buffer, so row + lineBase is
+   * the number a line keeps for as long as it stays (see getLineNumber()).
+   * lineBase grows by the rows that leave at the head; when rows are laid
+   * out again it moves past every number handed out so far instead.
+   */
+  private int[][] lines;                     /* contains the packed cells */
   public int bufSize;
   public int maxBufSize;                                 /* buffer sizes */
   public int screenBase;                      /* the actual screen start */
   public int windowBase;                   /* where the start displaying */
   public int scrollMarker;               /* marks the last line inserted */
 
+  private int lineOffset;         /* array index of the first row in memory */
+  private int staleRows;     /* rows in memory not yet fitted to the width */
+  private long lineBase;            /* line number of row 0 */
+
+  /* holds the rows that no longer fit in memory, if any */
+  private ScrollbackArchive archive;
+  private int archived;             /* rows held by the archive */
+
+  /* recently read archived rows, indexed by their absolute archive line */
+  private final static int ARCHIVE_CACHE_SIZE = 256;
+  private int[][] archiveCache;
+  private int[] archiveCacheLine;
+
+  /* signatures of the scrollback rows in memory, for searching */
+  private final ScrollbackIndex index = new ScrollbackIndex();
+  private boolean indexValid = true;
+
+  /* scratch space for shuffling line references while scrolling */
+  private int[][] scratchLines;
+
+  /* distinct attribute values, indexed by the high half of a cell */
+  private final StyleTable styles = new StyleTable();
+
+  /** An empty cell: a space with normal attributes. */
+  private final static int BLANK = ' ';
+
+  /** Set on the last cell of a row whose text continues on the next row. */
+  final static int WRAPPED = 0x80000000;
+
   private int topMargin;                               /* top scroll margin */
   private int bottomMargin;                         /* bottom scroll margin */
 
@@ -164,10 +227,28 @@ public class VDUBuffer {
    */
 
   public void putChar(int c, int l, char ch, long attributes) {
-    charArray[screenBase + l][c] = ch;
-    charAttributes[screenBase + l][c] = attributes;
-    if (l < height)
-      update[l + 1] = true;
+    lines[physicalRow(screenBase + l)][c] = cell(ch, styleOf(attributes));
+    markColumns(c, l, 1);
+  }
+
+  /**
+   * Put a run of characters on one line, giving all of them the same
+   * attributes. The run must fit on the line; it is not wrapped.
+   * You need to call redraw() to update the screen.
+   * @param c x-coordinate (column) of the first character
+   * @param l y-coordinate (line)
+   * @param s array holding the characters
+   * @param start index of the first character in s
+   * @param len number of characters to put
+   * @param attributes the character attributes
+   * @see #putChar
+   */
+  public void putChars(int c, int l, char[] s, int start, int len, long attributes) {
+    int style = styleOf(attributes) << 16;
+    int[] line = lines[physicalRow(screenBase + l)];
+    for (int i = 0; i < len; i++)
+      line[c + i] = style | s[start + i];
+    markColumns(c, l, len);
   }
 
   /**
@@ -177,7 +258,7 @@ public class VDUBuffer {
    * @see #putChar
    */
   public char getChar(int c, int l) {
-    return charArray[screenBase + l][c];
+    return cellChar(lines[physicalRow(screenBase + l)][c]);
   }
 
   /**
@@ -185,9 +266,274 @@ public class VDUBuffer {
    * @param c x-coordinate (column)
    * @param l y-coordinate (line)
    * @see #putChar
+   * @see #getStyle
    */
   public long getAttributes(int c, int l) {
-    return charAttributes[screenBase + l][c];
+    return styles.get(getStyle(c, l));
+  }
+
+  /**
+   * Get the style id for the specified position. Two cells have the same
+   * attributes exactly when their style ids are equal, which is cheaper to
+   * compare than the attributes themselves.
+   * @param c x-coordinate (column)
+   * @param l y-coordinate (line)
+   * @see #getStyleAttributes
+   */
+  public int getStyle(int c, int l) {
+    return cellStyle(lines[physicalRow(screenBase + l)][c]);
+  }
+
+  /**
+   * Get the packed cells of a whole buffer row. The row is given in the
+   * same coordinates as screenBase and windowBase, i.e. 0 is the oldest line
+   * of the scrollback.
+   * @param row buffer row (0 &lt;= row &lt; getBufferSize())
+   * @return the backing array of that row; do not keep a reference to it
+   * @see #cellChar
+   * @see #cellStyle
+   * @see #getStyleAttributes
+   */
+  public int[] getCellLine(int row) {
+    if (row < archived)
+      return getArchivedLine(row);
+    int[] line = lines[physicalRow(row)];
+    if (line.length != width)
+      return fitLine(line, new int[width]);
+    return line;
+  }
+
+  /**
+   * Check whether the text of a buffer row continues on the next row
+   * because it was wrapped at the right margin.
+   * @param row buffer row (0 &lt;= row &lt; getBufferSize())
+   */
+  public boolean isWrapped(int row) {
+    return isWrapped(row < archived ? getArchivedLine(row) : line(row));
+  }
+
+  /**
+   * Mark whether the text on a screen line continues on the next line.
+   * Wrapped lines are joined up again when the width changes. Writing to
+   * the last column clears the mark.
+   * @param l y-coordinate (line)
+   * @param wrapped whether the line was wrapped at the right margin
+   */
+  public void setWrapped(int l, boolean wrapped) {
+    int[] line = lines[physicalRow(screenBase + l)];
+    if (wrapped)
+      line[width - 1] |= WRAPPED;
+    else
+      line[width - 1] &= ~WRAPPED;
+  }
+
+  private static boolean isWrapped(int[] line) {
+    return (line[line.length - 1] & WRAPPED) != 0;
+  }
+
+  /**
+   * Copy a row of another width, cutting it off or padding it with blanks.
+   */
+  private static int[] fitLine(int[] line, int[] dest) {
+    int length = Math.min(line.length, dest.length);
+    for (int c = 0; c < length; c++)
+      dest[c] = line[c] & ~WRAPPED;
+    Arrays.fill(dest, length, dest.length, BLANK);
+    if (isWrapped(line))
+      dest[dest.length - 1] |= WRAPPED;
+    return dest;
+  }
+
+  /**
+   * Copy the characters of a whole buffer row.
+   * @param row buffer row (0 &lt;= row &lt; getBufferSize())
+   * @param dest array to receive width characters
+   * @param destPos position in dest of the first character
+   */
+  public void getChars(int row, char[] dest, int destPos) {
+    int[] line = getCellLine(row);
+    for (int c = 0; c < width; c++)
+      dest[destPos + c] = cellChar(line[c]);
+  }
+
+  /**
+   * Get the character stored in a packed cell.
+   * @see #getCellLine
+   */
+  public static char cellChar(int cell) {
+    return (char) cell;
+  }
+
+  /**
+   * Get the style index stored in a packed cell. Two cells of the same
+   * buffer have the same attributes exactly when their style indices match.
+   * @see #getStyleAttributes
+   */
+  public static int cellStyle(int cell) {
+    return (cell >>> 16) & 0x7fff;
+  }
+
+  /**
+   * Get the attributes for a style index.
+   * @see #cellStyle
+   */
+  public long getStyleAttributes(int style) {
+    return styles.get(style);
+  }
+
+  /**
+   * Get the table of styles used by this buffer.
+   */
+  public StyleTable getStyleTable() {
+    return styles;
+  }
+
+  private static int cell(char ch, int style) {
+    return (style << 16) | ch;
+  }
+
+  /**
+   * Translate a buffer row into an index of the line store.
+   * @param row buffer row held in memory (getArchivedRows() &lt;= row &lt; getBufferSize())
+   */
+  protected final int physicalRow(int row) {
+    int index = row - archived + lineOffset;
+    if (index >= lines.length)
+      index -= lines.length;
+    return index;
+  }
+
+  /**
+   * Get a row held in memory as it is stored, whatever its width.
+   */
+  private int[] line(int row) {
+    return lines[physicalRow(row)];
+  }
+
+  private void setLine(int row, int[] line) {
+    lines[physicalRow(row)] = line;
+  }
+
+  /**
+   * Keep the rows that fall out of memory in an archive instead of dropping
+   * them. Rows already in the scrollback stay in memory until they are
+   * pushed out. Pass null to stop; the rows already archived are dropped but
+   * the archive itself is left open.
+   */
+  public synchronized void setScrollbackArchive(ScrollbackArchive archive) {
+    if (this.archive != null && archived > 0) {
+      int dropped = archived;
+      archived = 0;
+      lineBase += dropped;
+      bufSize -= dropped;
+      screenBase -= dropped;
+      windowBase -= dropped;
+      if (windowBase < 0)
+        windowBase = 0;
+    }
+    this.archive = archive;
+    archiveCache = null;
+    archiveCacheLine = null;
+    if (archive != null)
+      archive.clear();
+    indexValid = false;
+    update[0] = true;
+  }
+
+  /**
+   * Get the number of rows at the start of the buffer that are held by the
+   * scrollback archive rather than in memory.
+   * @see #setScrollbackArchive
+   */
+  public int getArchivedRows() {
+    return archived;
+  }
+
+  /**
+   * Read an archived row through a small cache, so that redrawing a
+   * scrolled back window doesn't decode every row again.
+   */
+  private int[] getArchivedLine(int row) {
+    if (archiveCache == null) {
+      archiveCache = new int[ARCHIVE_CACHE_SIZE][];
+      archiveCacheLine = new int[ARCHIVE_CACHE_SIZE];
+      Arrays.fill(archiveCacheLine, -1);
+    }
+
+    int key = archive.getFirstLine() + row;
+    int slot = key & (ARCHIVE_CACHE_SIZE - 1);
+    int[] line = archiveCache[slot];
+    if (archiveCacheLine[slot] == key && line.length == width)
+      return line;
+
+    if (line == null || line.length != width)
+      line = new int[width];
+    if (!archive.read(row, line, styles)) {
+      compactStyles();
+      archive.read(row, line, styles);
+    }
+    archiveCache[slot] = line;
+    archiveCacheLine[slot] = key;
+    return line;
+  }
+
+  /**
+   * Move rows that no longer fit in memory to the archive, in order.
+   * @return number of rows the archive holds afterwards
+   */
+  private int archiveLines(int[][] src, int start, int count) {
+    for (int i = 0; i < count; i++) {
+      if (!archive.append(src[start + i], styles)) {
+        // the disk is full or gone; carry on without it
+        archive.close();
+        archive = null;
+        archiveCache = null;
+        archiveCacheLine = null;
+        return 0;
+      }
+    }
+    return archive.size();
+  }
+
+  /**
+   * Find the style id for the given attributes, adding it to the style
+   * table if it is new.
+   */
+  private int styleOf(long attributes) {
+    int style = styles.intern(attributes);
+    if (style < 0) {
+      compactStyles();
+      style = styles.intern(attributes);
+      if (style < 0)
+        style = 0; /* every style is in use; fall back to normal */
+    }
+    return style;
+  }
+
+  /**
+   * Drop the styles no cell refers to any more and renumber the rest.
+   */
+  private void compactStyles() {
+    boolean[] used = new boolean[styles.size()];
+    for (int i = archived; i < bufSize; i++) {
+      int[] line = line(i);
+      for (int c = 0; c < line.length; c++)
+        used[cellStyle(line[c])] = true;
+    }
+
+    int[] remap = styles.compact(used);
+
+    // archived rows are decoded again with the new ids
+    if (archiveCacheLine != null)
+      Arrays.fill(archiveCacheLine, -1);
+
+    for (int i = archived; i < bufSize; i++) {
+      int[] line = line(i);
+      for (int c = 0; c < line.length; c++)
+        line[c] = (line[c] & WRAPPED) | cell(cellChar(line[c]), remap[cellStyle(line[c])]);
+    }
+
+    update[0] = true;
   }
 
   /**
@@ -209,11 +555,12 @@ public class VDUBuffer {
    * @see #redraw
    */
   public void insertChar(int c, int l, char ch, long attributes) {
-    System.arraycopy(charArray[screenBase + l], c,
-                     charArray[screenBase + l], c + 1, width - c - 1);
-    System.arraycopy(charAttributes[screenBase + l], c,
-                     charAttributes[screenBase + l], c + 1, width - c - 1);
+    int[] line = lines[physicalRow(screenBase + l)];
+    int wrapped = line[width - 1] & WRAPPED;
+    System.arraycopy(line, c, line, c + 1, width - c - 1);
+    line[width - 1] = (line[width - 1] & ~WRAPPED) | wrapped;
     putChar(c, l, ch, attributes);
+    markColumns(c, l, width - c);
   }
 
   /**
@@ -227,13 +574,15 @@ public class VDUBuffer {
    * @see #redraw
    */
   public void deleteChar(int c, int l) {
+    int[] line = lines[physicalRow(screenBase + l)];
+    int wrapped = line[width - 1] & WRAPPED;
     if (c < width - 1) {
-      System.arraycopy(charArray[screenBase + l], c + 1,
-                       charArray[screenBase + l], c, width - c - 1);
-      System.arraycopy(charAttributes[screenBase + l], c + 1,
-                       charAttributes[screenBase + l], c, width - c - 1);
+      System.arraycopy(line, c + 1, line, c, width - c - 1);
+      line[width - 2] &= ~WRAPPED;
     }
     putChar(width - 1, l, (char) 0);
+    line[width - 1] |= wrapped;
+    markColumns(c, l, width - c);
   }
 
   /**
@@ -333,15 +682,6 @@ public class VDUBuffer {
    * @see #redraw
    */
   public synchronized void insertLine(int l, int n, boolean scrollDown) {
-    char cbuf[][] = null;
-    long abuf[][] = null;
-    int offset = 0;
-    int oldBase = screenBase;
-
-    int newScreenBase = screenBase;
-    int newWindowBase = windowBase;
-    int newBufSize = bufSize;
-
     if (l > bottomMargin) /* We do not scroll below bottom margin (below the scrolling region). */
       return;
     int top = (l < topMargin ?
@@ -353,141 +693,160 @@ public class VDUBuffer {
             (topMargin > 0 ?
             topMargin - 1 : 0) : bottomMargin));
 
-    // System.out.println("l is "+l+", top is "+top+", bottom is "+bottom+", bottomargin is "+bottomMargin+", topMargin is "+topMargin);
-
     if (scrollDown) {
       if (n > (bottom - top)) n = (bottom - top);
-      int size = bottom - l - (n - 1);
-      if(size < 0) size = 0;
-      cbuf = new char[size][width];
-      abuf = new long[size][width];
-
-      System.arraycopy(charArray, oldBase + l, cbuf, 0, bottom - l - (n - 1));
-      System.arraycopy(charAttributes, oldBase + l,
-                       abuf, 0, bottom - l - (n - 1));
-      System.arraycopy(cbuf, 0, charArray, oldBase + l + n,
-                       bottom - l - (n - 1));
-      System.arraycopy(abuf, 0, charAttributes, oldBase + l + n,
-                       bottom - l - (n - 1));
-      cbuf = charArray;
-      abuf = charAttributes;
+      if (n > bottom - l + 1) n = bottom - l + 1;
+      if (n <= 0) return;
+
+      int base = screenBase;
+      ensureScratch(n);
+
+      // the lines pushed off the bottom of the region become the new blank lines
+      for (int i = 0; i < n; i++)
+        scratchLines[i] = line(base + bottom - n + 1 + i);
+      for (int i = bottom; i >= l + n; i--)
+        setLine(base + i, line(base + i - n));
+      for (int i = 0; i < n; i++) {
+        Arrays.fill(scratchLines[i], BLANK);
+        setLine(base + l + i, scratchLines[i]);
+      }
     } else {
-      try {
-        if (n > (bottom - top) + 1) n = (bottom - top) + 1;
-        if (bufSize < maxBufSize) {
-          if (bufSize + n > maxBufSize) {
-            offset = n - (maxBufSize - bufSize);
-            scrollMarker += offset;
-            newBufSize = maxBufSize;
-            newScreenBase = maxBufSize - height - 1;
-            newWindowBase = screenBase;
-          } else {
-            scrollMarker += n;
-            newScreenBase += n;
-            newWindowBase += n;
-            newBufSize += n;
-          }
-
-          cbuf = new char[newBufSize][width];
-          abuf = new long[newBufSize][width];
-        } else {
-          offset = n;
-          cbuf = charArray;
-          abuf = charAttributes;
-        }
-        // copy anything from the top of the buffer (+offset) to the new top
-        // up to the screenBase.
-        if (oldBase > 0) {
-          System.arraycopy(charArray, offset,
-                           cbuf, 0,
-                           oldBase - offset);
-          System.arraycopy(charAttributes, offset,
-                           abuf, 0,
-                           oldBase - offset);
-        }
-        // copy anything from the top of the screen (screenBase) up to the
-        // topMargin to the new screen
-        if (top > 0) {
-          System.arraycopy(charArray, oldBase,
-                           cbuf, newScreenBase,
-                           top);
-          System.arraycopy(charAttributes, oldBase,
-                           abuf, newScreenBase,
-                           top);
-        }
-        // copy anything from the topMargin up to the amount of lines inserted
-        // to the gap left over between scrollback buffer and screenBase
-        if (oldBase >= 0) {
-          System.arraycopy(charArray, oldBase + top,
-                           cbuf, oldBase - offset,
-                           n);
-          System.arraycopy(charAttributes, oldBase + top,
-                           abuf, oldBase - offset,
-                           n);
-        }
-        // copy anything from topMargin + n up to the line linserted to the
-        // topMargin
-        System.arraycopy(charArray, oldBase + top + n,
-                         cbuf, newScreenBase + top,
-                         l - top - (n - 1));
-        System.arraycopy(charAttributes, oldBase + top + n,
-                         abuf, newScreenBase + top,
-                         l - top - (n - 1));
-        //
-        // copy the all lines next to the inserted to the new buffer
-        if (l < height - 1) {
-          System.arraycopy(charArray, oldBase + l + 1,
-                           cbuf, newScreenBase + l + 1,
-                           (height - 1) - l);
-          System.arraycopy(charAttributes, oldBase + l + 1,
-                           abuf, newScreenBase + l + 1,
-                           (height - 1) - l);
-        }
-      } catch (ArrayIndexOutOfBoundsException e) {
-        // this should not happen anymore, but I will leave the code
-        // here in case something happens anyway. That code above is
-        // so complex I always have a hard time understanding what
-        // I did, even though there are comments
-        System.err.println("*** Error while scrolling up:");
-        System.err.println("--- BEGIN STACK TRACE ---");
-        e.printStackTrace();
-        System.err.println("--- END STACK TRACE ---");
-        System.err.println("bufSize=" + bufSize + ", maxBufSize=" + maxBufSize);
-        System.err.println("top=" + top + ", bottom=" + bottom);
-        System.err.println("n=" + n + ", l=" + l);
-        System.err.println("screenBase=" + screenBase + ", windowBase=" + windowBase);
-        System.err.println("newScreenBase=" + newScreenBase + ", newWindowBase=" + newWindowBase);
-        System.err.println("oldBase=" + oldBase);
-        System.err.println("size.width=" + width + ", size.height=" + height);
-        System.err.println("abuf.length=" + abuf.length + ", cbuf.length=" + cbuf.length);
-        System.err.println("*** done dumping debug information");
+      if (n > l - top + 1) n = l - top + 1;
+      if (n <= 0) return;
+
+      int base = screenBase;
+      int hotBase = base - archived; /* screen start among the rows in memory */
+      boolean following = windowBase == screenBase;
+      int tail = bufSize - base; /* the screen and anything below it */
+      int total = tail + n;
+      ensureScratch(total);
+
+      // Lay out everything from screenBase onwards in its new order: the
+      // lines scrolled out of the region (they join the scrollback), the
+      // lines above the region, the rest of the region, n blank lines and
+      // finally the lines below the inserted ones.
+      int k = 0;
+      for (int i = top; i < top + n; i++)
+        k = putScratch(k, base + i);
+      for (int i = 0; i < top; i++)
+        k = putScratch(k, base + i);
+      for (int i = top + n; i <= l; i++)
+        k = putScratch(k, base + i);
+      int blank = k;
+      k += n;
+      for (int i = l + 1; i < tail; i++)
+        k = putScratch(k, base + i);
+
+      // Lines beyond maxBufSize fall out of memory at the head of the
+      // scrollback. If the scrollback is too small to hold them, the lines
+      // that were just scrolled out of the region go as well. They are moved
+      // to the archive if there is one, otherwise dropped; either way their
+      // arrays are recycled as the new blank lines.
+      int excess = bufSize - archived + n - maxBufSize;
+      if (excess < 0) excess = 0;
+      int droppedHistory = excess < hotBase ? excess : hotBase;
+      int droppedScrolled = excess - droppedHistory;
+
+      for (int i = 0; i < droppedHistory; i++)
+        scratchLines[blank + i] = line(archived + i);
+      for (int i = 0; i < droppedScrolled; i++)
+        scratchLines[blank + droppedHistory + i] = scratchLines[i];
+
+      // index the lines that just joined the scrollback and forget the
+      // ones that left memory
+      if (indexValid && index.size() == hotBase) {
+        for (int i = 0; i < n; i++)
+          index.append(scratchLines[i]);
+        index.dropOldest(excess);
+      } else {
+        indexValid = false;
       }
-    }
-
-    // this is a little helper to mark the scrolling
-    scrollMarker -= n;
 
+      int hotSize = bufSize - archived + n - excess;
+      int newArchived = archived;
+      if (archive != null && excess > 0)
+        newArchived = archiveLines(scratchLines, blank, excess);
+      for (int i = 0; i < n; i++) {
+        if (i >= excess || scratchLines[blank + i].length != width)
+          scratchLines[blank + i] = new int[width];
+        Arrays.fill(scratchLines[blank + i], BLANK);
+      }
 
-    for (int i = 0; i < n; i++) {
-      cbuf[(newScreenBase + l) + (scrollDown ? i : -i)] = new char[width];
-      Arrays.fill(cbuf[(newScreenBase + l) + (scrollDown ? i : -i)], ' ');
-      abuf[(newScreenBase + l) + (scrollDown ? i : -i)] = new long[width];
+      ensureCapacity(hotSize);
+
+      // move the oldest lines out by moving the head of the ring
+      lineOffset += droppedHistory;
+      if (lineOffset >= lines.length)
+        lineOffset -= lines.length;
+      staleRows = Math.max(0, staleRows - droppedHistory);
+      archived = newArchived;
+      bufSize = archived + hotSize;
+
+      int start = archived + hotBase - droppedHistory;
+      for (int i = droppedScrolled; i < total; i++)
+        setLine(start + i - droppedScrolled, scratchLines[i]);
+
+      int newScreenBase = archived + hotBase + n - excess;
+      lineBase += base + n - newScreenBase;
+      windowBase += newScreenBase - base;
+      if (windowBase > newScreenBase)
+        windowBase = newScreenBase;
+      else if (windowBase < 0)
+        windowBase = 0;
+      screenBase = newScreenBase;
+
+      if (!following) {
+        // the scrollback moved under the window
+        update[0] = true;
+      } else if (top == 0 && l == height - 1) {
+        markScroll(n);
+      } else {
+        markLine(top, l - top + 1);
+      }
     }
 
-    charArray = cbuf;
-    charAttributes = abuf;
-    screenBase = newScreenBase;
-    windowBase = newWindowBase;
-    bufSize = newBufSize;
+    // don't hold on to lines that may be dropped later
+    Arrays.fill(scratchLines, null);
 
     if (scrollDown)
       markLine(l, bottom - l + 1);
-    else
-      markLine(top, l - top + 1);
 
     display.updateScrollBar();
   }
 
+  private int putScratch(int k, int row) {
+    scratchLines[k] = line(row);
+    return k + 1;
+  }
+
+  private void ensureScratch(int count) {
+    if (scratchLines == null || scratchLines.length < count)
+      scratchLines = new int[count][];
+  }
+
+  /**
+   * Make sure the line store can hold the given amount of lines. The store
+   * grows geometrically up to maxBufSize so that filling up the scrollback
+   * costs amortized constant time per line.
+   */
+  private void ensureCapacity(int count) {
+    int capacity = lines.length;
+    if (count <= capacity)
+      return;
+
+    int newCapacity = capacity * 2;
+    if (newCapacity > maxBufSize)
+      newCapacity = maxBufSize;
+    if (newCapacity < count)
+      newCapacity = count;
+
+    int[][] buf = new int[newCapacity][];
+    for (int i = archived; i < bufSize; i++)
+      buf[i - archived] = line(i);
+    lines = buf;
+    lineOffset = 0;
+  }
+
   /**
    * Delete a line at a specific position. Subsequent lines will be scrolled
    * up to fill the space and a blank line is inserted at the end of the
@@ -496,25 +855,21 @@ public class VDUBuffer {
    * @see #deleteLine
    */
   public void deleteLine(int l) {
-    int bottom = (l > bottomMargin ? height - 1:
+    // bottom is the row after the last one that moves up
+    int bottom = (l > bottomMargin ? height:
             (l < topMargin?topMargin:bottomMargin + 1));
     int numRows = bottom - l - 1;
 
-    char[] discardedChars = charArray[screenBase + l];
-    long[] discardedAttributes = charAttributes[screenBase + l];
+    int[] discarded = line(screenBase + l);
 
-    if (numRows > 0) {
-	    System.arraycopy(charArray, screenBase + l + 1,
-	                     charArray, screenBase + l, numRows);
-	    System.arraycopy(charAttributes, screenBase + l + 1,
-	                     charAttributes, screenBase + l, numRows);
+    for (int i = 0; i < numRows; i++) {
+      int row = screenBase + l + i;
+      setLine(row, line(row + 1));
     }
 
     int newBottomRow = screenBase + bottom - 1;
-    charArray[newBottomRow] = discardedChars;
-    charAttributes[newBottomRow] = discardedAttributes;
-    Arrays.fill(charArray[newBottomRow], ' ');
-    Arrays.fill(charAttributes[newBottomRow], 0);
+    setLine(newBottomRow, discarded);
+    Arrays.fill(discarded, BLANK);
 
     markLine(l, bottom - l);
   }
@@ -534,12 +889,12 @@ public class VDUBuffer {
   public void deleteArea(int c, int l, int w, int h, long curAttr) {
     int endColumn = c + w;
     int targetRow = screenBase + l;
+    int blank = cell(' ', styleOf(curAttr));
     for (int i = 0; i < h && l + i < height; i++) {
-      Arrays.fill(charAttributes[targetRow], c, endColumn, curAttr);
-      Arrays.fill(charArray[targetRow], c, endColumn, ' ');
+      Arrays.fill(line(targetRow), c, endColumn, blank);
+      markColumns(c, l + i, w);
       targetRow++;
     }
-    markLine(l, h);
   }
 
   /**
@@ -597,13 +952,171 @@ public class VDUBuffer {
     return cursorY;
   }
 
+  /**
+   * Find text in the buffer, scrollback included. The search starts next to
+   * the given position and moves up or down row by row; matches spanning
+   * two rows are not found.
+   * @param literal text to look for
+   * @param ignoreCase whether case differences are ignored
+   * @param row buffer row to start in
+   * @param column only matches starting before (backwards) or after this
+   *               column of the starting row are considered
+   * @param backwards whether to search towards older rows
+   * @return the nearest match or null
+   */
+  public synchronized SearchMatch find(String literal, boolean ignoreCase,
+                                       int row, int column, boolean backwards) {
+    if (literal.length() == 0)
+      return null;
+    return find(literal, ignoreCase, null, row, column, backwards);
+  }
+
+  /**
+   * Find a regular expression in the buffer, scrollback included. Every
+   * row is matched on its own.
+   * @see #find(String, boolean, int, int, boolean)
+   */
+  public synchronized SearchMatch find(Pattern pattern, int row, int column, boolean backwards) {
+    return find(null, false, pattern, row, column, backwards);
+  }
+
+  private SearchMatch find(String literal, boolean ignoreCase, Pattern pattern,
+                           int row, int column, boolean backwards) {
+    long[] signature = new long[2];
+    if (literal != null)
+      ScrollbackIndex.signature(literal, signature);
+    String needle = literal;
+    if (literal != null && ignoreCase)
+      needle = foldCase(literal.toCharArray(), literal.length());
+
+    if (!indexValid || index.size() != screenBase - archived) {
+      index.clear();
+      for (int i = archived; i < screenBase; i++)
+        index.append(getCellLine(i));
+      indexValid = true;
+    }
+
+    char[] text = new char[width];
+    int step = backwards ? -1 : 1;
+    for (int r = row; r >= 0 && r < bufSize; r += step) {
+      if (r != row) {
+        r = nextCandidate(r, backwards, signature[0], signature[1]);
+        if (r < 0)
+          return null;
+      }
+
+      getChars(r, text, 0);
+      String line = ignoreCase ? foldCase(text, width) : new String(text);
+      int limit = r == row ? column : (backwards ? width : -1);
+
+      if (pattern != null) {
+        Matcher m = pattern.matcher(line);
+        SearchMatch found = null;
+        int from = backwards ? 0 : limit + 1;
+        while (from <= width && m.find(from)) {
+          if (m.end() == m.start()) {
+            from = m.end() + 1;
+            continue;
+          }
+          if (backwards && m.start() >= limit)
+            break;
+          found = new SearchMatch(r, lineBase + r, m.start(), m.end());
+          if (!backwards)
+            break;
+          from = m.start() + 1;
+        }
+        if (found != null)
+          return found;
+      } else {
+        int start = backwards ? line.lastIndexOf(needle, limit - 1)
+                              : line.indexOf(needle, limit + 1);
+        if (start >= 0)
+          return new SearchMatch(r, lineBase + r, start, start + needle.length());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Find the nearest row from the given one that may contain text with the
+   * given signature. Rows on the screen are not indexed and always qualify.
+   * @return the row or -1 if there is none
+   */
+  private int nextCandidate(int row, boolean backwards, long low, long high) {
+    while (row >= 0 && row < bufSize) {
+      if (row >= screenBase)
+        return row;
+
+      if (row >= archived) {
+        int found = index.findCandidate(row - archived, backwards, low, high);
+        if (found >= 0)
+          return archived + found;
+        row = backwards ? archived - 1 : screenBase;
+      } else {
+        int found = archive.findCandidate(row, backwards, low, high);
+        if (found >= 0)
+          return found;
+        if (backwards)
+          return -1;
+        row = archived;
+      }
+    }
+    return -1;
+  }
+
+  private static String foldCase(char[] text, int length) {
+    char[] folded = new char[length];
+    for (int i = 0; i < length; i++)
+      folded[i] = Character.toLowerCase(text[i]);
+    return new String(folded);
+  }
+
+  /**
+   * Get the number of the line on the given row. Unlike the row, it stays
+   * the same while output scrolls and old lines are dropped. Numbers are
+   * not reused; once the rows are laid out again by a resize the old
+   * numbers lead nowhere.
+   * @see #getRowOfLine
+   */
+  public synchronized long getLineNumber(int row) {
+    return lineBase + row;
+  }
+
+  /**
+   * Get the row of a line.
+   * @param line number from getLineNumber() or a SearchMatch
+   * @return the row, or -1 if the line has left the buffer or was laid out
+   *         again since
+   */
+  public synchronized int getRowOfLine(long line) {
+    long row = line - lineBase;
+    return row < 0 || row >= bufSize ? -1 : (int) row;
+  }
+
+  /**
+   * Fit all the rows a resize left at the old width to the current one,
+   * rather than waiting for the window to be scrolled back to them. Rows
+   * found after this keep their line numbers until the next resize.
+   */
+  public synchronized void reflowScrollback() {
+    if (staleRows == 0)
+      return;
+    // the window's line first, so the window stays on it
+    if (windowBase >= archived && windowBase < archived + staleRows)
+      windowBase = reflowScrollback(windowBase);
+    if (staleRows > 0)
+      reflowScrollback(archived);
+  }
+
   /**
    * Set the current window base. This allows to view the scrollback buffer.
    * @param line the line where the screen window starts
    * @see #setBufferSize
    * @see #getBufferSize
    */
-  public void setWindowBase(int line) {
+  public synchronized void setWindowBase(int line) {
+    if (line >= archived && line < archived + staleRows)
+      line = reflowScrollback(line);
     if (line > screenBase)
       line = screenBase;
     else if (line < 0) line = 0;
@@ -691,17 +1204,29 @@ public class VDUBuffer {
   public void setBufferSize(int amount) {
     if (amount < height) amount = height;
     if (amount < maxBufSize) {
-      char cbuf[][] = new char[amount][width];
-      long abuf[][] = new long[amount][width];
-      int copyStart = bufSize - amount < 0 ? 0 : bufSize - amount;
-      int copyCount = bufSize - amount < 0 ? bufSize : amount;
-      if (charArray != null)
-        System.arraycopy(charArray, copyStart, cbuf, 0, copyCount);
-      if (charAttributes != null)
-        System.arraycopy(charAttributes, copyStart, abuf, 0, copyCount);
-      charArray = cbuf;
-      charAttributes = abuf;
-      bufSize = copyCount;
+      int buf[][] = new int[amount][];
+      int hot = bufSize - archived;
+      int copyStart = hot - amount < 0 ? 0 : hot - amount;
+      int copyCount = hot - amount < 0 ? hot : amount;
+      int newArchived = archived;
+      if (lines != null) {
+        // the rows that no longer fit go to the archive, if there is one
+        if (archive != null && copyStart > 0) {
+          int[][] spilled = new int[copyStart][];
+          for (int i = 0; i < copyStart; i++)
+            spilled[i] = line(archived + i);
+          newArchived = archiveLines(spilled, 0, copyStart);
+        }
+        for (int i = 0; i < copyCount; i++)
+          buf[i] = line(archived + copyStart + i);
+      }
+      lines = buf;
+      lineOffset = 0;
+      staleRows = Math.max(0, staleRows - copyStart);
+      lineBase += archived + copyStart - newArchived;
+      archived = newArchived;
+      bufSize = archived + copyCount;
+      indexValid = false;
       screenBase = bufSize - height;
       windowBase = screenBase;
     }
@@ -729,16 +1254,14 @@ public class VDUBuffer {
 
   /**
    * Change the size of the screen. This will include adjustment of the
-   * scrollback buffer.
+   * scrollback buffer. Lines that were wrapped at the right margin are
+   * joined and wrapped again at the new width, starting with the line the
+   * screen begins with; the scrollback above it follows when it is scrolled
+   * back to.
    * @param w of the screen
    * @param h of the screen
    */
-  public void setScreenSize(int w, int h, boolean broadcast) {
-    char cbuf[][];
-    long abuf[][];
-    int maxSize = bufSize;
-    int oldAbsR = screenBase + getCursorRow();
-
+  public synchronized void setScreenSize(int w, int h, boolean broadcast) {
     if (w < 1 || h < 1) return;
 
     if (debug > 0)
@@ -747,73 +1270,335 @@ public class VDUBuffer {
     if (h > maxBufSize)
       maxBufSize = h;
 
-    if (h > bufSize) {
-      bufSize = h;
-      screenBase = 0;
-      windowBase = 0;
-    }
-
-    if (windowBase + h >= bufSize)
-      windowBase = bufSize - h;
-
-    if (screenBase + h >= bufSize)
-      screenBase = bufSize - h;
-
-
-    cbuf = new char[bufSize][w];
-    abuf = new long[bufSize][w];
-
-
-    for (int i = 0; i < bufSize; i++) {
-      Arrays.fill(cbuf[i], ' ');
-    }
-
-    if (bufSize < maxSize)
-      maxSize = bufSize;
-
-    int rowLength;
-    if (charArray != null && charAttributes != null) {
-      for (int i = 0; i < maxSize && charArray[i] != null; i++) {
-        rowLength = charArray[i].length;
-        System.arraycopy(charArray[i], 0, cbuf[i], 0,
-                         w < rowLength ? w : rowLength);
-        System.arraycopy(charAttributes[i], 0, abuf[i], 0,
-                         w < rowLength ? w : rowLength);
+    if (lines == null) {
+      lines = new int[h][];
+      for (int i = 0; i < h; i++) {
+        lines[i] = new int[w];
+        Arrays.fill(lines[i], BLANK);
       }
+      bufSize = h;
+    } else {
+      reflow(w, h);
     }
 
-    int C = getCursorColumn();
-    if (C < 0)
-      C = 0;
-    else if (C >= w)
-      C = w - 1;
-
-    int R = getCursorRow();
-    // If the screen size has grown and now there are more rows on the screen,
-    // slide the cursor down to the end of the text.
-    if (R + screenBase <= oldAbsR)
-      R = oldAbsR - screenBase;
-    if (R < 0)
-      R = 0;
-    else if (R >= h)
-      R = h - 1;
-
-    setCursorPosition(C, R);
-
-    charArray = cbuf;
-    charAttributes = abuf;
     width = w;
     height = h;
     topMargin = 0;
     bottomMargin = h - 1;
     update = new boolean[h + 1];
+    updateLeft = new int[h + 1];
+    updateRight = new int[h + 1];
     update[0] = true;
+    scrolledLines = 0;
+
+    // a window scrolled back into the old lines is reflowed as well
+    if (windowBase < archived + staleRows && windowBase >= archived)
+      windowBase = reflowScrollback(windowBase);
     /*  FIXME: ???
     if(resizeStrategy == RESIZE_FONT)
       setBounds(getBounds());
     */
   }
 
+  /**
+   * Lay out the screen and the lines it starts with at a new size. Rows
+   * above the first line the screen shows are left as they are, so the
+   * work doesn't depend on the size of the scrollback.
+   */
+  private void reflow(int w, int h) {
+    lineBase += bufSize;
+    int cursorRow = screenBase + cursorY;
+    int cursorColumn = Math.max(0, Math.min(cursorX, width - 1));
+    boolean following = windowBase == screenBase;
+    int oldArchived = archived;
+    int staleEnd = archived + staleRows;
+
+    int start = screenBase;
+    while (start > staleEnd && isWrapped(line(start - 1)))
+      start--;
+
+    List<int[]> rows = new ArrayList<>();
+    int cursor = -1;       /* cursor position in rows, as row * w + column */
+    int window = -1;       /* first of rows for the line holding windowBase */
+    for (int first = start; first < bufSize; ) {
+      int last = first;
+      while (last < bufSize - 1 && isWrapped(line(last)))
+        last++;
+      if (!following && windowBase >= first && windowBase <= last)
+        window = rows.size();
+      int mark = -1;
+      if (cursorRow >= first && cursorRow <= last)
+        mark = textOffset(first, cursorRow) + cursorColumn;
+      int added = rows.size();
+      int pos = reflowLine(first, last, w, mark, rows);
+      if (pos >= 0)
+        cursor = added * w + pos;
+      first = last + 1;
+    }
+    if (cursor < 0)
+      cursor = 0;
+
+    // if it doesn't fit, blank lines below the cursor make way before the
+    // text above it does
+    int cursorIndex = cursor / w;
+    int used = rows.size();
+    while (used > h && used > cursorIndex + 1 && isBlank(rows.get(used - 1)))
+      used--;
+
+    int top = used - h;
+    if (top > cursorIndex) {
+      top = cursorIndex;
+      used = top + h;
+    }
+
+    // pull lines down from the scrollback if the screen isn't filled
+    while (top < 0 && start > archived) {
+      int last = start - 1;
+      int first = last;
+      while (first > archived && isWrapped(line(first - 1)))
+        first--;
+      List<int[]> above = new ArrayList<>();
+      reflowLine(first, last, w, -1, above);
+      rows.addAll(0, above);
+      if (!following && windowBase >= first && windowBase <= last)
+        window = 0;
+      else if (window >= 0)
+        window += above.size();
+      cursorIndex += above.size();
+      used += above.size();
+      top += above.size();
+      start = first;
+    }
+    while (top < 0) {
+      int[] blank = new int[w];
+      Arrays.fill(blank, BLANK);
+      rows.add(used++, blank);
+      top++;
+    }
+
+    int from = start - oldArchived;
+    int oldWindowBase = windowBase;
+    int excess = replaceRows(start, bufSize, rows.subList(0, used));
+    int base = archived - excess; /* where row 0 in memory would be now */
+
+    screenBase = base + from + top;
+    if (following)
+      windowBase = screenBase;
+    else if (window >= 0)
+      windowBase = base + from + window;
+    else
+      windowBase = base + oldWindowBase - oldArchived;
+    if (windowBase > screenBase)
+      windowBase = screenBase;
+    else if (windowBase < 0)
+      windowBase = 0;
+
+    if (w != width)
+      staleRows = Math.max(0, from - excess);
+    else
+      staleRows = Math.max(0, Math.min(staleRows, from) - excess);
+
+    setCursorPosition(cursor % w, cursorIndex - top);
+  }
+
+  /**
+   * Reflow the rows that were left at an old width by a resize, from the
+   * line holding the given row to the newest of them.
+   * @param row buffer row among the rows not yet reflowed
+   * @return the row the line holding it starts on now
+   */
+  private int reflowScrollback(int row) {
+    lineBase += bufSize;
+    int staleEnd = archived + staleRows;
+    int first = row;
+    while (first > archived && isWrapped(line(first - 1)))
+      first--;
+
+    List<int[]> rows = new ArrayList<>();
+    for (int i = first; i < staleEnd; ) {
+      int last = i;
+      while (last < staleEnd - 1 && isWrapped(line(last)))
+        last++;
+      reflowLine(i, last, width, -1, rows);
+      i = last + 1;
+    }
+
+    int from = first - archived;
+    int oldArchived = archived;
+    int excess = replaceRows(first, staleEnd, rows);
+    int headShift = archived - excess - oldArchived;
+    int shift = headShift + rows.size() - (staleEnd - first);
+
+    screenBase += shift;
+    if (windowBase >= staleEnd)
+      windowBase += shift;
+    else if (windowBase < first)
+      windowBase = Math.max(0, windowBase + headShift);
+    staleRows = Math.max(0, from - excess);
+    indexValid = false;
+    update[0] = true;
+    if (display != null)
+      display.updateScrollBar();
+
+    return Math.max(0, archived - excess + from);
+  }
+
+  /**
+   * Lay out the text of one logical line, rows first to last, in rows of
+   * the given width and add them to out. Rows that already have the width
+   * are kept as they are.
+   * @param mark offset in the line's text to follow, or -1
+   * @return where mark ends up, as row * w + column counted from the first
+   *         row added, or -1
+   */
+  private int reflowLine(int first, int last, int w, int mark, List<int[]> out) {
+    boolean fits = true;
+    for (int i = first; i <= last && fits; i++)
+      fits = line(i).length == w;
+    if (fits) {
+      for (int i = first; i <= last; i++)
+        out.add(line(i));
+      return mark;
+    }
+
+    int[] row = null;
+    int added = 0, col = w, offset = 0, pos = -1;
+    boolean trail = false;
+    for (int i = first; i <= last; i++) {
+      int[] src = line(i);
+      int length = i < last ? src.length : textLength(src);
+      for (int c = 0; c < length; c++, offset++) {
+        int cell = src[c] & ~WRAPPED;
+        // keep both halves of a full-width character on the same row
+        boolean lead = !trail && (styles.get(cellStyle(cell)) & FULLWIDTH) != 0;
+        trail = lead;
+        if (col == w || (lead && col == w - 1 && w > 1)) {
+          if (row != null)
+            row[w - 1] |= WRAPPED;
+          row = blankLine(w, out);
+          added++;
+          col = 0;
+        }
+        if (offset == mark)
+          pos = (added - 1) * w + col;
+        row[col++] = cell;
+      }
+    }
+    if (row == null) {
+      row = blankLine(w, out);
+      added++;
+      col = 0;
+    }
+
+    if (mark >= offset) {
+      // the mark is past the end of the text, e.g. a cursor after spaces
+      pos = (added - 1) * w + col + mark - offset;
+      while (pos / w >= added) {
+        row[w - 1] |= WRAPPED;
+        row = blankLine(w, out);
+        added++;
+      }
+    }
+    return pos;
+  }
+
+  private static int[] blankLine(int w, List<int[]> out) {
+    int[] line = new int[w];
+    Arrays.fill(line, BLANK);
+    out.add(line);
+    return line;
+  }
+
+  /**
+   * Get the offset of a row's first cell in the text of the logical line
+   * starting at row first.
+   */
+  private int textOffset(int first, int row) {
+    int offset = 0;
+    for (int i = first; i < row; i++)
+      offset += line(i).length;
+    return offset;
+  }
+
+  /**
+   * Get the length of a row's text without the blanks at its end.
+   */
+  private static int textLength(int[] line) {
+    int length = line.length;
+    while (length > 0) {
+      int cell = line[length - 1] & ~WRAPPED;
+      if (cell != BLANK && cell != 0)
+        break;
+      length--;
+    }
+    return length;
+  }
+
+  private static boolean isBlank(int[] line) {
+    return !isWrapped(line) && textLength(line) == 0;
+  }
+
+  /**
+   * Replace the rows from up to to, all in memory, with others. The rows
+   * before stay where they are in the line store and only the ones after
+   * are moved. Rows beyond maxBufSize fall out of memory at the head, into
+   * the archive if there is one.
+   * @return number of rows that left memory
+   */
+  private int replaceRows(int from, int to, List<int[]> rows) {
+    int hot = bufSize - archived;
+    int f = from - archived;
+    int t = to - archived;
+    int m = rows.size();
+    int newHot = hot - (t - f) + m;
+    int excess = Math.max(0, newHot - maxBufSize);
+
+    int[][] after = new int[hot - t][];
+    for (int i = 0; i < after.length; i++)
+      after[i] = line(to + i);
+    int oldEnd = bufSize;
+
+    // the oldest rows leave memory first
+    int dropped = Math.min(excess, f);
+    int[][] leaving = new int[excess][];
+    for (int i = 0; i < dropped; i++)
+      leaving[i] = line(archived + i);
+    for (int i = dropped; i < excess; i++)
+      leaving[i] = i - f < m ? rows.get(i - f) : after[i - f - m];
+    int newArchived = archived;
+    if (archive != null && excess > 0)
+      newArchived = archiveLines(leaving, 0, excess);
+
+    for (int i = 0; i < dropped; i++)
+      setLine(archived + i, null);
+    for (int i = from; i < oldEnd; i++)
+      setLine(i, null);
+    lineOffset += dropped;
+    if (lineOffset >= lines.length)
+      lineOffset -= lines.length;
+
+    int kept = f - dropped;
+    int size = newHot - excess;
+    if (size > lines.length) {
+      int[][] buf = new int[Math.max(size, Math.min(lines.length * 2, maxBufSize))][];
+      for (int i = 0; i < kept; i++)
+        buf[i] = lines[(lineOffset + i) % lines.length];
+      lines = buf;
+      lineOffset = 0;
+    }
+
+    archived = newArchived;
+    bufSize = archived + size;
+    int row = archived + kept;
+    for (int i = excess - f > 0 ? excess - f : 0; i < m; i++)
+      setLine(row++, rows.get(i));
+    for (int i = excess - f - m > 0 ? excess - f - m : 0; i < after.length; i++)
+      setLine(row++, after[i]);
+
+    indexValid = false;
+    return excess;
+  }
+
   /**
    * Get amount of rows on the screen.
    */
@@ -835,8 +1620,55 @@ public class VDUBuffer {
    * @see #redraw
    */
   public void markLine(int l, int n) {
-    for (int i = 0; (i < n) && (l + i < height); i++)
+    for (int i = 0; (i < n) && (l + i < height); i++) {
       update[l + i + 1] = true;
+      updateLeft[l + i + 1] = 0;
+      updateRight[l + i + 1] = width;
+    }
+  }
+
+  /**
+   * Mark part of a line to be updated with redraw(). The columns are added
+   * to whatever is already marked on that line.
+   * @param c first column to be updated
+   * @param l line
+   * @param n amount of columns to be updated
+   * @see #redraw
+   */
+  public void markColumns(int c, int l, int n) {
+    if (l >= height)
+      return;
+    int end = c + n;
+    if (!update[l + 1]) {
+      update[l + 1] = true;
+      updateLeft[l + 1] = c;
+      updateRight[l + 1] = end;
+    } else {
+      if (c < updateLeft[l + 1])
+        updateLeft[l + 1] = c;
+      if (end > updateRight[l + 1])
+        updateRight[l + 1] = end;
+    }
+  }
+
+  /**
+   * Record that the whole screen scrolled up by n lines. Instead of marking
+   * every line, the display may move what it already drew up by the amount
+   * in scrolledLines and then only draw the lines marked for update. Lines
+   * that were already marked move up along with their content.
+   * @param n amount of lines scrolled
+   */
+  private void markScroll(int n) {
+    if (update[0] || scrolledLines + n >= height) {
+      update[0] = true;
+      return;
+    }
+
+    System.arraycopy(update, n + 1, update, 1, height - n);
+    System.arraycopy(updateLeft, n + 1, updateLeft, 1, height - n);
+    System.arraycopy(updateRight, n + 1, updateRight, 1, height - n);
+    markLine(height - n, n);
+    scrolledLines += n;
   }
 
 //  private static int checkBounds(int value, int lower, int upper) {
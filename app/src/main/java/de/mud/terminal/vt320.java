@@ -81,9 +81,17 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
     putString(tmp, null, 0, len);
   }
 
+  /** A high surrogate whose low half hasn't been seen yet. */
+  private char highSurrogate;
+
   /**
    * Put string at current cursor position. Moves cursor
    * according to the String. Does NOT wrap.
+   * <P>
+   * Combining marks are folded into the character before them as far as
+   * {@link Precomposer} knows how; marks it can't fold are dropped since a
+   * cell holds a single character. Characters outside the BMP don't fit a
+   * cell either and show up as U+FFFD, one or two cells wide.
    * @param s character array
    * @param start place to start in array
    * @param len number of characters to process
@@ -94,31 +102,84 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
       int lastChar = -1;
       char c;
       boolean isWide = false;
+      // what lastChar was made of, if marks were folded into it
+      int lastBase = -1;
+      int lastMark = -1;
+      int flags;
 
       for (int i = 0; i < len; i++) {
         c = s[start + i];
+        if (highSurrogate != 0 && !Character.isLowSurrogate(c))
+          highSurrogate = 0;
+        // Runs of printable ASCII go straight into the buffer. The last
+        // character of the run stays pending in case a combining mark
+        // follows it.
+        if (c >= 0x20 && c < 0x7F && canPutRun()) {
+          if (lastChar != -1) {
+            putChar((char) lastChar, isWide, false);
+            lastChar = -1;
+          }
+          int end = i + 1;
+          while (end < len && s[start + end] >= 0x20 && s[start + end] < 0x7F)
+            end++;
+          // the pending character may have started an escape sequence
+          if (end - i > 1 && canPutRun()) {
+            putRun(s, start + i, end - i - 1);
+            i = end - 1;
+            lastChar = s[start + i];
+            lastMark = -1;
+            isWide = false;
+            continue;
+          }
+        }
         // Shortcut for my favorite ASCII
         if (c <= 0x7F) {
           if (lastChar != -1)
             putChar((char) lastChar, isWide, false);
           lastChar = c;
+          lastMark = -1;
           isWide = false;
-        } else if (!Character.isLowSurrogate(c) && !Character.isHighSurrogate(c)) {
-          if (Character.getType(c) == Character.NON_SPACING_MARK) {
-            if (lastChar != -1) {
-              char nc = Precomposer.precompose((char) lastChar, c);
-              putChar(nc, isWide, false);
-              lastChar = -1;
-            }
-          } else {
+        } else if (Character.isHighSurrogate(c)) {
+          highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+          if (highSurrogate != 0) {
+            int codePoint = Character.toCodePoint(highSurrogate, c);
+            highSurrogate = 0;
             if (lastChar != -1)
               putChar((char) lastChar, isWide, false);
+            lastChar = 0xFFFD;
+            lastMark = -1;
+            isWide = isWideSupplementary(codePoint);
+          }
+        } else if ((flags = Precomposer.flags(c)) != 0 && lastChar != -1) {
+          int nc = Precomposer.compose((char) lastChar, c);
+          if (nc < 0 && lastMark != -1) {
+            // the marks may have come in another order than the table has
+            nc = Precomposer.compose((char) lastBase, c);
+            if (nc >= 0)
+              nc = Precomposer.compose((char) nc, (char) lastMark);
+          }
+          if (nc >= 0) {
+            if (lastMark == -1)
+              lastBase = lastChar;
+            lastChar = nc;
+            lastMark = c;
+          } else if ((flags & Precomposer.MARK) == 0) {
+            // a spacing mark gets a cell of its own
+            putChar((char) lastChar, isWide, false);
             lastChar = c;
-            if (fullwidths != null) {
-                final byte width = fullwidths[i];
-                isWide = (width == AndroidCharacter.EAST_ASIAN_WIDTH_WIDE)
-                    || (width == AndroidCharacter.EAST_ASIAN_WIDTH_FULL_WIDTH);
-            }
+            lastMark = -1;
+            isWide = false;
+          }
+        } else if ((flags & Precomposer.MARK) == 0) {
+          if (lastChar != -1)
+            putChar((char) lastChar, isWide, false);
+          lastChar = c;
+          lastMark = -1;
+          if (fullwidths != null) {
+              final byte width = fullwidths[i];
+              isWide = (width == AndroidCharacter.EAST_ASIAN_WIDTH_WIDE)
+                  || (width == AndroidCharacter.EAST_ASIAN_WIDTH_FULL_WIDTH);
           }
         }
       }
@@ -131,6 +192,16 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
     }
   }
 
+  /**
+   * @return whether a character outside the BMP is drawn two cells wide,
+   * going by the wide ranges of wcwidth()
+   */
+  private static boolean isWideSupplementary(int codePoint) {
+    return (codePoint >= 0x1F300 && codePoint <= 0x1F64F)
+        || (codePoint >= 0x1F900 && codePoint <= 0x1F9FF)
+        || (codePoint >= 0x20000 && codePoint <= 0x3FFFD);
+  }
+
   protected void sendTelnetCommand(byte cmd) {
 
   }
@@ -161,13 +232,9 @@ public void setScreenSize(int c, int r, boolean broadcast) {
       debugStr.setLength(0);
     }
 
+    // the buffer keeps the cursor on the screen, on the text it was on
     super.setScreenSize(c,r,false);
 
-    // Don't let the cursor go off the screen. Scroll down if needed.
-    if (R >= r) {
-      screenBase += R - (r - 1);
-      setWindowBase(screenBase);
-    }
     R = getCursorRow();
     C = getCursorColumn();
 
@@ -1594,6 +1661,41 @@ public void setScreenSize(int c, int r, boolean broadcast) {
     if (R > maxr) R = maxr;
   }
 
+  /**
+   * Whether printable ASCII can bypass putChar(), i.e. it would be put on
+   * the screen as-is without any mapping or insertion. Charsets may have
+   * been switched around before, as long as GL is back on ASCII.
+   */
+  boolean canPutRun() {
+    return term_state == TSTATE_DATA && insertmode == 0 && onegl < 0
+        && (!usedcharsets || gx[gl] == 'B') && !useibmcharset;
+  }
+
+  /**
+   * Put a run of printable ASCII characters at the cursor position, one
+   * line at a time. Only valid while canPutRun() holds.
+   */
+  private void putRun(char[] s, int start, int len) {
+    int columns = this.width;
+    while (len > 0) {
+      if (C >= columns) {
+        // let putChar() deal with wrapping
+        putChar(s[start++], false, false);
+        len--;
+        continue;
+      }
+
+      int n = columns - C;
+      if (n > len)
+        n = len;
+      putChars(C, R, s, start, n, attributes);
+      C += n;
+      start += n;
+      len -= n;
+    }
+    lastwaslf = 0;
+  }
+
   private void putChar(char c, boolean isWide, boolean doshowcursor) {
     int rows = this.height; //statusline
     int columns = this.width;
@@ -1775,6 +1877,9 @@ public void setScreenSize(int c, int r, boolean broadcast) {
                 if (wraparound) {
                   int bot = rows;
 
+                  // the text goes on in the next line
+                  setWrapped(R, true);
+
                   // If we're in the scroll region, check against the bottom margin
                   if (R <= getBottomMargin() && R >= getTopMargin())
                     bot = getBottomMargin() + 1;
@@ -1855,6 +1960,8 @@ public void setScreenSize(int c, int r, boolean broadcast) {
                   if (wraparound) {
                     int bot = rows;
 
+                    setWrapped(R, true);
+
                     // If we're in the scroll region, check against the bottom margin
                     if (R <= getBottomMargin() && R >= getTopMargin())
                       bot = getBottomMargin() + 1;
@@ -34,6 +34,7 @@ import android.preference.PreferenceManager;
 import androidx.annotation.StyleRes;
 import androidx.annotation.VisibleForTesting;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import android.text.format.DateUtils;
 import android.util.Log;
@@ -49,6 +50,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import org.connectbot.bean.HostBean;
+import org.connectbot.data.HostRepository;
 import org.connectbot.data.HostStorage;
 import org.connectbot.service.OnHostStatusChangedListener;
 import org.connectbot.service.TerminalBridge;
@@ -57,9 +59,11 @@ import org.connectbot.transport.TransportFactory;
 import org.connectbot.util.HostDatabase;
 import org.connectbot.util.PreferenceConstants;
 
+import java.util.ArrayList;
 import java.util.List;
 
-public class HostListActivity extends AppCompatListActivity implements OnHostStatusChangedListener {
+public class HostListActivity extends AppCompatListActivity implements OnHostStatusChangedListener,
+		HostRepository.OnHostsChangedListener {
 	public final static String TAG = "CB.HostListActivity";
 	public static final String DISCONNECT_ACTION = "org.connectbot.action.DISCONNECT";
 
@@ -68,7 +72,7 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 	protected TerminalManager bound = null;
 
 	private HostStorage hostdb;
-	private List<HostBean> hosts;
+	private HostRepository hostRepository;
 	protected LayoutInflater inflater = null;
 
 	protected boolean sortedByColor = false;
@@ -123,6 +127,12 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 		this.bindService(new Intent(this, TerminalManager.class), connection, Context.BIND_AUTO_CREATE);
 
 		hostdb = HostDatabase.get(this);
+
+		hostRepository.addOnHostsChangedListener(this);
+		if (hostRepository.isLoaded())
+			updateList();
+		else
+			hostRepository.load();
 	}
 
 	@Override
@@ -130,6 +140,8 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 		super.onStop();
 		this.unbindService(connection);
 
+		hostRepository.removeOnHostsChangedListener(this);
+
 		hostdb = null;
 
 		closeOnDisconnectAll = true;
@@ -208,6 +220,10 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 
 		// connect with hosts database and populate list
 		this.hostdb = HostDatabase.get(this);
+		this.hostRepository = HostRepository.get(this);
+
+		mAdapter = new HostAdapter(this);
+		mListView.setAdapter(mAdapter);
 
 		this.sortedByColor = prefs.getBoolean(PreferenceConstants.SORT_BY_COLOR, false);
 
@@ -368,10 +384,11 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 			edit.apply();
 		}
 
-		if (hostdb == null)
-			hostdb = HostDatabase.get(this);
+		// wait for the hosts rather than flash the empty list
+		if (!hostRepository.isLoaded())
+			return;
 
-		hosts = hostdb.getHosts(sortedByColor);
+		List<HostBean> hosts = hostRepository.getHosts(sortedByColor);
 
 		// Don't lose hosts that are connected via shortcuts but not in the database.
 		if (bound != null) {
@@ -381,13 +398,22 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 			}
 		}
 
-		mAdapter = new HostAdapter(this, hosts, bound);
-		mListView.setAdapter(mAdapter);
+		((HostAdapter) mAdapter).setHosts(hosts, bound, sortedByColor);
 		adjustViewVisibility();
 	}
 
 	@Override
 	public void onHostStatusChanged() {
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				updateList();
+			}
+		});
+	}
+
+	@Override
+	public void onHostsChanged() {
 		updateList();
 	}
 
@@ -490,8 +516,8 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 									if (bridge != null)
 										bridge.dispatchDisconnect(true);
 
+									// the list follows once the repository hears of it
 									hostdb.deleteHost(host);
-									updateList();
 								}
 							})
 							.setNegativeButton(R.string.delete_neg, null).create().show();
@@ -502,26 +528,96 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 		}
 	}
 
+	/**
+	 * What a row shows, taken when the list was built so a later list can be
+	 * compared with it.
+	 */
+	private static class HostRow {
+		final HostBean host;
+		final String nickname;
+		final String color;
+		final long lastConnect;
+		final int state;
+
+		HostRow(HostBean host, int state) {
+			this.host = host;
+			this.nickname = host.getNickname();
+			this.color = host.getColor();
+			this.lastConnect = host.getLastConnect();
+			this.state = state;
+		}
+
+		boolean isSameHost(HostRow other) {
+			if (host.getId() >= 0 || other.host.getId() >= 0)
+				return host.getId() == other.host.getId();
+			return host.equals(other.host);
+		}
+
+		boolean looksLike(HostRow other) {
+			return state == other.state
+					&& lastConnect == other.lastConnect
+					&& (nickname == null ? other.nickname == null : nickname.equals(other.nickname))
+					&& (color == null ? other.color == null : color.equals(other.color));
+		}
+	}
+
 	@VisibleForTesting
 	private class HostAdapter extends ItemAdapter {
-		private final List<HostBean> hosts;
-		private final TerminalManager manager;
+		private List<HostRow> rows = new ArrayList<>();
+		private boolean sortedByColor;
 
 		public final static int STATE_UNKNOWN = 1, STATE_CONNECTED = 2, STATE_DISCONNECTED = 3;
 
-		public HostAdapter(Context context, List<HostBean> hosts, TerminalManager manager) {
+		public HostAdapter(Context context) {
 			super(context);
+		}
+
+		/**
+		 * Show {@code hosts}, updating only the rows that changed.
+		 */
+		void setHosts(List<HostBean> hosts, TerminalManager manager, boolean sortedByColor) {
+			final List<HostRow> oldRows = rows;
+			final List<HostRow> newRows = new ArrayList<>(hosts.size());
+			for (HostBean host : hosts)
+				newRows.add(new HostRow(host, getConnectedState(manager, host)));
+			rows = newRows;
+
+			// a new order changes nearly every row, which isn't worth diffing
+			if (sortedByColor != this.sortedByColor || oldRows.isEmpty()) {
+				this.sortedByColor = sortedByColor;
+				notifyDataSetChanged();
+				return;
+			}
 
-			this.hosts = hosts;
-			this.manager = manager;
+			DiffUtil.calculateDiff(new DiffUtil.Callback() {
+				@Override
+				public int getOldListSize() {
+					return oldRows.size();
+				}
+
+				@Override
+				public int getNewListSize() {
+					return newRows.size();
+				}
+
+				@Override
+				public boolean areItemsTheSame(int oldPosition, int newPosition) {
+					return oldRows.get(oldPosition).isSameHost(newRows.get(newPosition));
+				}
+
+				@Override
+				public boolean areContentsTheSame(int oldPosition, int newPosition) {
+					return oldRows.get(oldPosition).looksLike(newRows.get(newPosition));
+				}
+			}, false).dispatchUpdatesTo(this);
 		}
 
 		/**
 		 * Check if we're connected to a terminal with the given host.
 		 */
-		private int getConnectedState(HostBean host) {
+		private int getConnectedState(TerminalManager manager, HostBean host) {
 			// always disconnected if we don't have backend service
-			if (this.manager == null || host == null) {
+			if (manager == null || host == null) {
 				return STATE_UNKNOWN;
 			}
 
@@ -554,7 +650,8 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 		public void onBindViewHolder(ItemViewHolder holder, int position) {
 			HostViewHolder hostHolder = (HostViewHolder) holder;
 
-			HostBean host = hosts.get(position);
+			HostRow row = rows.get(position);
+			HostBean host = row.host;
 			hostHolder.host = host;
 			if (host == null) {
 				// Well, something bad happened. We can't continue.
@@ -564,7 +661,7 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 				hostHolder.nickname.setText(host.getNickname());
 			}
 
-			switch (this.getConnectedState(host)) {
+			switch (row.state) {
 			case STATE_UNKNOWN:
 				hostHolder.icon.setImageState(new int[] { }, true);
 				hostHolder.icon.setContentDescription(null);
@@ -587,7 +684,7 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 				}
 				break;
 			default:
-				Log.e("HostAdapter", "Unknown host state encountered: " + getConnectedState(host));
+				Log.e("HostAdapter", "Unknown host state encountered: " + row.state);
 			}
 
 			@StyleRes final int chosenStyleFirstLine;
@@ -619,12 +716,12 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
 
 		@Override
 		public long getItemId(int position) {
-			return hosts.get(position).getId();
+			return rows.get(position).host.getId();
 		}
 
 		@Override
 		public int getItemCount() {
-			return hosts.size();
+			return rows.size();
 		}
 	}
 }
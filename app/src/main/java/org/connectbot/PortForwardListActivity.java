@@ -24,6 +24,7 @@ import org.connectbot.bean.HostBean;
 import org.connectbot.bean.PortForwardBean;
 import org.connectbot.service.TerminalBridge;
 import org.connectbot.service.TerminalManager;
+import org.connectbot.transport.PortForwardStats;
 import org.connectbot.util.HostDatabase;
 
 import android.annotation.SuppressLint;
@@ -38,6 +39,7 @@ import android.graphics.Paint;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.Message;
+import android.text.format.Formatter;
 import androidx.annotation.VisibleForTesting;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import androidx.recyclerview.widget.LinearLayoutManager;
@@ -66,6 +68,9 @@ public class PortForwardListActivity extends AppCompatListActivity {
 
 	private static final int LISTENER_CYCLE_TIME = 500;
 
+	/** How often the traffic of enabled port forwards is redrawn. */
+	private static final int STATS_REFRESH_TIME = 1000;
+
 	protected HostDatabase hostdb;
 
 	private ServiceConnection connection = null;
@@ -77,6 +82,15 @@ public class PortForwardListActivity extends AppCompatListActivity {
 
 	private HostBean host;
 
+	private final Runnable refreshStats = new Runnable() {
+		@Override
+		public void run() {
+			if (hostBridge != null && mAdapter != null)
+				mAdapter.notifyDataSetChanged();
+			updateHandler.postDelayed(this, STATS_REFRESH_TIME);
+		}
+	};
+
 	@Override
 	public void onStart() {
 		super.onStart();
@@ -84,12 +98,16 @@ public class PortForwardListActivity extends AppCompatListActivity {
 		this.bindService(new Intent(this, TerminalManager.class), connection, Context.BIND_AUTO_CREATE);
 
 		hostdb = HostDatabase.get(this);
+
+		updateHandler.postDelayed(refreshStats, STATS_REFRESH_TIME);
 	}
 
 	@Override
 	public void onStop() {
 		super.onStop();
 
+		updateHandler.removeCallbacks(refreshStats);
+
 		this.unbindService(connection);
 
 		hostdb = null;
@@ -248,6 +266,7 @@ public class PortForwardListActivity extends AppCompatListActivity {
 	private class PortForwardViewHolder extends ItemViewHolder {
 		public final TextView nickname;
 		public final TextView caption;
+		public final TextView stats;
 
 		public PortForwardBean portForward;
 
@@ -256,6 +275,7 @@ public class PortForwardListActivity extends AppCompatListActivity {
 
 			nickname = v.findViewById(android.R.id.text1);
 			caption = v.findViewById(android.R.id.text2);
+			stats = v.findViewById(R.id.portforward_stats);
 		}
 
 		@Override
@@ -433,6 +453,23 @@ public class PortForwardListActivity extends AppCompatListActivity {
 				portForwardHolder.nickname.setPaintFlags(portForwardHolder.nickname.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
 				portForwardHolder.caption.setPaintFlags(portForwardHolder.caption.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
 			}
+
+			// remote forwards are run by the SSH library, which doesn't count them
+			if (hostBridge != null && portForward.isEnabled()
+					&& !HostDatabase.PORTFORWARD_REMOTE.equals(portForward.getType())) {
+				PortForwardStats stats = hostBridge.getPortForwardStats(portForward);
+				Context context = PortForwardListActivity.this;
+				portForwardHolder.stats.setText(getString(R.string.portforward_stats,
+						Formatter.formatShortFileSize(context, stats.getBytesSent()),
+						Formatter.formatShortFileSize(context, (long) stats.getSendRate()),
+						Formatter.formatShortFileSize(context, stats.getBytesReceived()),
+						Formatter.formatShortFileSize(context, (long) stats.getReceiveRate()),
+						stats.getOpenConnections(),
+						stats.getConnections()));
+				portForwardHolder.stats.setVisibility(View.VISIBLE);
+			} else {
+				portForwardHolder.stats.setVisibility(View.GONE);
+			}
 		}
 
 		@Override
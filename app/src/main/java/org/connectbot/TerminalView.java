@@ -53,6 +53,7 @@ import android.text.ClipboardManager;
 import android.view.GestureDetector;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.accessibility.AccessibilityEvent;
@@ -80,6 +81,7 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 	private TerminalTextViewOverlay terminalTextViewOverlay;
 	public final TerminalViewPager viewPager;
 	private GestureDetector gestureDetector;
+	private ScaleGestureDetector scaleDetector;
 	private SharedPreferences prefs;
 
 	// These are only used for pre-Honeycomb copying.
@@ -271,6 +273,32 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 			}
 		});
 
+		// Pinching only scales the picture; the bridge resizes once it ends.
+		scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+			private float startSizeDp;
+			private float scale;
+
+			@Override
+			public boolean onScaleBegin(ScaleGestureDetector detector) {
+				startSizeDp = bridge.getRequestedFontSize();
+				scale = 1f;
+				bridge.beginZoom();
+				return true;
+			}
+
+			@Override
+			public boolean onScale(ScaleGestureDetector detector) {
+				scale *= detector.getScaleFactor();
+				bridge.requestFontSize(Math.round(startSizeDp * scale));
+				return true;
+			}
+
+			@Override
+			public void onScaleEnd(ScaleGestureDetector detector) {
+				bridge.endZoom();
+			}
+		});
+
 		// Enable accessibility features if a screen reader is active.
 		new AccessibilityStateTester().execute((Void) null);
 	}
@@ -288,6 +316,12 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 
 	@Override
 	public boolean onTouchEvent(MotionEvent event) {
+		if (scaleDetector != null) {
+			scaleDetector.onTouchEvent(event);
+			if (scaleDetector.isInProgress())
+				return true;
+		}
+
 		if (gestureDetector != null && gestureDetector.onTouchEvent(event)) {
 			return true;
 		}
@@ -385,7 +419,7 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
 		super.onSizeChanged(w, h, oldw, oldh);
 
-		bridge.parentChanged(this);
+		bridge.requestParentChanged(this);
 
 		scaleCursors();
 	}
@@ -422,6 +456,13 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 			// draw the bitmap
 			bridge.onDraw();
 
+			// preview a font size that hasn't been applied yet by scaling
+			// what we have, anchored where the terminal starts
+			final float previewScale = bridge.getPreviewScale();
+			final int saveCount = canvas.save();
+			if (previewScale != 1f)
+				canvas.scale(previewScale, previewScale);
+
 			// draw the bridge bitmap if it exists
 			canvas.drawBitmap(bridge.bitmap, 0, 0, paint);
 
@@ -507,6 +548,8 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 				canvas.drawPaint(cursorPaint);
 				canvas.restore();
 			}
+
+			canvas.restoreToCount(saveCount);
 		}
 	}
 
@@ -589,15 +632,18 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 				postDelayed(mEventSender, ACCESSIBILITY_EVENT_THRESHOLD);
 			}
 		}
+	}
 
-		((Activity) context).runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				if (terminalTextViewOverlay != null) {
-					terminalTextViewOverlay.onBufferChanged();
-				}
-			}
-		});
+	/**
+	 * Called on the UI thread by the bridge at most once per frame after its
+	 * buffer has changed.
+	 */
+	public void onFrame() {
+		invalidate();
+
+		if (terminalTextViewOverlay != null) {
+			terminalTextViewOverlay.onBufferChanged();
+		}
 	}
 
 	private class AccessibilityEventSender implements Runnable {
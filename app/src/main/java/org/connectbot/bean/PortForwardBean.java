@@ -17,6 +17,7 @@
 
 package org.connectbot.bean;
 
+import org.connectbot.transport.PortForwardStats;
 import org.connectbot.util.HostDatabase;
 
 import android.annotation.SuppressLint;
@@ -42,6 +43,7 @@ public class PortForwardBean extends AbstractBean {
 	/* Transient values */
 	private boolean enabled = false;
 	private Object identifier = null;
+	private final PortForwardStats stats = new PortForwardStats();
 
 	/**
 	 * @param id database ID of port forward
@@ -203,6 +205,13 @@ public class PortForwardBean extends AbstractBean {
 		return identifier;
 	}
 
+	/**
+	 * @return traffic through this port forward while it is enabled
+	 */
+	public PortForwardStats getStats() {
+		return stats;
+	}
+
 	/**
 	 * @return human readable description of the port forward
 	 */
@@ -0,0 +1,241 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import org.connectbot.bean.HostBean;
+import org.connectbot.util.HostDatabase;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * All saved hosts, kept in memory so the host list doesn't read the whole
+ * table every time a connection comes or goes. The hosts are read once off
+ * the main thread; after that the cache follows every host written through
+ * {@link HostStorage}.
+ * <p>
+ * Everything but the constructor is to be used from the main thread, where
+ * listeners are called as well.
+ */
+public class HostRepository implements HostStorage.OnHostChangedListener {
+	/**
+	 * Told when the hosts were loaded or one of them changed.
+	 */
+	public interface OnHostsChangedListener {
+		void onHostsChanged();
+	}
+
+	private static final Object sInstanceLock = new Object();
+
+	private static HostRepository sInstance;
+
+	private final HostStorage storage;
+	private final Handler handler;
+	private final Executor loadExecutor;
+
+	private final List<OnHostsChangedListener> listeners = new CopyOnWriteArrayList<>();
+
+	/* the fields below are only touched on the main thread */
+
+	/** Hosts by id, in the order they were read or added. */
+	private final Map<Long, HostBean> hosts = new LinkedHashMap<>();
+
+	private boolean loaded = false;
+	private boolean loading = false;
+
+	/** Changes seen while loading, applied over what was read; null means deleted. */
+	private final Map<Long, HostBean> changedWhileLoading = new HashMap<>();
+
+	/** The last list handed out, or null if the hosts have changed since. */
+	private List<HostBean> sorted;
+	private boolean sortedByColor;
+
+	private static final Comparator<HostBean> BY_NICKNAME = new Comparator<HostBean>() {
+		@Override
+		public int compare(HostBean lhs, HostBean rhs) {
+			return compareStrings(lhs.getNickname(), rhs.getNickname());
+		}
+	};
+
+	private static final Comparator<HostBean> BY_COLOR = new Comparator<HostBean>() {
+		@Override
+		public int compare(HostBean lhs, HostBean rhs) {
+			return compareStrings(lhs.getColor(), rhs.getColor());
+		}
+	};
+
+	public static HostRepository get(Context context) {
+		synchronized (sInstanceLock) {
+			if (sInstance != null) {
+				return sInstance;
+			}
+
+			sInstance = new HostRepository(HostDatabase.get(context),
+					new Handler(Looper.getMainLooper()), AsyncTask.THREAD_POOL_EXECUTOR);
+			return sInstance;
+		}
+	}
+
+	@VisibleForTesting
+	HostRepository(HostStorage storage, Handler handler, Executor loadExecutor) {
+		this.storage = storage;
+		this.handler = handler;
+		this.loadExecutor = loadExecutor;
+
+		storage.addOnHostChangedListener(this);
+	}
+
+	public void addOnHostsChangedListener(OnHostsChangedListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeOnHostsChangedListener(OnHostsChangedListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Read the hosts in the background unless they are already here.
+	 * Listeners are told once they are.
+	 */
+	public void load() {
+		if (loaded || loading)
+			return;
+
+		loading = true;
+		loadExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final List<HostBean> read = storage.getHosts(false);
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						loaded(read);
+					}
+				});
+			}
+		});
+	}
+
+	private void loaded(List<HostBean> read) {
+		for (HostBean host : read)
+			hosts.put(host.getId(), host);
+
+		for (Map.Entry<Long, HostBean> change : changedWhileLoading.entrySet()) {
+			if (change.getValue() == null)
+				hosts.remove(change.getKey());
+			else
+				hosts.put(change.getKey(), change.getValue());
+		}
+		changedWhileLoading.clear();
+
+		loading = false;
+		loaded = true;
+		changed();
+	}
+
+	/**
+	 * @return whether the hosts have been read
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * @param sortedByColor if hosts should be grouped by color, otherwise
+	 *            they are sorted by nickname
+	 * @return the hosts in the order the database would have returned them;
+	 *         empty until they have been loaded. The list is the caller's,
+	 *         the hosts in it are shared.
+	 */
+	public List<HostBean> getHosts(boolean sortedByColor) {
+		if (sorted == null || this.sortedByColor != sortedByColor) {
+			sorted = new ArrayList<>(hosts.values());
+			// stable, so equal keys keep the order the hosts were added in
+			Collections.sort(sorted, sortedByColor ? BY_COLOR : BY_NICKNAME);
+			this.sortedByColor = sortedByColor;
+		}
+		return new ArrayList<>(sorted);
+	}
+
+	@Override
+	public void onHostSaved(final HostBean host) {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				apply(host.getId(), host);
+			}
+		});
+	}
+
+	@Override
+	public void onHostDeleted(final HostBean host) {
+		final long id = host.getId();
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				apply(id, null);
+			}
+		});
+	}
+
+	private void apply(long id, HostBean host) {
+		if (loading) {
+			changedWhileLoading.put(id, host);
+			return;
+		}
+
+		if (!loaded)
+			return;
+
+		if (host == null)
+			hosts.remove(id);
+		else
+			hosts.put(id, host);
+		changed();
+	}
+
+	private void changed() {
+		sorted = null;
+		for (OnHostsChangedListener listener : listeners)
+			listener.onHostsChanged();
+	}
+
+	/**
+	 * Orders like SQLite does by default: nulls first, then by code unit.
+	 */
+	private static int compareStrings(String lhs, String rhs) {
+		if (lhs == null)
+			return rhs == null ? 0 : -1;
+		if (rhs == null)
+			return 1;
+		return lhs.compareTo(rhs);
+	}
+}
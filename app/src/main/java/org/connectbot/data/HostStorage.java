@@ -31,6 +31,23 @@ import androidx.annotation.VisibleForTesting;
  * Interface that defines the operation used to interact with the storage layer.
  */
 public interface HostStorage {
+	/**
+	 * Told about every host written through {@link #saveHost(HostBean)},
+	 * {@link #touchHost(HostBean)} or {@link #deleteHost(HostBean)}, on the
+	 * thread that wrote it.
+	 */
+	interface OnHostChangedListener {
+		/**
+		 * {@code host} was added or changed.
+		 */
+		void onHostSaved(HostBean host);
+
+		/**
+		 * {@code host} was removed.
+		 */
+		void onHostDeleted(HostBean host);
+	}
+
 	/**
 	 * Resets the database during testing.
 	 */
@@ -77,6 +94,13 @@ public interface HostStorage {
 	 */
 	KnownHosts getKnownHosts();
 
+	/**
+	 * Returns the known hosts with only the keys saved for {@code hostname:port}.
+	 * This is much cheaper than {@link #getKnownHosts()} when verifying a
+	 * single host.
+	 */
+	KnownHosts getKnownHostsForHost(String hostname, int port);
+
 	/**
 	 * Returns the list of host key algorithms known for the host.
 	 */
@@ -92,8 +116,29 @@ public interface HostStorage {
 	 */
 	void removeKnownHost(String host, int port, String serverHostKeyAlgorithm, byte[] serverHostKey);
 
+	/**
+	 * Returns the OpenSSH encoded public key that last authenticated to
+	 * {@code host}, or {@code null} if there is none.
+	 */
+	byte[] getLastPubkey(HostBean host);
+
+	/**
+	 * Remembers the public key that authenticated to {@code host}.
+	 */
+	void saveLastPubkey(HostBean host, byte[] pubkey);
+
 	/**
 	 * Return all port forwards for the given {@code host}.
 	 */
 	List<PortForwardBean> getPortForwardsForHost(HostBean host);
+
+	/**
+	 * Adds a listener to be told when hosts are written.
+	 */
+	void addOnHostChangedListener(OnHostChangedListener listener);
+
+	/**
+	 * Removes a listener added by {@link #addOnHostChangedListener(OnHostChangedListener)}.
+	 */
+	void removeOnHostChangedListener(OnHostChangedListener listener);
 }
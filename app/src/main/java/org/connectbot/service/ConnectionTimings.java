@@ -0,0 +1,173 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How long each phase of setting up a connection took. Transports call
+ * {@link #mark} as they finish a phase; phases a transport doesn't go through
+ * are left unset.
+ */
+public class ConnectionTimings {
+	public enum Phase {
+		/** Resolving the hostname. */
+		DNS,
+		/** TCP connect and key exchange, which the SSH library does in one call. */
+		KEX,
+		/** Authentication. */
+		AUTH,
+		/** Opening the session and requesting the PTY and shell. */
+		PTY,
+	}
+
+	private final long[] durations = new long[Phase.values().length];
+
+	/** Nanoseconds spent in each authentication method, in the order tried. */
+	private final Map<String, Long> authAttempts = new LinkedHashMap<>();
+
+	private int signatures;
+
+	private long started;
+	private long lastMark;
+
+	private volatile boolean connected;
+	private volatile boolean timedOut;
+
+	public ConnectionTimings() {
+		start();
+	}
+
+	/**
+	 * Start timing from now, forgetting any earlier phases.
+	 */
+	public synchronized void start() {
+		started = lastMark = System.nanoTime();
+		for (int i = 0; i < durations.length; i++)
+			durations[i] = -1;
+		authAttempts.clear();
+		signatures = 0;
+		connected = false;
+		timedOut = false;
+	}
+
+	/**
+	 * Record that a phase finished now. Its duration is the time since the
+	 * previous phase finished.
+	 */
+	public synchronized void mark(Phase phase) {
+		long now = System.nanoTime();
+		durations[phase.ordinal()] = now - lastMark;
+		lastMark = now;
+	}
+
+	/**
+	 * @return duration of the phase in milliseconds or -1 if it was never reached
+	 */
+	public synchronized long getDuration(Phase phase) {
+		long duration = durations[phase.ordinal()];
+		return duration < 0 ? -1 : duration / 1000000;
+	}
+
+	/**
+	 * Record time spent trying one authentication method. Repeated attempts
+	 * with the same method add up.
+	 */
+	public synchronized void recordAuthAttempt(String method, long nanos) {
+		Long previous = authAttempts.get(method);
+		authAttempts.put(method, previous == null ? nanos : previous + nanos);
+	}
+
+	/**
+	 * @return milliseconds spent in the authentication method or -1 if it wasn't tried
+	 */
+	public synchronized long getAuthDuration(String method) {
+		Long nanos = authAttempts.get(method);
+		return nanos == null ? -1 : nanos / 1000000;
+	}
+
+	/**
+	 * Count a public key signature sent to the server.
+	 */
+	public synchronized void countSignature() {
+		signatures++;
+	}
+
+	/**
+	 * @return number of public key signatures sent to the server
+	 */
+	public synchronized int getSignatureCount() {
+		return signatures;
+	}
+
+	/**
+	 * @return milliseconds from the start until the last finished phase
+	 */
+	public synchronized long getTotal() {
+		return (lastMark - started) / 1000000;
+	}
+
+	void setConnected() {
+		connected = true;
+	}
+
+	/**
+	 * @return whether the terminal session was established
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	void setTimedOut() {
+		timedOut = true;
+	}
+
+	/**
+	 * @return whether the connection was given up after taking too long
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Phase phase : Phase.values()) {
+			long duration = getDuration(phase);
+			if (duration >= 0)
+				sb.append(phase.name().toLowerCase(Locale.US)).append('=').append(duration).append("ms ");
+		}
+		if (!authAttempts.isEmpty()) {
+			sb.append("auth[");
+			for (Map.Entry<String, Long> attempt : authAttempts.entrySet())
+				sb.append(attempt.getKey()).append('=').append(attempt.getValue() / 1000000).append("ms ");
+			sb.setCharAt(sb.length() - 1, ']');
+			sb.append(' ');
+		}
+		if (signatures > 0)
+			sb.append("signatures=").append(signatures).append(' ');
+		sb.append("total=").append(getTotal()).append("ms");
+		if (timedOut)
+			sb.append(" (timed out)");
+		else if (!connected)
+			sb.append(" (failed)");
+		return sb.toString();
+	}
+}
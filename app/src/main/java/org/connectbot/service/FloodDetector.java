@@ -0,0 +1,64 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+/**
+ * Watches the rate of incoming output to decide when a session is flooding,
+ * e.g. while running {@code find /}. The rate is measured over short windows
+ * so that a pause in the stream ends the flood as soon as the next chunk
+ * arrives.
+ */
+class FloodDetector {
+	/** Output rate in bytes per second above which a session is flooding. */
+	static final long THRESHOLD = 64 * 1024;
+
+	/** Length of each measurement window in nanoseconds. */
+	static final long WINDOW = 100 * 1000 * 1000L;
+
+	private long windowStart = -1;
+	private long windowBytes;
+
+	private boolean flooding = false;
+
+	/**
+	 * Account for a chunk of output.
+	 *
+	 * @param bytes number of bytes received
+	 * @param now current time from {@link System#nanoTime()}
+	 * @return whether the session is currently flooding
+	 */
+	boolean update(int bytes, long now) {
+		if (windowStart < 0)
+			windowStart = now;
+
+		windowBytes += bytes;
+
+		long elapsed = now - windowStart;
+		if (elapsed >= WINDOW) {
+			flooding = windowBytes * 1000000000L / elapsed >= THRESHOLD;
+			windowStart = now;
+			windowBytes = 0;
+		}
+
+		return flooding;
+	}
+
+	boolean isFlooding() {
+		return flooding;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Coalesces redraw requests for a {@link TerminalBridge}. The relay thread
+ * asks for a redraw after every chunk it reads, which can be thousands of
+ * times per second during bulk output. Only one frame is ever pending, and
+ * frames are spaced at least one frame interval apart, so the UI thread draws
+ * at most once per frame no matter how fast data arrives.
+ */
+public class FrameScheduler {
+	public static final int DEFAULT_MAX_FRAME_RATE = 60;
+
+	/**
+	 * Milliseconds between frames while output is flooding. Parsing carries
+	 * on at full speed in the meantime, like xterm's jump scroll.
+	 */
+	public static final int FLOOD_FRAME_INTERVAL = 250;
+
+	private final Handler handler;
+	private final Runnable callback;
+
+	private final AtomicBoolean pending = new AtomicBoolean(false);
+
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong frameCount = new AtomicLong();
+
+	private volatile long frameInterval;
+	private volatile long lastFrameTime;
+
+	private volatile boolean flooding = false;
+
+	private final Runnable frame = new Runnable() {
+		@Override
+		public void run() {
+			lastFrameTime = SystemClock.uptimeMillis();
+
+			// Clear before drawing so anything that changes while we draw
+			// gets a frame of its own.
+			pending.set(false);
+
+			frameCount.incrementAndGet();
+			callback.run();
+		}
+	};
+
+	/**
+	 * @param callback run on the main thread once per frame
+	 * @param maxFrameRate maximum number of frames per second
+	 */
+	public FrameScheduler(Runnable callback, int maxFrameRate) {
+		this.handler = new Handler(Looper.getMainLooper());
+		this.callback = callback;
+		setMaxFrameRate(maxFrameRate);
+	}
+
+	public void setMaxFrameRate(int maxFrameRate) {
+		if (maxFrameRate <= 0)
+			maxFrameRate = DEFAULT_MAX_FRAME_RATE;
+		frameInterval = 1000 / maxFrameRate;
+	}
+
+	/**
+	 * Request a frame. May be called from any thread; requests that arrive
+	 * while a frame is already pending are folded into it.
+	 */
+	public void requestFrame() {
+		requestCount.incrementAndGet();
+
+		if (!pending.compareAndSet(false, true))
+			return;
+
+		long delay = getFrameDelay(SystemClock.uptimeMillis());
+		if (delay > 0)
+			handler.postDelayed(frame, delay);
+		else
+			handler.post(frame);
+	}
+
+	/* package */ long getFrameDelay(long now) {
+		return lastFrameTime + (flooding ? FLOOD_FRAME_INTERVAL : frameInterval) - now;
+	}
+
+	/**
+	 * Stretch the frame interval while output is flooding. When the flood
+	 * ends, a pending frame is drawn right away instead of waiting out the
+	 * flood interval.
+	 */
+	public void setFlooding(boolean flooding) {
+		if (this.flooding == flooding)
+			return;
+
+		this.flooding = flooding;
+
+		if (!flooding && pending.get()) {
+			handler.removeCallbacks(frame);
+			handler.post(frame);
+		}
+	}
+
+	public boolean isFlooding() {
+		return flooding;
+	}
+
+	/**
+	 * Drop any pending frame, e.g. when there is no longer anything to draw to.
+	 */
+	public void cancel() {
+		handler.removeCallbacks(frame);
+		pending.set(false);
+	}
+
+	/**
+	 * @return number of redraw requests received so far
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * @return number of frames actually delivered so far
+	 */
+	public long getFrameCount() {
+		return frameCount.get();
+	}
+}
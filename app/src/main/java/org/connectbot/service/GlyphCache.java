@@ -0,0 +1,196 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Cache of rendered terminal cells. Each distinct combination of character,
+ * colors and underline is drawn once into a slot of an atlas bitmap, after
+ * which drawing that cell is a single bitmap copy instead of text layout and
+ * rasterization. The least recently used glyph gives up its slot when the
+ * atlas is full.
+ *
+ * All methods must be called from the thread that draws the terminal, except
+ * {@link #invalidate()}.
+ */
+class GlyphCache {
+	/** Number of glyph slots in each row of the atlas. */
+	private static final int ATLAS_COLUMNS = 32;
+
+	private final Paint paint;
+	private final int capacity;
+
+	private int glyphWidth = -1;
+	private int glyphHeight = -1;
+	private int glyphTop;
+
+	private volatile boolean stale = false;
+
+	private Bitmap atlas = null;
+	private final Canvas atlasCanvas = new Canvas();
+
+	private final LinkedHashMap<Glyph, Glyph> glyphs;
+	private int usedSlots = 0;
+
+	private final Glyph probe = new Glyph();
+	private final char[] text = new char[1];
+	private final Rect src = new Rect();
+	private final Rect dst = new Rect();
+
+	private static final class Glyph {
+		char ch;
+		int fg;
+		int bg;
+		boolean underline;
+		int slot;
+
+		void set(char ch, int fg, int bg, boolean underline) {
+			this.ch = ch;
+			this.fg = fg;
+			this.bg = bg;
+			this.underline = underline;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Glyph))
+				return false;
+			Glyph other = (Glyph) o;
+			return ch == other.ch && fg == other.fg && bg == other.bg
+					&& underline == other.underline;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = ch;
+			hash = 31 * hash + fg;
+			hash = 31 * hash + bg;
+			return underline ? ~hash : hash;
+		}
+	}
+
+	/**
+	 * @param paint paint with the terminal's typeface and text size
+	 * @param capacity maximum number of glyphs kept in the atlas
+	 */
+	GlyphCache(Paint paint, int capacity) {
+		this.paint = paint;
+		this.capacity = capacity;
+		glyphs = new LinkedHashMap<>(capacity, 0.75f, true);
+	}
+
+	/**
+	 * Drop all cached glyphs before the next frame is drawn, e.g. because the
+	 * color scheme changed. Safe to call from any thread.
+	 */
+	void invalidate() {
+		stale = true;
+	}
+
+	/**
+	 * Called before drawing a frame with the current cell metrics. Throws
+	 * away the atlas when the font size changed or {@link #invalidate()} was
+	 * called.
+	 */
+	void prepare(int width, int height, int top) {
+		if (width != glyphWidth || height != glyphHeight || top != glyphTop) {
+			recycle();
+			glyphWidth = width;
+			glyphHeight = height;
+			glyphTop = top;
+		} else if (stale) {
+			glyphs.clear();
+			usedSlots = 0;
+		}
+		stale = false;
+	}
+
+	/**
+	 * Release the atlas bitmap. It will be recreated on demand.
+	 */
+	void recycle() {
+		glyphs.clear();
+		usedSlots = 0;
+		if (atlas != null)
+			atlas.recycle();
+		atlas = null;
+	}
+
+	/**
+	 * Draw a single cell with its top left corner at the given position.
+	 */
+	void drawGlyph(Canvas canvas, char ch, int fg, int bg, boolean underline, int x, int y) {
+		probe.set(ch, fg, bg, underline);
+		Glyph glyph = glyphs.get(probe);
+		if (glyph == null)
+			glyph = rasterize(ch, fg, bg, underline);
+
+		int slotX = (glyph.slot % ATLAS_COLUMNS) * glyphWidth;
+		int slotY = (glyph.slot / ATLAS_COLUMNS) * glyphHeight;
+		src.set(slotX, slotY, slotX + glyphWidth, slotY + glyphHeight);
+		dst.set(x, y, x + glyphWidth, y + glyphHeight);
+		canvas.drawBitmap(atlas, src, dst, null);
+	}
+
+	private Glyph rasterize(char ch, int fg, int bg, boolean underline) {
+		if (atlas == null) {
+			int rows = (capacity + ATLAS_COLUMNS - 1) / ATLAS_COLUMNS;
+			atlas = Bitmap.createBitmap(ATLAS_COLUMNS * glyphWidth, rows * glyphHeight, Config.ARGB_8888);
+			atlasCanvas.setBitmap(atlas);
+		}
+
+		Glyph glyph;
+		if (usedSlots < capacity) {
+			glyph = new Glyph();
+			glyph.slot = usedSlots++;
+		} else {
+			// reuse the slot of the least recently drawn glyph
+			Iterator<Glyph> eldest = glyphs.keySet().iterator();
+			glyph = eldest.next();
+			eldest.remove();
+		}
+		glyph.set(ch, fg, bg, underline);
+		glyphs.put(glyph, glyph);
+
+		int slotX = (glyph.slot % ATLAS_COLUMNS) * glyphWidth;
+		int slotY = (glyph.slot / ATLAS_COLUMNS) * glyphHeight;
+
+		atlasCanvas.save();
+		atlasCanvas.clipRect(slotX, slotY, slotX + glyphWidth, slotY + glyphHeight);
+
+		paint.setColor(bg);
+		atlasCanvas.drawPaint(paint);
+
+		text[0] = ch;
+		paint.setColor(fg);
+		paint.setUnderlineText(underline);
+		atlasCanvas.drawText(text, 0, 1, slotX, slotY - glyphTop, paint);
+
+		atlasCanvas.restore();
+
+		return glyph;
+	}
+}
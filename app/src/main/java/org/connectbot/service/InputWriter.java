@@ -0,0 +1,283 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import org.connectbot.transport.AbsTransport;
+
+import android.util.Log;
+
+/**
+ * Single writer for everything a bridge sends to its transport. Keystrokes
+ * and pastes are queued in order and written by one thread, so a slow network
+ * never blocks the UI thread and a paste can't be interleaved with the keys
+ * typed after it. Whatever piles up while a write is in progress goes out
+ * together in the next {@code write()} and {@code flush()}.
+ * <p>
+ * Keystrokes count against a bounded queue. They come from the UI thread, so
+ * input that doesn't fit is refused rather than waited on. Replies the
+ * terminal sends to the host's own queries skip the bound, since losing one
+ * leaves the host waiting for an answer. Pastes never block either: the
+ * writer keeps the pasted text and only encodes the next chunk of it once
+ * the transport has taken the last one, so a large paste into a stalled
+ * session doesn't sit on the heap a second time as bytes.
+ */
+public class InputWriter implements Runnable {
+	private static final String TAG = "CB.InputWriter";
+
+	/** Bytes of keyboard input that may be waiting before more is refused. */
+	static final int QUEUE_CAPACITY = 16 * 1024;
+
+	/** Largest single write handed to the transport. */
+	static final int CHUNK_SIZE = 4096;
+
+	private final TerminalBridge bridge;
+	private final AbsTransport transport;
+
+	/** Byte arrays to send as they are, and {@link Paste}s to encode. */
+	private final ArrayDeque<Object> pending = new ArrayDeque<>();
+	private int headOffset = 0;
+
+	/** Queued bytes from {@link #write}, which is what the bound applies to. */
+	private int queuedInput = 0;
+	/** All queued bytes, including replies but not text still to be pasted. */
+	private long queuedTotal = 0;
+
+	private boolean closed = false;
+
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+
+	private volatile long lastWriteLatency;
+	private volatile long maxWriteLatency;
+	private volatile long writeCount;
+	private long rejectedCount;
+
+	/**
+	 * Pasted text and the encoder turning it into bytes a chunk at a time.
+	 */
+	private static class Paste {
+		final CharBuffer text;
+		final CharsetEncoder encoder;
+
+		Paste(CharSequence text, Charset charset) {
+			this.text = CharBuffer.wrap(text);
+			// replace what can't be encoded, as String.getBytes() does
+			this.encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+	}
+
+	public InputWriter(TerminalBridge bridge, AbsTransport transport) {
+		this.bridge = bridge;
+		this.transport = transport;
+	}
+
+	/**
+	 * Queue keyboard input unless the queue is full. Never blocks.
+	 *
+	 * @return false if the input was dropped because the queue is full
+	 */
+	public synchronized boolean write(byte[] data) throws IOException {
+		if (closed)
+			throw new IOException("Input writer is closed");
+
+		if (data.length == 0)
+			return true;
+
+		if (queuedInput >= QUEUE_CAPACITY) {
+			rejectedCount++;
+			return false;
+		}
+
+		// callers may reuse their array once we return
+		pending.add(data.clone());
+		queuedInput += data.length;
+		queuedTotal += data.length;
+		notifyAll();
+		return true;
+	}
+
+	public boolean write(int b) throws IOException {
+		return write(new byte[] {(byte) b});
+	}
+
+	/**
+	 * Queue a reply to the remote host, such as a cursor position report or
+	 * the answerback. Replies are only sent when the host asks, are a few
+	 * bytes each, and are never refused however full the queue is.
+	 */
+	public synchronized void reply(byte[] data) throws IOException {
+		if (closed)
+			throw new IOException("Input writer is closed");
+
+		if (data.length == 0)
+			return;
+
+		pending.add(data.clone());
+		queuedTotal += data.length;
+		notifyAll();
+	}
+
+	/**
+	 * Queue a paste. It is sent in order with the surrounding keyboard input
+	 * but never blocks the caller. The text is kept rather than copied, so it
+	 * must not change until it has been sent.
+	 */
+	public synchronized void paste(CharSequence text, Charset charset) {
+		if (closed || text.length() == 0)
+			return;
+
+		pending.add(new Paste(text, charset));
+		notifyAll();
+	}
+
+	/**
+	 * Stop the writer thread. Anything still queued is dropped.
+	 */
+	public synchronized void close() {
+		closed = true;
+		pending.clear();
+		headOffset = 0;
+		queuedInput = 0;
+		queuedTotal = 0;
+		notifyAll();
+	}
+
+	/**
+	 * @return number of bytes waiting to be written, not counting pasted
+	 *         text that hasn't been encoded yet
+	 */
+	public synchronized long getQueueDepth() {
+		return queuedTotal;
+	}
+
+	/**
+	 * @return time taken by the last write and flush in nanoseconds
+	 */
+	public long getLastWriteLatency() {
+		return lastWriteLatency;
+	}
+
+	/**
+	 * @return longest write and flush so far in nanoseconds
+	 */
+	public long getMaxWriteLatency() {
+		return maxWriteLatency;
+	}
+
+	/**
+	 * @return number of writes handed to the transport
+	 */
+	public long getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 * @return number of keyboard writes refused because the queue was full
+	 */
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				int length = takeChunk();
+				if (length < 0)
+					return;
+
+				long start = System.nanoTime();
+				transport.write(length == chunk.length ? chunk : Arrays.copyOf(chunk, length));
+				transport.flush();
+				long latency = System.nanoTime() - start;
+
+				lastWriteLatency = latency;
+				if (latency > maxWriteLatency)
+					maxWriteLatency = latency;
+				writeCount++;
+			}
+		} catch (InterruptedException e) {
+			Log.d(TAG, "Input writer interrupted");
+		} catch (IOException e) {
+			Log.e(TAG, "Problem while writing input to the transport", e);
+			close();
+			bridge.dispatchDisconnect(false);
+		}
+	}
+
+	/**
+	 * Wait for input and move as much of it as fits into {@link #chunk}.
+	 *
+	 * @return number of bytes in the chunk, or -1 once closed
+	 */
+	private synchronized int takeChunk() throws InterruptedException {
+		while (pending.isEmpty() && !closed)
+			wait();
+
+		if (closed)
+			return -1;
+
+		int length = 0;
+		int queuedBytes = 0;
+		while (length < chunk.length && !pending.isEmpty()) {
+			Object next = pending.peek();
+
+			if (next instanceof Paste) {
+				Paste paste = (Paste) next;
+				ByteBuffer out = ByteBuffer.wrap(chunk, length, chunk.length - length);
+				boolean done = paste.encoder.encode(paste.text, out, true).isUnderflow()
+						&& paste.encoder.flush(out).isUnderflow();
+				length = out.position();
+
+				// the rest goes in the next chunk
+				if (!done)
+					break;
+				pending.remove();
+				continue;
+			}
+
+			byte[] head = (byte[]) next;
+			int count = Math.min(head.length - headOffset, chunk.length - length);
+			System.arraycopy(head, headOffset, chunk, length, count);
+			length += count;
+			queuedBytes += count;
+			headOffset += count;
+
+			if (headOffset == head.length) {
+				pending.remove();
+				headOffset = 0;
+			}
+		}
+
+		queuedTotal -= queuedBytes;
+		queuedInput = (int) Math.min(queuedInput, queuedTotal);
+		notifyAll();
+
+		return length;
+	}
+}
@@ -22,7 +22,6 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
 
 import org.apache.harmony.niochar.charset.additional.IBM437;
@@ -38,13 +37,19 @@ import de.mud.terminal.vt320;
 public class Relay implements Runnable {
 	private static final String TAG = "CB.Relay";
 
-	private static final int BUFFER_SIZE = 4096;
+	private static final int MIN_BUFFER_SIZE = 4096;
+
+	/** Reads that keep filling the buffer double it up to this size. */
+	private static final int MAX_BUFFER_SIZE = 64 * 1024;
 
 	private TerminalBridge bridge;
 
 	private Charset currentCharset;
 	private CharsetDecoder decoder;
 
+	/** Used instead of {@link #decoder} when the charset is UTF-8. */
+	private Utf8Decoder utf8Decoder;
+
 	private AbsTransport transport;
 
 	private vt320 buffer;
@@ -55,6 +60,14 @@ public class Relay implements Runnable {
 	private byte[] byteArray;
 	private char[] charArray;
 
+	/* for East Asian character widths */
+	private byte[] wideAttribute;
+
+	private final FloodDetector floodDetector = new FloodDetector();
+	private volatile boolean jumpScroll = true;
+
+	private volatile SessionLogger sessionLogger;
+
 	public Relay(TerminalBridge bridge, AbsTransport transport, vt320 buffer, String encoding) {
 		setCharset(encoding);
 		this.bridge = bridge;
@@ -83,6 +96,7 @@ public class Relay implements Runnable {
 		currentCharset = charset;
 		synchronized (this) {
 			decoder = newCd;
+			utf8Decoder = "UTF-8".equals(charset.name()) ? new Utf8Decoder() : null;
 		}
 	}
 
@@ -90,55 +104,110 @@ public class Relay implements Runnable {
 		return currentCharset;
 	}
 
-	@Override
-	public void run() {
-		byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-		charBuffer = CharBuffer.allocate(BUFFER_SIZE);
-
-		/* for East Asian character widths */
-		byte[] wideAttribute = new byte[BUFFER_SIZE];
+	/**
+	 * Whether to skip drawing intermediate frames while output is flooding.
+	 */
+	public void setJumpScroll(boolean jumpScroll) {
+		this.jumpScroll = jumpScroll;
+		if (!jumpScroll)
+			bridge.setFlooding(false);
+	}
 
-		byteArray = byteBuffer.array();
-		charArray = charBuffer.array();
+	/**
+	 * Copy everything received from now on to a session log, or stop when
+	 * {@code null}.
+	 */
+	public void setSessionLogger(SessionLogger sessionLogger) {
+		this.sessionLogger = sessionLogger;
+	}
 
-		CoderResult result;
+	@Override
+	public void run() {
+		allocateBuffers(MIN_BUFFER_SIZE);
 
-		int bytesRead = 0;
-		byteBuffer.limit(0);
+		int bytesRead;
 		int bytesToRead;
-		int offset;
+		int length;
+		boolean nonAscii;
 
 		try {
 			while (true) {
-				bytesToRead = byteBuffer.capacity() - byteBuffer.limit();
-				offset = byteBuffer.arrayOffset() + byteBuffer.limit();
-				bytesRead = transport.read(byteArray, offset, bytesToRead);
+				bytesToRead = byteArray.length - byteBuffer.limit();
+				bytesRead = transport.read(byteArray, byteBuffer.limit(), bytesToRead);
 
 				if (bytesRead > 0) {
+					if (jumpScroll)
+						bridge.setFlooding(floodDetector.update(bytesRead, System.nanoTime()));
+
+					SessionLogger logger = sessionLogger;
+					if (logger != null)
+						logger.log(byteArray, byteBuffer.limit(), bytesRead);
+
 					byteBuffer.limit(byteBuffer.limit() + bytesRead);
 
 					synchronized (this) {
-						result = decoder.decode(byteBuffer, charBuffer, false);
+						if (utf8Decoder != null) {
+							// decode straight out of the read buffer; partial
+							// sequences are kept by the decoder
+							length = utf8Decoder.decode(byteArray, byteBuffer.position(),
+									byteBuffer.remaining(), charArray);
+							nonAscii = utf8Decoder.hasNonAscii();
+							byteBuffer.position(byteBuffer.limit());
+						} else {
+							decoder.decode(byteBuffer, charBuffer, false);
+							length = charBuffer.position();
+							charBuffer.clear();
+							nonAscii = true;
+						}
 					}
 
-					if (result.isUnderflow() &&
-							byteBuffer.limit() == byteBuffer.capacity()) {
+					if (!byteBuffer.hasRemaining()) {
+						byteBuffer.clear();
+						byteBuffer.limit(0);
+					} else if (byteBuffer.limit() == byteBuffer.capacity()) {
 						byteBuffer.compact();
 						byteBuffer.limit(byteBuffer.position());
 						byteBuffer.position(0);
 					}
 
-					offset = charBuffer.position();
+					// widths only matter once something other than ASCII shows up
+					byte[] widths = null;
+					if (nonAscii) {
+						AndroidCharacter.getEastAsianWidths(charArray, 0, length, wideAttribute);
+						widths = wideAttribute;
+					}
 
-					AndroidCharacter.getEastAsianWidths(charArray, 0, offset, wideAttribute);
-					buffer.putString(charArray, wideAttribute, 0, charBuffer.position());
-					bridge.propagateConsoleText(charArray, charBuffer.position());
-					charBuffer.clear();
+					buffer.putString(charArray, widths, 0, length);
+					bridge.propagateConsoleText(charArray, length);
 					bridge.redraw();
+
+					// a full read means more is waiting, so read bigger chunks
+					if (bytesRead == bytesToRead && byteArray.length < MAX_BUFFER_SIZE)
+						allocateBuffers(byteArray.length * 2);
 				}
 			}
 		} catch (IOException e) {
 			Log.e(TAG, "Problem while handling incoming data in relay thread", e);
 		}
 	}
+
+	/**
+	 * (Re)allocate the read buffers with the given size, keeping any bytes
+	 * that are still waiting to be decoded.
+	 */
+	private void allocateBuffers(int size) {
+		ByteBuffer newBuffer = ByteBuffer.allocate(size);
+		if (byteBuffer != null)
+			newBuffer.put(byteBuffer);
+		newBuffer.flip();
+
+		byteBuffer = newBuffer;
+		byteArray = byteBuffer.array();
+
+		// one byte can complete a surrogate pair left over from the last read
+		charBuffer = CharBuffer.allocate(size + 1);
+		charArray = charBuffer.array();
+
+		wideAttribute = new byte[size + 1];
+	}
 }
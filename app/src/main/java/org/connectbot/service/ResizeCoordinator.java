@@ -0,0 +1,183 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Holds back terminal resizes while they keep coming, e.g. during a pinch,
+ * while a font size key is held or while the soft keyboard slides in. The
+ * buffer, the bitmap and the remote PTY are resized once when the requests
+ * stop, instead of for every step; in the meantime the view scales what it
+ * already shows.
+ * <p>
+ * Font size changes are saved the same way: a burst of them ends up as one
+ * database write, made off the main thread.
+ */
+public class ResizeCoordinator {
+	/** Milliseconds without a new request before a resize is carried out. */
+	public static final int SETTLE_TIME = 200;
+
+	/** Milliseconds a change waits before it is saved. */
+	public static final int SAVE_DELAY = 1000;
+
+	private final Handler handler;
+	private final Executor saveExecutor;
+	private final Runnable commitCallback;
+	private final Runnable saveCallback;
+
+	/* only touched on the main thread */
+	private boolean gesture = false;
+	private boolean commitPending = false;
+
+	private final AtomicBoolean savePending = new AtomicBoolean(false);
+
+	private final AtomicLong commitCount = new AtomicLong();
+	private final AtomicLong saveCount = new AtomicLong();
+
+	private final Runnable commit = new Runnable() {
+		@Override
+		public void run() {
+			commitPending = false;
+			commitCount.incrementAndGet();
+			commitCallback.run();
+		}
+	};
+
+	private final Runnable save = new Runnable() {
+		@Override
+		public void run() {
+			// Clear before saving so a change made while we save gets saved
+			// again afterwards.
+			savePending.set(false);
+
+			saveCount.incrementAndGet();
+			saveCallback.run();
+		}
+	};
+
+	private final Runnable queueSave = new Runnable() {
+		@Override
+		public void run() {
+			saveExecutor.execute(save);
+		}
+	};
+
+	/**
+	 * @param commitCallback run on the main thread to carry out the resize
+	 * @param saveCallback run on a background thread to save the font size
+	 */
+	public ResizeCoordinator(Runnable commitCallback, Runnable saveCallback) {
+		this(new Handler(Looper.getMainLooper()), AsyncTask.SERIAL_EXECUTOR,
+				commitCallback, saveCallback);
+	}
+
+	/* package */ ResizeCoordinator(Handler handler, Executor saveExecutor,
+			Runnable commitCallback, Runnable saveCallback) {
+		this.handler = handler;
+		this.saveExecutor = saveExecutor;
+		this.commitCallback = commitCallback;
+		this.saveCallback = saveCallback;
+	}
+
+	/**
+	 * Ask for a resize. Call on the main thread; the resize happens once no
+	 * new request has come in for {@link #SETTLE_TIME} and no gesture is in
+	 * progress.
+	 */
+	public void requestResize() {
+		commitPending = true;
+		handler.removeCallbacks(commit);
+		if (!gesture)
+			handler.postDelayed(commit, SETTLE_TIME);
+	}
+
+	/**
+	 * Hold back resizes until {@link #endGesture()}.
+	 */
+	public void beginGesture() {
+		gesture = true;
+		handler.removeCallbacks(commit);
+	}
+
+	/**
+	 * The gesture is over; carry out the resize it asked for right away.
+	 */
+	public void endGesture() {
+		gesture = false;
+		if (commitPending) {
+			handler.removeCallbacks(commit);
+			handler.post(commit);
+		}
+	}
+
+	/**
+	 * @return whether a resize has been asked for but not carried out yet
+	 */
+	public boolean isResizePending() {
+		return commitPending;
+	}
+
+	/**
+	 * Drop a pending resize.
+	 */
+	public void cancelResize() {
+		handler.removeCallbacks(commit);
+		commitPending = false;
+	}
+
+	/**
+	 * Ask for the font size to be saved. May be called from any thread;
+	 * requests made while a save is pending are folded into it.
+	 */
+	public void requestSave() {
+		if (savePending.compareAndSet(false, true))
+			handler.postDelayed(queueSave, SAVE_DELAY);
+	}
+
+	/**
+	 * Start a pending save now instead of waiting out the delay, e.g. when
+	 * the terminal is going away.
+	 */
+	public void flushSave() {
+		if (savePending.get()) {
+			handler.removeCallbacks(queueSave);
+			saveExecutor.execute(save);
+		}
+	}
+
+	/**
+	 * @return number of resizes carried out so far
+	 */
+	public long getCommitCount() {
+		return commitCount.get();
+	}
+
+	/**
+	 * @return number of saves made so far
+	 */
+	public long getSaveCount() {
+		return saveCount.get();
+	}
+}
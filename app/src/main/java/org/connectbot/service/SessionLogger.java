@@ -0,0 +1,419 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+import android.util.Log;
+
+/**
+ * Records everything a session receives to disk. The relay thread only copies
+ * each chunk onto a lock-free queue; a background thread batches the chunks
+ * into a large buffer and writes them out with a {@link FileChannel}, so disk
+ * speed never holds up the terminal. If the writer falls too far behind, new
+ * output is dropped rather than queued without bound, and a line saying how
+ * much is missing is written where it would have been.
+ * <p>
+ * Logs are split into segments of roughly {@code segmentSize} bytes. Each
+ * finished segment is gzipped on a thread of its own so the writer keeps
+ * draining the queue meanwhile; the segment being written when the session
+ * ends is left as it is.
+ */
+public class SessionLogger implements Runnable {
+	private static final String TAG = "CB.SessionLogger";
+
+	public enum Format {
+		/** The bytes exactly as received from the server. */
+		RAW("log"),
+		/** asciicast v2: decoded text with the time each chunk arrived. */
+		ASCIICAST("cast");
+
+		final String extension;
+
+		Format(String extension) {
+			this.extension = extension;
+		}
+	}
+
+	/** Default size at which a new segment is started. */
+	public static final long DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+	/** Bytes that may be waiting for the writer before output is dropped. */
+	static final long MAX_PENDING = 4 * 1024 * 1024;
+
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	/** How long the writer waits for more output before flushing what it has. */
+	private static final long IDLE_FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** Written in place of output that was dropped. */
+	private static final String GAP_MARKER = "\r\n[%d bytes of output were not logged]\r\n";
+
+	private static class Chunk {
+		final byte[] data;
+		final long time;
+		/** Bytes dropped between the previous chunk and this one. */
+		final long droppedBefore;
+
+		Chunk(byte[] data, long time, long droppedBefore) {
+			this.data = data;
+			this.time = time;
+			this.droppedBefore = droppedBefore;
+		}
+	}
+
+	private final File directory;
+	private final String baseName;
+	private final Format format;
+	private final long segmentSize;
+	private final int columns;
+	private final int rows;
+	private final long startTime = System.nanoTime();
+
+	private final ConcurrentLinkedQueue<Chunk> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicLong pending = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	/** Bytes dropped since the last chunk that was queued. */
+	private final AtomicLong unmarked = new AtomicLong();
+	private final AtomicLong logged = new AtomicLong();
+
+	private volatile Thread writer;
+	private volatile boolean closed = false;
+
+	private final ExecutorService compressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r);
+			thread.setName("SessionLogCompressor");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	/* only touched by the writer thread */
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+	private FileChannel channel;
+	private File segment;
+	private int segmentNumber = 0;
+	private long segmentWritten;
+	private Utf8Decoder decoder;
+	private char[] decoded;
+
+	/**
+	 * @param directory where the segments are written
+	 * @param name identifies the session in the file names
+	 * @param columns terminal width recorded in asciicast headers
+	 * @param rows terminal height recorded in asciicast headers
+	 */
+	public SessionLogger(File directory, String name, Format format, long segmentSize,
+			int columns, int rows) {
+		this.directory = directory;
+		this.format = format;
+		this.segmentSize = segmentSize;
+		this.columns = columns;
+		this.rows = rows;
+
+		String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+		baseName = name.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + timestamp;
+	}
+
+	/**
+	 * Start the writer thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this);
+		thread.setName("SessionLogger");
+		thread.setDaemon(true);
+		writer = thread;
+		thread.start();
+	}
+
+	/**
+	 * Queue received output for writing. Never blocks.
+	 */
+	public void log(byte[] data, int offset, int length) {
+		if (closed || length <= 0)
+			return;
+
+		if (pending.get() + length > MAX_PENDING) {
+			dropped.addAndGet(length);
+			unmarked.addAndGet(length);
+			return;
+		}
+
+		byte[] copy = new byte[length];
+		System.arraycopy(data, offset, copy, 0, length);
+		pending.addAndGet(length);
+		queue.offer(new Chunk(copy, System.nanoTime(), unmarked.getAndSet(0)));
+
+		Thread thread = writer;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Stop logging. The writer finishes whatever is already queued first.
+	 */
+	public void close() {
+		closed = true;
+		Thread thread = writer;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Wait for the writer thread and any compression to finish after
+	 * {@link #close}.
+	 */
+	void join(long millis) throws InterruptedException {
+		Thread thread = writer;
+		if (thread != null)
+			thread.join(millis);
+		compressor.awaitTermination(millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return bytes of output dropped because the writer fell behind
+	 */
+	public long getDroppedBytes() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return bytes of output written to disk so far
+	 */
+	public long getLoggedBytes() {
+		return logged.get();
+	}
+
+	@Override
+	public void run() {
+		try {
+			openSegment();
+			while (true) {
+				Chunk chunk = queue.poll();
+				if (chunk == null) {
+					if (closed)
+						break;
+					flush();
+					LockSupport.parkNanos(this, IDLE_FLUSH_NANOS);
+					continue;
+				}
+
+				pending.addAndGet(-chunk.data.length);
+				if (chunk.droppedBefore > 0)
+					writeGap(chunk.droppedBefore, chunk.time);
+				if (format == Format.ASCIICAST)
+					writeEvent(chunk);
+				else
+					write(chunk.data, 0, chunk.data.length);
+				logged.addAndGet(chunk.data.length);
+
+				if (segmentWritten >= segmentSize) {
+					final File finished = closeSegment();
+					openSegment();
+					compressor.execute(new Runnable() {
+						@Override
+						public void run() {
+							compress(finished);
+						}
+					});
+				}
+			}
+
+			// nothing is queued after close, so this is the last of it
+			long droppedAtEnd = unmarked.getAndSet(0);
+			if (droppedAtEnd > 0)
+				writeGap(droppedAtEnd, System.nanoTime());
+			closeSegment();
+		} catch (IOException e) {
+			Log.e(TAG, "Problem while writing session log", e);
+			closed = true;
+			queue.clear();
+			try {
+				if (channel != null)
+					channel.close();
+			} catch (IOException ignored) {
+			}
+		} finally {
+			compressor.shutdown();
+		}
+	}
+
+	/**
+	 * Note in the log that output was dropped here.
+	 */
+	private void writeGap(long count, long time) throws IOException {
+		Log.w(TAG, String.format(Locale.US, "Writer fell behind, %d bytes of output were not logged", count));
+
+		byte[] marker = String.format(Locale.US, GAP_MARKER, count).getBytes(UTF_8);
+		if (format == Format.ASCIICAST) {
+			// whatever was being decoded continued in the missing output
+			decoder.reset();
+			writeEvent(new Chunk(marker, time, 0));
+		} else {
+			write(marker, 0, marker.length);
+		}
+	}
+
+	private void openSegment() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create " + directory);
+
+		segment = new File(directory, baseName + "." + segmentNumber++ + "." + format.extension);
+		channel = new FileOutputStream(segment).getChannel();
+		segmentWritten = 0;
+
+		if (format == Format.ASCIICAST) {
+			// each segment can be played back on its own
+			if (decoder == null)
+				decoder = new Utf8Decoder();
+			String header = String.format(Locale.US,
+					"{\"version\": 2, \"width\": %d, \"height\": %d, \"timestamp\": %d}\n",
+					columns, rows, System.currentTimeMillis() / 1000);
+			byte[] bytes = header.getBytes(UTF_8);
+			write(bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * @return the file that was just closed
+	 */
+	private File closeSegment() throws IOException {
+		flush();
+		channel.close();
+		channel = null;
+		return segment;
+	}
+
+	private void writeEvent(Chunk chunk) throws IOException {
+		if (decoded == null || decoded.length < chunk.data.length + 1)
+			decoded = new char[Math.max(chunk.data.length + 1, 1024)];
+		int count = decoder.decode(chunk.data, 0, chunk.data.length, decoded);
+		if (count == 0)
+			return;
+
+		double elapsed = (chunk.time - startTime) / 1e9;
+		StringBuilder event = new StringBuilder(count + 32);
+		event.append('[').append(String.format(Locale.US, "%.6f", elapsed)).append(", \"o\", \"");
+		appendJsonString(event, decoded, count);
+		event.append("\"]\n");
+
+		byte[] bytes = event.toString().getBytes(UTF_8);
+		write(bytes, 0, bytes.length);
+	}
+
+	static void appendJsonString(StringBuilder sb, char[] chars, int length) {
+		for (int i = 0; i < length; i++) {
+			char c = chars[i];
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20 || c == 0x7f)
+					sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+		}
+	}
+
+	private void write(byte[] data, int offset, int length) throws IOException {
+		segmentWritten += length;
+		while (length > 0) {
+			if (!writeBuffer.hasRemaining())
+				flush();
+			int count = Math.min(length, writeBuffer.remaining());
+			writeBuffer.put(data, offset, count);
+			offset += count;
+			length -= count;
+		}
+	}
+
+	private void flush() throws IOException {
+		if (writeBuffer.position() == 0)
+			return;
+		writeBuffer.flip();
+		while (writeBuffer.hasRemaining())
+			channel.write(writeBuffer);
+		writeBuffer.clear();
+	}
+
+	/**
+	 * Replace a finished segment with a gzipped copy.
+	 */
+	private static void compress(File file) {
+		File gzipped = new File(file.getPath() + ".gz");
+		byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipped), WRITE_BUFFER_SIZE);
+				try {
+					int count;
+					while ((count = in.read(buffer)) > 0)
+						out.write(buffer, 0, count);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			if (!file.delete())
+				Log.w(TAG, "Could not remove " + file + " after compressing it");
+		} catch (IOException e) {
+			Log.e(TAG, "Problem while compressing " + file, e);
+			gzipped.delete();
+		}
+	}
+}
@@ -17,10 +17,12 @@
 
 package org.connectbot.service;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,6 +32,7 @@ import org.connectbot.bean.HostBean;
 import org.connectbot.bean.PortForwardBean;
 import org.connectbot.bean.SelectionArea;
 import org.connectbot.transport.AbsTransport;
+import org.connectbot.transport.PortForwardStats;
 import org.connectbot.transport.TransportFactory;
 import org.connectbot.util.HostDatabase;
 
@@ -46,6 +49,8 @@ import android.os.Looper;
 import android.provider.Settings;
 import android.text.ClipboardManager;
 import android.util.Log;
+import de.mud.terminal.ScrollbackArchive;
+import de.mud.terminal.SearchMatch;
 import de.mud.terminal.VDUBuffer;
 import de.mud.terminal.VDUDisplay;
 import de.mud.terminal.vt320;
@@ -66,6 +71,13 @@ public class TerminalBridge implements VDUDisplay {
 
 	private final static int DEFAULT_FONT_SIZE_DP = 10;
 	private final static int FONT_SIZE_STEP = 2;
+	private final static float MIN_FONT_SIZE_DP = 4;
+	private final static float MAX_FONT_SIZE_DP = 96;
+	private final static int GLYPH_CACHE_SIZE = 1024;
+
+	/** Scrollback lines kept as they are before older ones get compressed. */
+	private final static int UNCOMPRESSED_SCROLLBACK = 500;
+
 	private float displayDensity;
 	private float systemFontScale;
 
@@ -83,9 +95,17 @@ public class TerminalBridge implements VDUDisplay {
 	final Paint defaultPaint;
 
 	private Relay relay;
+	/** Thread feeding host output to the emulator; its writes are replies. */
+	private volatile Thread relayThread;
+
+	private volatile InputWriter inputWriter;
+	private volatile boolean rejectBellPending = false;
+
+	private volatile SessionLogger sessionLogger;
 
 	private final String emulation;
 	private final int scrollback;
+	private ScrollbackArchive scrollbackArchive;
 
 	public Bitmap bitmap = null;
 	public VDUBuffer buffer = null;
@@ -93,6 +113,40 @@ public class TerminalBridge implements VDUDisplay {
 	private TerminalView parent = null;
 	private final Canvas canvas = new Canvas();
 
+	/** Coalesces {@link #redraw()} calls into at most one frame per vsync. */
+	private final FrameScheduler frameScheduler;
+
+	/** Holds back resizes and font size saves until they stop coming. */
+	private final ResizeCoordinator resizeCoordinator;
+
+	/** Font size the next resize will apply, or -1 when none is waiting. */
+	private float pendingFontSizeDp = -1;
+
+	/** Whether the next resize has to pick up a new size of {@link #parent}. */
+	private boolean parentResizePending = false;
+
+	/** Rendered cells, shared by every frame drawn into {@link #bitmap}. */
+	private final GlyphCache glyphCache;
+
+	private final ConnectionTimings timings = new ConnectionTimings();
+
+	/** Scratch space for drawing a single wide character. */
+	private final char[] wideChar = new char[1];
+
+	/** Translucent yellow drawn over the current search match. */
+	private static final int SEARCH_HIGHLIGHT = 0x80ffff00;
+
+	private volatile SearchMatch searchMatch;
+	/* what searchMatch was searched for; guarded by buffer */
+	private String searchQuery;
+	private boolean searchRegex;
+	private boolean searchIgnoreCase;
+	private final Paint searchPaint = new Paint();
+
+	/** Spare bitmap for moving the screen contents when the buffer scrolls. */
+	private Bitmap scrollBitmap = null;
+	private final Canvas scrollCanvas = new Canvas();
+
 	private boolean disconnected = false;
 	private boolean awaitingClose = false;
 
@@ -148,10 +202,14 @@ public class TerminalBridge implements VDUDisplay {
 		displayDensity = 1f;
 
 		defaultPaint = new Paint();
+		glyphCache = new GlyphCache(defaultPaint, GLYPH_CACHE_SIZE);
 
 		selectionArea = new SelectionArea();
 		scrollback = 1;
 
+		frameScheduler = new FrameScheduler(frameCallback, FrameScheduler.DEFAULT_MAX_FRAME_RATE);
+		resizeCoordinator = new ResizeCoordinator(resizeCallback, saveCallback);
+
 		localOutput = new ArrayList<>();
 
 		fontSizeChangedListeners = new ArrayList<>();
@@ -173,6 +231,9 @@ public class TerminalBridge implements VDUDisplay {
 		emulation = manager.getEmulation();
 		scrollback = manager.getScrollback();
 
+		frameScheduler = new FrameScheduler(frameCallback, manager.getMaxFrameRate());
+		resizeCoordinator = new ResizeCoordinator(resizeCallback, saveCallback);
+
 		// create prompt helper to relay password and hostkey requests up to gui
 		promptHelper = new PromptHelper(this);
 
@@ -182,6 +243,8 @@ public class TerminalBridge implements VDUDisplay {
 		defaultPaint.setTypeface(Typeface.MONOSPACE);
 		defaultPaint.setFakeBoldText(true); // more readable?
 
+		glyphCache = new GlyphCache(defaultPaint, GLYPH_CACHE_SIZE);
+
 		refreshOverlayFontSize();
 
 		localOutput = new ArrayList<>();
@@ -205,8 +268,13 @@ public class TerminalBridge implements VDUDisplay {
 			@Override
 			public void write(byte[] b) {
 				try {
-					if (b != null && transport != null)
-						transport.write(b);
+					if (b == null)
+						return;
+					// the relay thread only writes to answer the host
+					if (Thread.currentThread() == relayThread)
+						reply(b);
+					else
+						TerminalBridge.this.write(b);
 				} catch (IOException e) {
 					Log.e(TAG, "Problem writing outgoing data in vt320() thread", e);
 				}
@@ -215,8 +283,10 @@ public class TerminalBridge implements VDUDisplay {
 			@Override
 			public void write(int b) {
 				try {
-					if (transport != null)
-						transport.write(b);
+					if (Thread.currentThread() == relayThread)
+						reply(new byte[] {(byte) b});
+					else
+						TerminalBridge.this.write(b);
 				} catch (IOException e) {
 					Log.e(TAG, "Problem writing outgoing data in vt320() thread", e);
 				}
@@ -242,10 +312,21 @@ public class TerminalBridge implements VDUDisplay {
 		};
 
 		// Don't keep any scrollback if a session is not being opened.
-		if (host.getWantSession())
-			buffer.setBufferSize(scrollback);
-		else
+		if (host.getWantSession()) {
+			if (manager.isDiskScrollbackEnabled()) {
+				buffer.setBufferSize(scrollback);
+				openScrollbackArchive();
+			} else if (scrollback > UNCOMPRESSED_SCROLLBACK) {
+				// older lines are rarely looked at again, so keep them compressed
+				buffer.setBufferSize(UNCOMPRESSED_SCROLLBACK);
+				scrollbackArchive = new ScrollbackArchive(scrollback - UNCOMPRESSED_SCROLLBACK);
+				buffer.setScrollbackArchive(scrollbackArchive);
+			} else {
+				buffer.setBufferSize(scrollback);
+			}
+		} else {
 			buffer.setBufferSize(0);
+		}
 
 		resetColors();
 		buffer.setDisplay(this);
@@ -255,6 +336,34 @@ public class TerminalBridge implements VDUDisplay {
 		keyListener = new TerminalKeyListener(manager, this, buffer, host.getEncoding());
 	}
 
+	/**
+	 * Keep the scrollback that doesn't fit in memory in a page file.
+	 */
+	private void openScrollbackArchive() {
+		File directory = manager.getScrollbackDirectory();
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Could not create " + directory);
+			scrollbackArchive = new ScrollbackArchive(
+					File.createTempFile("scrollback", ".pages", directory),
+					ScrollbackArchive.DEFAULT_MAX_LINES);
+			buffer.setScrollbackArchive(scrollbackArchive);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not create scrollback file; keeping scrollback in memory only", e);
+		}
+	}
+
+	/**
+	 * Drop the scrollback kept in the archive, deleting its file if it has one.
+	 */
+	void closeScrollbackArchive() {
+		if (scrollbackArchive == null)
+			return;
+		buffer.setScrollbackArchive(null);
+		scrollbackArchive.close();
+		scrollbackArchive = null;
+	}
+
 	public PromptHelper getPromptHelper() {
 		return promptHelper;
 	}
@@ -263,6 +372,17 @@ public class TerminalBridge implements VDUDisplay {
 	 * Spawn thread to open connection and start login process.
 	 */
 	protected void startConnection() {
+		startConnection(null);
+	}
+
+	/**
+	 * Start connecting to the host.
+	 * @param executor runs the transport's connect; when {@code null} a new
+	 *                 thread is started for it
+	 */
+	void startConnection(Executor executor) {
+		timings.start();
+
 		transport = TransportFactory.getTransport(host.getProtocol());
 		if (transport == null) {
 			Log.i(TAG, "No transport found for " + host.getProtocol());
@@ -285,17 +405,31 @@ public class TerminalBridge implements VDUDisplay {
 
 		outputLine(manager.res.getString(R.string.terminal_connecting, host.getHostname(), host.getPort(), host.getProtocol()));
 
-		Thread connectionThread = new Thread(new Runnable() {
+		Runnable connect = new Runnable() {
 			@Override
 			public void run() {
 				transport.connect();
 			}
-		});
+		};
+
+		if (executor != null) {
+			executor.execute(connect);
+			return;
+		}
+
+		Thread connectionThread = new Thread(connect);
 		connectionThread.setName("Connection");
 		connectionThread.setDaemon(true);
 		connectionThread.start();
 	}
 
+	/**
+	 * @return how long each phase of the last connection attempt took
+	 */
+	public ConnectionTimings getConnectionTimings() {
+		return timings;
+	}
+
 	/**
 	 * @return charset in use by bridge
 	 */
@@ -314,6 +448,14 @@ public class TerminalBridge implements VDUDisplay {
 		keyListener.setCharset(encoding);
 	}
 
+	/**
+	 * Sets whether intermediate frames are skipped while output is flooding.
+	 */
+	public void setJumpScroll(boolean jumpScroll) {
+		if (relay != null)
+			relay.setJumpScroll(jumpScroll);
+	}
+
 	/**
 	 * Convenience method for writing text into the underlying terminal buffer.
 	 * Should never be called once the session is established.
@@ -378,18 +520,74 @@ public class TerminalBridge implements VDUDisplay {
 		if (string == null || string.length() == 0)
 			return;
 
-		Thread injectStringThread = new Thread(new Runnable() {
+		InputWriter writer = inputWriter;
+		if (writer == null) {
+			Log.w(TAG, "Dropping string injected before the session was open");
+			return;
+		}
+
+		try {
+			writer.paste(string, Charset.forName(host.getEncoding()));
+		} catch (IllegalArgumentException e) {
+			Log.e(TAG, "Couldn't inject string to remote host: ", e);
+		}
+	}
+
+	/**
+	 * Send input to the remote host. Once the session is open this is queued
+	 * on the {@link InputWriter}, so callers on the UI thread never wait on
+	 * the network. Input that doesn't fit because the host stopped reading is
+	 * dropped, and the bell rings to say so.
+	 */
+	public void write(byte[] data) throws IOException {
+		InputWriter writer = inputWriter;
+		if (writer != null) {
+			if (!writer.write(data))
+				inputRejected();
+		} else if (transport != null)
+			transport.write(data);
+	}
+
+	public void write(int b) throws IOException {
+		InputWriter writer = inputWriter;
+		if (writer != null) {
+			if (!writer.write(b))
+				inputRejected();
+		} else if (transport != null)
+			transport.write(b);
+	}
+
+	/**
+	 * Answer a query from the remote host. Unlike {@link #write(byte[])} this
+	 * is never dropped when the input queue is full.
+	 */
+	private void reply(byte[] data) throws IOException {
+		InputWriter writer = inputWriter;
+		if (writer != null)
+			writer.reply(data);
+		else if (transport != null)
+			transport.write(data);
+	}
+
+	private void inputRejected() {
+		Log.w(TAG, "Input queue is full, dropping input");
+
+		// one bell for a burst of dropped keys, such as a held down key
+		if (manager == null || rejectBellPending)
+			return;
+
+		rejectBellPending = true;
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
 			@Override
 			public void run() {
-				try {
-					transport.write(string.getBytes(host.getEncoding()));
-				} catch (Exception e) {
-					Log.e(TAG, "Couldn't inject string to remote host: ", e);
-				}
+				rejectBellPending = false;
+				manager.playBeep();
 			}
 		});
-		injectStringThread.setName("InjectString");
-		injectStringThread.start();
+	}
+
+	public InputWriter getInputWriter() {
+		return inputWriter;
 	}
 
 	/**
@@ -398,6 +596,7 @@ public class TerminalBridge implements VDUDisplay {
 	 */
 	public void onConnected() {
 		disconnected = false;
+		timings.setConnected();
 
 		((vt320) buffer).reset();
 
@@ -414,9 +613,26 @@ public class TerminalBridge implements VDUDisplay {
 			((vt320) buffer).setBackspace(vt320.DELETE_IS_DEL);
 
 		if (isSessionOpen()) {
+			// create thread to send keystrokes and pastes out in order
+			inputWriter = new InputWriter(this, transport);
+			Thread writerThread = new Thread(inputWriter);
+			writerThread.setDaemon(true);
+			writerThread.setName("InputWriter");
+			writerThread.start();
+
 			// create thread to relay incoming connection data to buffer
 			relay = new Relay(this, transport, (vt320) buffer, host.getEncoding());
-			Thread relayThread = new Thread(relay);
+			relay.setJumpScroll(manager.isJumpScrollEnabled());
+
+			SessionLogger.Format logFormat = manager.getSessionLogFormat();
+			if (logFormat != null) {
+				sessionLogger = new SessionLogger(manager.getSessionLogDirectory(), host.getNickname(),
+						logFormat, SessionLogger.DEFAULT_SEGMENT_SIZE, buffer.getColumns(), buffer.getRows());
+				sessionLogger.start();
+				relay.setSessionLogger(sessionLogger);
+			}
+
+			relayThread = new Thread(relay);
 			relayThread.setDaemon(true);
 			relayThread.setName("Relay");
 			relayThread.start();
@@ -457,6 +673,12 @@ public class TerminalBridge implements VDUDisplay {
 		// Cancel any pending prompts.
 		promptHelper.cancelPrompt();
 
+		if (inputWriter != null)
+			inputWriter.close();
+
+		if (sessionLogger != null)
+			sessionLogger.close();
+
 		// disconnection request hangs if we havent really connected to a host yet
 		// temporary fix is to just spawn disconnection into a thread
 		Thread disconnectThread = new Thread(new Runnable() {
@@ -542,6 +764,8 @@ public class TerminalBridge implements VDUDisplay {
 		charWidth = (int) Math.ceil(widths[0]);
 		charHeight = (int) Math.ceil(fm.descent - fm.top);
 
+		glyphCache.invalidate();
+
 		// refresh any bitmap with new font size
 		if (parent != null) {
 			parentChanged(parent);
@@ -551,12 +775,117 @@ public class TerminalBridge implements VDUDisplay {
 			ofscl.onFontSizeChanged(sizeDp);
 		}
 
-		host.setFontSize((int) sizeDp);
-		manager.hostdb.saveHost(host);
+		if (host.getFontSize() != (int) sizeDp) {
+			host.setFontSize((int) sizeDp);
+			resizeCoordinator.requestSave();
+		}
 
 		forcedSize = false;
 	}
 
+	/**
+	 * Ask for a different font size without resizing right away. While the
+	 * requests keep coming the view only scales the current picture; see
+	 * {@link #getPreviewScale()}. Call on the main thread.
+	 *
+	 * @param sizeDp Size of font in dp
+	 */
+	public void requestFontSize(float sizeDp) {
+		sizeDp = Math.max(MIN_FONT_SIZE_DP, Math.min(MAX_FONT_SIZE_DP, sizeDp));
+
+		if (parent == null || bitmap == null) {
+			pendingFontSizeDp = -1;
+			setFontSize(sizeDp);
+			return;
+		}
+
+		pendingFontSizeDp = sizeDp;
+		resizeCoordinator.requestResize();
+		parent.invalidate();
+	}
+
+	/**
+	 * @return the font size the terminal is heading for, which may not be
+	 *         applied yet
+	 */
+	public float getRequestedFontSize() {
+		return pendingFontSizeDp > 0 ? pendingFontSizeDp : fontSizeDp;
+	}
+
+	/**
+	 * @return how much the view should scale {@link #bitmap} to preview a
+	 *         font size that hasn't been applied yet
+	 */
+	public float getPreviewScale() {
+		if (pendingFontSizeDp <= 0 || fontSizeDp <= 0)
+			return 1f;
+		return pendingFontSizeDp / fontSizeDp;
+	}
+
+	/**
+	 * A zoom gesture started; hold back resizing until {@link #endZoom()}.
+	 */
+	public void beginZoom() {
+		resizeCoordinator.beginGesture();
+	}
+
+	/**
+	 * The zoom gesture ended; apply the font size it settled on.
+	 */
+	public void endZoom() {
+		resizeCoordinator.endGesture();
+	}
+
+	/**
+	 * Like {@link #parentChanged(TerminalView)}, but a burst of size changes
+	 * of the same view, e.g. while the soft keyboard slides in or the screen
+	 * rotates, ends in a single resize. Call on the main thread.
+	 */
+	public void requestParentChanged(TerminalView parent) {
+		if (bitmap == null || parent != this.parent) {
+			resizeCoordinator.cancelResize();
+			pendingFontSizeDp = -1;
+			parentResizePending = false;
+			parentChanged(parent);
+			return;
+		}
+
+		parentResizePending = true;
+		resizeCoordinator.requestResize();
+	}
+
+	/**
+	 * Carries out the resize the coordinator held back.
+	 */
+	private final Runnable resizeCallback = new Runnable() {
+		@Override
+		public void run() {
+			final TerminalView view = parent;
+			final float sizeDp = pendingFontSizeDp;
+			final boolean resize = parentResizePending;
+			pendingFontSizeDp = -1;
+			parentResizePending = false;
+
+			if (sizeDp > 0 && sizeDp != fontSizeDp)
+				setFontSize(sizeDp);
+			else if (resize && view != null)
+				parentChanged(view);
+			else if (view != null)
+				view.invalidate();
+		}
+	};
+
+	/**
+	 * Saves the font size, on a background thread.
+	 */
+	private final Runnable saveCallback = new Runnable() {
+		@Override
+		public void run() {
+			if (manager != null)
+				manager.hostdb.saveHost(host);
+		}
+	};
+
 	public float getFontSize() {
 		return fontSizeDp;
 	}
@@ -635,6 +964,7 @@ public class TerminalBridge implements VDUDisplay {
 		// clear out any old buffer information
 		defaultPaint.setColor(Color.BLACK);
 		canvas.drawPaint(defaultPaint);
+		discardScrollBitmap();
 
 		// Stroke the border of the terminal if the size is being forced;
 		if (forcedSize) {
@@ -686,6 +1016,11 @@ public class TerminalBridge implements VDUDisplay {
 	 */
 	public synchronized void parentDestroyed() {
 		parent = null;
+		frameScheduler.cancel();
+		resizeCoordinator.cancelResize();
+		pendingFontSizeDp = -1;
+		parentResizePending = false;
+		resizeCoordinator.flushSave();
 		discardBitmap();
 	}
 
@@ -693,6 +1028,14 @@ public class TerminalBridge implements VDUDisplay {
 		if (bitmap != null)
 			bitmap.recycle();
 		bitmap = null;
+		discardScrollBitmap();
+		glyphCache.recycle();
+	}
+
+	private void discardScrollBitmap() {
+		if (scrollBitmap != null)
+			scrollBitmap.recycle();
+		scrollBitmap = null;
 	}
 
 	@Override
@@ -717,6 +1060,17 @@ public class TerminalBridge implements VDUDisplay {
 			boolean entireDirty = buffer.update[0] || fullRedraw;
 			boolean isWideCharacter = false;
 
+			// move what we already drew along with a scrolled screen
+			if (!entireDirty && buffer.scrolledLines > 0)
+				scrollBitmap(buffer.scrolledLines);
+			buffer.scrolledLines = 0;
+
+			glyphCache.prepare(charWidth, charHeight, charTop);
+
+			// the match follows its line as the buffer scrolls
+			SearchMatch match = searchMatch;
+			int matchRow = match != null ? buffer.getRowOfLine(match.line) : -1;
+
 			// walk through all lines in the buffer
 			for (int l = 0; l < buffer.height; l++) {
 
@@ -727,10 +1081,41 @@ public class TerminalBridge implements VDUDisplay {
 				// reset dirty flag for this line
 				buffer.update[l + 1] = false;
 
+				// only the dirty columns need to be repainted
+				int left = 0;
+				int right = buffer.width;
+				if (!entireDirty) {
+					left = buffer.updateLeft[l + 1];
+					right = Math.min(buffer.updateRight[l + 1], buffer.width);
+				}
+
+				int[] cells = buffer.getCellLine(buffer.windowBase + l);
+
 				// walk through all characters in this line
-				for (int c = 0; c < buffer.width; c++) {
+				for (int c = 0; c < right; c++) {
 					int addr = 0;
-					long currAttr = buffer.charAttributes[buffer.windowBase + l][c];
+					int style = VDUBuffer.cellStyle(cells[c]);
+					long currAttr = buffer.getStyleAttributes(style);
+
+					isWideCharacter = (currAttr & VDUBuffer.FULLWIDTH) != 0;
+
+					if (isWideCharacter)
+						addr++;
+					else {
+						// determine the amount of continuous characters with the same settings and print them all at once
+						while (c + addr < buffer.width
+								&& VDUBuffer.cellStyle(cells[c + addr]) == style) {
+							addr++;
+						}
+					}
+
+					// runs are walked from the start of the line so wide characters
+					// stay aligned, but only those touching the dirty columns are drawn
+					int runEnd = c + (isWideCharacter ? 2 : addr);
+					if (runEnd <= left) {
+						c = runEnd - 1;
+						continue;
+					}
 
 					{
 						int fgcolor = defaultFg;
@@ -764,53 +1149,57 @@ public class TerminalBridge implements VDUDisplay {
 						fg = swapc;
 					}
 
-					// set underlined attributes if requested
-					defaultPaint.setUnderlineText((currAttr & VDUBuffer.UNDERLINE) != 0);
+					boolean underline = (currAttr & VDUBuffer.UNDERLINE) != 0;
 
-					isWideCharacter = (currAttr & VDUBuffer.FULLWIDTH) != 0;
+					if (!isWideCharacter) {
+						// copy each dirty cell of the run out of the glyph cache
+						boolean invisible = (currAttr & VDUBuffer.INVISIBLE) != 0;
+						int drawEnd = Math.min(runEnd, right);
+						for (int i = Math.max(c, left); i < drawEnd; i++)
+							glyphCache.drawGlyph(canvas, invisible ? ' ' : VDUBuffer.cellChar(cells[i]), fg, bg,
+									underline && !invisible, i * charWidth, l * charHeight);
 
-					if (isWideCharacter)
-						addr++;
-					else {
-						// determine the amount of continuous characters with the same settings and print them all at once
-						while (c + addr < buffer.width
-								&& buffer.charAttributes[buffer.windowBase + l][c + addr] == currAttr) {
-							addr++;
-						}
+						c = runEnd - 1;
+						continue;
 					}
 
+					// wide characters span two cells and are drawn as text
+
+					// set underlined attributes if requested
+					defaultPaint.setUnderlineText(underline);
+
 					// Save the current clip region
 					canvas.save();
 
 					// clear this dirty area with background color
 					defaultPaint.setColor(bg);
-					if (isWideCharacter) {
-						canvas.clipRect(c * charWidth,
-								l * charHeight,
-								(c + 2) * charWidth,
-								(l + 1) * charHeight);
-					} else {
-						canvas.clipRect(c * charWidth,
-								l * charHeight,
-								(c + addr) * charWidth,
-								(l + 1) * charHeight);
-					}
+					canvas.clipRect(c * charWidth,
+							l * charHeight,
+							runEnd * charWidth,
+							(l + 1) * charHeight);
 					canvas.drawPaint(defaultPaint);
 
-					// write the text string starting at 'c' for 'addr' number of characters
+					// write the character
 					defaultPaint.setColor(fg);
-					if ((currAttr & VDUBuffer.INVISIBLE) == 0)
-						canvas.drawText(buffer.charArray[buffer.windowBase + l], c,
-							addr, c * charWidth, (l * charHeight) - charTop,
+					if ((currAttr & VDUBuffer.INVISIBLE) == 0) {
+						wideChar[0] = VDUBuffer.cellChar(cells[c]);
+						canvas.drawText(wideChar, 0, 1,
+							c * charWidth, (l * charHeight) - charTop,
 							defaultPaint);
+					}
 
 					// Restore the previous clip region
 					canvas.restore();
 
 					// advance to the next text block with different characteristics
-					c += addr - 1;
-					if (isWideCharacter)
-						c++;
+					c = runEnd - 1;
+				}
+
+				// highlight the current search match
+				if (matchRow >= 0 && matchRow == buffer.windowBase + l) {
+					searchPaint.setColor(SEARCH_HIGHLIGHT);
+					canvas.drawRect(Math.max(match.start, left) * charWidth, l * charHeight,
+							Math.min(match.end, right) * charWidth, (l + 1) * charHeight, searchPaint);
 				}
 			}
 
@@ -820,10 +1209,126 @@ public class TerminalBridge implements VDUDisplay {
 		fullRedraw = false;
 	}
 
+	/**
+	 * Search the scrollback and screen for text. The search carries on from
+	 * the previous match for the same query, or starts at the bottom of the
+	 * window when going backwards and at its top otherwise. The window is
+	 * moved to show the match, which stays highlighted until
+	 * {@link #clearSearch} or until its line leaves the buffer or a resize
+	 * lays the lines out again.
+	 *
+	 * @param query literal text, or a regular expression if {@code regex} is set
+	 * @return the match, or null if there are no more
+	 * @throws java.util.regex.PatternSyntaxException if {@code regex} is set
+	 *         and the query isn't a valid regular expression
+	 */
+	public SearchMatch search(String query, boolean regex, boolean ignoreCase, boolean backwards) {
+		SearchMatch match;
+		synchronized (buffer) {
+			// rows left at an old width would be reported in their old layout
+			buffer.reflowScrollback();
+
+			// a different query, or a match whose line is gone, starts over
+			SearchMatch previous = searchMatch;
+			int previousRow = -1;
+			if (previous != null && query.equals(searchQuery) && regex == searchRegex
+					&& ignoreCase == searchIgnoreCase)
+				previousRow = buffer.getRowOfLine(previous.line);
+
+			int row, column;
+			if (previousRow >= 0) {
+				row = previousRow;
+				column = previous.start;
+			} else if (backwards) {
+				row = buffer.windowBase + buffer.height - 1;
+				column = buffer.width;
+			} else {
+				row = buffer.windowBase;
+				column = -1;
+			}
+
+			if (regex) {
+				int flags = ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0;
+				match = buffer.find(Pattern.compile(query, flags), row, column, backwards);
+			} else {
+				match = buffer.find(query, ignoreCase, row, column, backwards);
+			}
+
+			searchQuery = query;
+			searchRegex = regex;
+			searchIgnoreCase = ignoreCase;
+			if (match != null) {
+				searchMatch = match;
+				if (match.row < buffer.windowBase || match.row >= buffer.windowBase + buffer.height)
+					buffer.setWindowBase(match.row - buffer.height / 2);
+			} else if (previousRow < 0) {
+				searchMatch = null;
+			}
+			buffer.update[0] = true;
+		}
+		redraw();
+		return match;
+	}
+
+	/**
+	 * Remove the search highlight, so the next search starts from the window
+	 * again.
+	 */
+	public void clearSearch() {
+		synchronized (buffer) {
+			searchMatch = null;
+			buffer.update[0] = true;
+		}
+		redraw();
+	}
+
+	/**
+	 * Move the contents of our bitmap up by the given amount of lines. The
+	 * shifted copy is drawn into a second bitmap which then takes the place
+	 * of the current one, so this is a single blit regardless of how much
+	 * text is on the screen. The lines scrolled in at the bottom are marked
+	 * dirty by the buffer and get drawn afterwards.
+	 */
+	private void scrollBitmap(int lines) {
+		if (scrollBitmap == null)
+			scrollBitmap = bitmap.copy(Config.ARGB_8888, true);
+
+		scrollCanvas.setBitmap(scrollBitmap);
+		scrollCanvas.save();
+		scrollCanvas.clipRect(0, 0, bitmap.getWidth(), (buffer.height - lines) * charHeight);
+		scrollCanvas.drawBitmap(bitmap, 0, -lines * charHeight, null);
+		scrollCanvas.restore();
+
+		Bitmap previous = bitmap;
+		bitmap = scrollBitmap;
+		scrollBitmap = previous;
+		canvas.setBitmap(bitmap);
+	}
+
+	private final Runnable frameCallback = new Runnable() {
+		@Override
+		public void run() {
+			TerminalView view = parent;
+			if (view != null)
+				view.onFrame();
+		}
+	};
+
 	@Override
 	public void redraw() {
 		if (parent != null)
-			parent.postInvalidate();
+			frameScheduler.requestFrame();
+	}
+
+	public FrameScheduler getFrameScheduler() {
+		return frameScheduler;
+	}
+
+	/**
+	 * Called by the {@link Relay} as incoming output starts or stops flooding.
+	 */
+	/* package */ void setFlooding(boolean flooding) {
+		frameScheduler.setFlooding(flooding);
 	}
 
 	// We don't have a scroll bar.
@@ -972,6 +1477,19 @@ public class TerminalBridge implements VDUDisplay {
 		return transport.disablePortForward(portForward);
 	}
 
+	/**
+	 * Get the traffic through a port forward, with its throughput brought up
+	 * to date. Remote forwards are handled by the SSH library and aren't
+	 * counted.
+	 * @param portForward member of our current port forwards list
+	 * @return counters of the port forward
+	 */
+	public PortForwardStats getPortForwardStats(PortForwardBean portForward) {
+		PortForwardStats stats = portForward.getStats();
+		stats.sample();
+		return stats;
+	}
+
 	/**
 	 * @return whether the TerminalBridge should close
 	 */
@@ -1003,6 +1521,8 @@ public class TerminalBridge implements VDUDisplay {
 		defaultBg = defaults[1];
 
 		color = manager.colordb.getColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME);
+
+		glyphCache.invalidate();
 	}
 
 	private static class PatternHolder {
@@ -1047,8 +1567,7 @@ public class TerminalBridge implements VDUDisplay {
 
 		char[] visibleBuffer = new char[buffer.height * buffer.width];
 		for (int l = 0; l < buffer.height; l++)
-			System.arraycopy(buffer.charArray[buffer.windowBase + l], 0,
-					visibleBuffer, l * buffer.width, buffer.width);
+			buffer.getChars(buffer.windowBase + l, visibleBuffer, l * buffer.width);
 
 		Matcher urlMatcher = PatternHolder.urlPattern.matcher(new String(visibleBuffer));
 		while (urlMatcher.find())
@@ -1084,13 +1603,13 @@ public class TerminalBridge implements VDUDisplay {
 	 * Convenience function to increase the font size by a given step.
 	 */
 	public void increaseFontSize() {
-		setFontSize(fontSizeDp + FONT_SIZE_STEP);
+		requestFontSize(getRequestedFontSize() + FONT_SIZE_STEP);
 	}
 
 	/**
 	 * Convenience function to decrease the font size by a given step.
 	 */
 	public void decreaseFontSize() {
-		setFontSize(fontSizeDp - FONT_SIZE_STEP);
+		requestFontSize(getRequestedFontSize() - FONT_SIZE_STEP);
 	}
 }
@@ -17,17 +17,27 @@
 
 package org.connectbot.service;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.security.KeyPair;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.connectbot.R;
 import org.connectbot.bean.HostBean;
@@ -54,7 +64,9 @@ import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Vibrator;
 import android.preference.PreferenceManager;
 import android.util.Log;
@@ -69,6 +81,12 @@ import android.util.Log;
 public class TerminalManager extends Service implements BridgeDisconnectedListener, OnSharedPreferenceChangeListener, ProviderLoaderListener {
 	public final static String TAG = "CB.TerminalManager";
 
+	/** Connections set up at the same time by {@link #openConnections}. */
+	public final static int BULK_CONNECT_THREADS = 8;
+
+	/** Milliseconds a host may take to connect and authenticate during a bulk connect. */
+	public final static long BULK_CONNECT_TIMEOUT = 30000;
+
 	private ArrayList<TerminalBridge> bridges = new ArrayList<>();
 	public Map<HostBean, WeakReference<TerminalBridge>> mHostBridgeMap = new HashMap<>();
 	public Map<String, WeakReference<TerminalBridge>> mNicknameBridgeMap = new HashMap<>();
@@ -81,7 +99,14 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 	private final ArrayList<OnHostStatusChangedListener> hostStatusChangedListeners = new ArrayList<>();
 
-	public Map<String, KeyHolder> loadedKeypairs = new HashMap<>();
+	/* concurrent since hosts may be authenticating in parallel */
+	public Map<String, KeyHolder> loadedKeypairs = new ConcurrentHashMap<>();
+
+	/* held while a key is unlocked, by key nickname */
+	private final ConcurrentHashMap<String, Object> keyUnlockLocks = new ConcurrentHashMap<>();
+
+	/* public key that last authenticated each host, by host nickname */
+	private final Map<String, byte[]> lastPubkeys = new ConcurrentHashMap<>();
 
 	public Resources res;
 
@@ -125,6 +150,13 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 		res = getResources();
 
+		// page files left behind if the process was killed
+		File[] staleScrollback = getScrollbackDirectory().listFiles();
+		if (staleScrollback != null) {
+			for (File file : staleScrollback)
+				file.delete();
+		}
+
 		pubkeyTimer = new Timer("pubkeyTimer", true);
 
 		hostdb = HostDatabase.get(this);
@@ -213,6 +245,14 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 	 * Open a new SSH session using the given parameters.
 	 */
 	private TerminalBridge openConnection(HostBean host) throws IllegalArgumentException, IOException {
+		return openConnection(host, null);
+	}
+
+	/**
+	 * Open a new SSH session using the given parameters.
+	 * @param executor runs the connection setup, or {@code null} for a thread of its own
+	 */
+	private TerminalBridge openConnection(HostBean host, Executor executor) throws IllegalArgumentException, IOException {
 		// throw exception if terminal already open
 		if (getConnectedBridge(host) != null) {
 			throw new IllegalArgumentException("Connection already open for that nickname");
@@ -220,7 +260,7 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 		TerminalBridge bridge = new TerminalBridge(this, host);
 		bridge.setOnDisconnectedListener(this);
-		bridge.startConnection();
+		bridge.startConnection(executor);
 
 		synchronized (bridges) {
 			bridges.add(bridge);
@@ -249,6 +289,125 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		return bridge;
 	}
 
+	/**
+	 * Open connections to all hosts tagged with the given color.
+	 * @see #openConnections(List, long, BulkConnectListener)
+	 */
+	public void openConnectionsWithColor(String color, BulkConnectListener listener) {
+		List<HostBean> hosts = new ArrayList<>();
+		for (HostBean host : hostdb.getHosts(false)) {
+			if (color.equals(host.getColor()))
+				hosts.add(host);
+		}
+
+		openConnections(hosts, BULK_CONNECT_TIMEOUT, listener);
+	}
+
+	/**
+	 * Open connections to many hosts at once. At most
+	 * {@link #BULK_CONNECT_THREADS} connections are set up at the same time;
+	 * a host that hasn't finished connecting and authenticating within
+	 * {@code timeout} milliseconds is disconnected. Hosts that already have a
+	 * connection are skipped.
+	 * <p>
+	 * Keys already unlocked in {@link #loadedKeypairs} are offered to every
+	 * host, and a key that still needs its password is only unlocked once.
+	 *
+	 * @param listener told on the main thread how long each host took once
+	 *                 all of them have finished; may be {@code null}
+	 */
+	public void openConnections(List<HostBean> hosts, final long timeout, final BulkConnectListener listener) {
+		final Map<HostBean, ConnectionTimings> results = new LinkedHashMap<>();
+		final AtomicInteger remaining = new AtomicInteger(1);
+		final Timer timeoutTimer = new Timer("BulkConnectTimeout", true);
+		final ExecutorService executor = Executors.newFixedThreadPool(
+				Math.max(1, Math.min(BULK_CONNECT_THREADS, hosts.size())), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "BulkConnect");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		final Runnable finished = new Runnable() {
+			@Override
+			public void run() {
+				executor.shutdown();
+				timeoutTimer.cancel();
+
+				synchronized (results) {
+					for (Entry<HostBean, ConnectionTimings> entry : results.entrySet())
+						Log.i(TAG, String.format("Bulk connect to %s: %s",
+								entry.getKey().getNickname(), entry.getValue()));
+				}
+
+				if (listener != null) {
+					new Handler(Looper.getMainLooper()).post(new Runnable() {
+						@Override
+						public void run() {
+							listener.onBulkConnectFinished(results);
+						}
+					});
+				}
+			}
+		};
+
+		for (HostBean host : hosts) {
+			if (getConnectedBridge(host) != null)
+				continue;
+
+			// each bridge's connect runs on the pool with a deadline of its own
+			final AtomicReference<TerminalBridge> bridge = new AtomicReference<>();
+			final AtomicBoolean started = new AtomicBoolean();
+			Executor withTimeout = new Executor() {
+				@Override
+				public void execute(final Runnable connect) {
+					started.set(true);
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							TimerTask watchdog = new TimerTask() {
+								@Override
+								public void run() {
+									TerminalBridge timedOut = bridge.get();
+									timedOut.getConnectionTimings().setTimedOut();
+									timedOut.dispatchDisconnect(true);
+								}
+							};
+							timeoutTimer.schedule(watchdog, timeout);
+							try {
+								connect.run();
+							} finally {
+								watchdog.cancel();
+								if (remaining.decrementAndGet() == 0)
+									finished.run();
+							}
+						}
+					});
+				}
+			};
+
+			remaining.incrementAndGet();
+			try {
+				bridge.set(openConnection(host, withTimeout));
+				synchronized (results) {
+					results.put(host, bridge.get().getConnectionTimings());
+				}
+			} catch (Exception e) {
+				Log.e(TAG, "Problem while starting bulk connection to " + host.getNickname(), e);
+			}
+
+			// no transport for this protocol, so there is nothing to wait for
+			if (!started.get())
+				remaining.decrementAndGet();
+		}
+
+		// the initial count kept the pool alive while connections were queued
+		if (remaining.decrementAndGet() == 0)
+			finished.run();
+	}
+
 	public String getEmulation() {
 		return prefs.getString(PreferenceConstants.EMULATION, "xterm-256color");
 	}
@@ -262,6 +421,53 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		return scrollback;
 	}
 
+	public boolean isDiskScrollbackEnabled() {
+		return prefs.getBoolean(PreferenceConstants.DISK_SCROLLBACK, false);
+	}
+
+	/**
+	 * @return directory holding the page files of disk-backed scrollback
+	 */
+	public File getScrollbackDirectory() {
+		return new File(getCacheDir(), "scrollback");
+	}
+
+	public int getMaxFrameRate() {
+		int maxFrameRate = FrameScheduler.DEFAULT_MAX_FRAME_RATE;
+		try {
+			maxFrameRate = Integer.parseInt(prefs.getString(PreferenceConstants.MAX_FRAME_RATE,
+					Integer.toString(FrameScheduler.DEFAULT_MAX_FRAME_RATE)));
+		} catch (NumberFormatException e) {
+			Log.w(TAG, "Invalid maximum frame rate, using " + maxFrameRate, e);
+		}
+		return maxFrameRate;
+	}
+
+	public boolean isJumpScrollEnabled() {
+		return prefs.getBoolean(PreferenceConstants.JUMP_SCROLL, true);
+	}
+
+	/**
+	 * @return format new sessions are logged in, or {@code null} if logging is off
+	 */
+	public SessionLogger.Format getSessionLogFormat() {
+		if (!prefs.getBoolean(PreferenceConstants.SESSION_LOG, false))
+			return null;
+		if ("asciicast".equals(prefs.getString(PreferenceConstants.SESSION_LOG_FORMAT, "raw")))
+			return SessionLogger.Format.ASCIICAST;
+		return SessionLogger.Format.RAW;
+	}
+
+	/**
+	 * @return directory session logs are written to
+	 */
+	public File getSessionLogDirectory() {
+		File files = getExternalFilesDir(null);
+		if (files == null)
+			files = getFilesDir();
+		return new File(files, "sessions");
+	}
+
 	/**
 	 * Open a new connection by reading parameters from the given URI. Follows
 	 * format specified by an individual transport.
@@ -331,6 +537,8 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 			mHostBridgeMap.remove(bridge.host);
 			mNicknameBridgeMap.remove(bridge.host.getNickname());
 
+			bridge.closeScrollbackArchive();
+
 			if (bridge.isUsingNetwork()) {
 				connectivityManager.decRef();
 			}
@@ -355,6 +563,22 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		}
 	}
 
+	/**
+	 * @return lock to hold while unlocking the key with the given nickname,
+	 *         so hosts connecting in parallel with the same key ask for its
+	 *         password once without holding up hosts using other keys
+	 */
+	public Object getKeyUnlockLock(String nickname) {
+		Object lock = keyUnlockLocks.get(nickname);
+		if (lock == null) {
+			Object created = new Object();
+			lock = keyUnlockLocks.putIfAbsent(nickname, created);
+			if (lock == null)
+				lock = created;
+		}
+		return lock;
+	}
+
 	public boolean isKeyLoaded(String nickname) {
 		return loadedKeypairs.containsKey(nickname);
 	}
@@ -414,10 +638,10 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 	}
 
 	public KeyPair getKey(String nickname) {
-		if (loadedKeypairs.containsKey(nickname)) {
-			KeyHolder keyHolder = loadedKeypairs.get(nickname);
+		KeyHolder keyHolder = loadedKeypairs.get(nickname);
+		if (keyHolder != null)
 			return keyHolder.pair;
-		} else
+		else
 			return null;
 	}
 
@@ -437,6 +661,30 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		return null;
 	}
 
+	/**
+	 * @return OpenSSH encoded public key that last authenticated to the host
+	 *         or {@code null} if none is known
+	 */
+	public byte[] getLastPubkey(HostBean host) {
+		byte[] pubkey = lastPubkeys.get(host.getNickname());
+		if (pubkey == null) {
+			pubkey = hostdb.getLastPubkey(host);
+			if (pubkey != null)
+				lastPubkeys.put(host.getNickname(), pubkey);
+		}
+		return pubkey;
+	}
+
+	/**
+	 * Remember which key authenticated to the host so it is tried first next
+	 * time.
+	 */
+	public void setLastPubkey(HostBean host, byte[] pubkey) {
+		byte[] previous = lastPubkeys.put(host.getNickname(), pubkey);
+		if (!Arrays.equals(previous, pubkey))
+			hostdb.saveLastPubkey(host, pubkey);
+	}
+
 	private void stopWithDelay() {
 		// TODO add in a way to check whether keys loaded are encrypted and only
 		// set timer when we have an encrypted key loaded
@@ -639,6 +887,18 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 			connectivityManager.setWantWifiLock(lockingWifi);
 		} else if (PreferenceConstants.MEMKEYS.equals(key)) {
 			updateSavingKeys();
+		} else if (PreferenceConstants.MAX_FRAME_RATE.equals(key)) {
+			int maxFrameRate = getMaxFrameRate();
+			synchronized (bridges) {
+				for (TerminalBridge bridge : bridges)
+					bridge.getFrameScheduler().setMaxFrameRate(maxFrameRate);
+			}
+		} else if (PreferenceConstants.JUMP_SCROLL.equals(key)) {
+			boolean jumpScroll = isJumpScrollEnabled();
+			synchronized (bridges) {
+				for (TerminalBridge bridge : bridges)
+					bridge.setJumpScroll(jumpScroll);
+			}
 		}
 	}
 
@@ -654,6 +914,13 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		return resizeAllowed;
 	}
 
+	public interface BulkConnectListener {
+		/**
+		 * @param results how long each host took to connect, in the order given
+		 */
+		void onBulkConnectFinished(Map<HostBean, ConnectionTimings> results);
+	}
+
 	public static class KeyHolder {
 		public PubkeyBean bean;
 		public KeyPair pair;
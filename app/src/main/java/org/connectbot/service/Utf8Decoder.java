@@ -0,0 +1,150 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+/**
+ * Streaming UTF-8 decoder for terminal output. Bytes are decoded straight
+ * from the transport's read buffer into the character array handed to the
+ * terminal, with a tight loop for runs of ASCII. A sequence split across two
+ * reads is carried over to the next call.
+ * <p>
+ * Malformed input is replaced with U+FFFD the same way a
+ * {@link java.nio.charset.CharsetDecoder} set to
+ * {@link java.nio.charset.CodingErrorAction#REPLACE} does.
+ */
+class Utf8Decoder {
+	private static final char REPLACEMENT = '\uFFFD';
+
+	/** Continuation bytes still expected for the current sequence. */
+	private int needed = 0;
+	private int codePoint;
+
+	/** Allowed range of the next continuation byte. */
+	private int lower = 0x80;
+	private int upper = 0xBF;
+
+	private boolean nonAscii;
+
+	/**
+	 * Decode bytes into characters.
+	 *
+	 * @param in bytes read from the transport
+	 * @param offset start of the bytes in {@code in}
+	 * @param length number of bytes
+	 * @param out receives the characters starting at index 0; must have room
+	 *            for at least {@code length + 1} characters
+	 * @return number of characters written to {@code out}
+	 */
+	int decode(byte[] in, int offset, int length, char[] out) {
+		int end = offset + length;
+		int i = offset;
+		int o = 0;
+
+		nonAscii = false;
+
+		while (i < end) {
+			int b = in[i];
+
+			if (needed == 0) {
+				if (b >= 0) {
+					do {
+						out[o++] = (char) b;
+						if (++i == end)
+							break;
+						b = in[i];
+					} while (b >= 0);
+					continue;
+				}
+
+				nonAscii = true;
+				i++;
+				b &= 0xFF;
+
+				if (b >= 0xC2 && b <= 0xDF) {
+					needed = 1;
+					codePoint = b & 0x1F;
+				} else if (b >= 0xE0 && b <= 0xEF) {
+					needed = 2;
+					codePoint = b & 0x0F;
+					// no overlong forms
+					if (b == 0xE0)
+						lower = 0xA0;
+				} else if (b >= 0xF0 && b <= 0xF4) {
+					needed = 3;
+					codePoint = b & 0x07;
+					// no overlong forms or code points past U+10FFFF
+					if (b == 0xF0)
+						lower = 0x90;
+					else if (b == 0xF4)
+						upper = 0x8F;
+				} else {
+					out[o++] = REPLACEMENT;
+				}
+				continue;
+			}
+
+			nonAscii = true;
+			b &= 0xFF;
+
+			if (b < lower || b > upper) {
+				// sequence was cut short; replace it and look at this byte again
+				out[o++] = REPLACEMENT;
+				needed = 0;
+				lower = 0x80;
+				upper = 0xBF;
+				continue;
+			}
+
+			i++;
+			lower = 0x80;
+			upper = 0xBF;
+			codePoint = (codePoint << 6) | (b & 0x3F);
+
+			if (--needed == 0) {
+				if (codePoint >= 0xD800 && codePoint <= 0xDFFF) {
+					// encoded surrogates are malformed as a whole
+					out[o++] = REPLACEMENT;
+				} else if (codePoint < 0x10000) {
+					out[o++] = (char) codePoint;
+				} else {
+					out[o++] = (char) (0xD800 + ((codePoint - 0x10000) >>> 10));
+					out[o++] = (char) (0xDC00 + (codePoint & 0x3FF));
+				}
+			}
+		}
+
+		return o;
+	}
+
+	/**
+	 * @return whether the last call to {@link #decode} saw anything other than
+	 *         ASCII, in which case character widths need to be looked up
+	 */
+	boolean hasNonAscii() {
+		return nonAscii;
+	}
+
+	/**
+	 * Forget any partially decoded sequence.
+	 */
+	void reset() {
+		needed = 0;
+		lower = 0x80;
+		upper = 0xBF;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Direct buffers of one size that are handed back after use, so a busy
+ * forward doesn't allocate for every chunk it moves. Direct buffers can be
+ * passed to socket channels without being copied again.
+ */
+final class BufferPool {
+	private final int bufferSize;
+	private final int maxIdle;
+	private final ArrayDeque<ByteBuffer> idle = new ArrayDeque<>();
+	private int allocated;
+
+	/**
+	 * @param bufferSize capacity of every buffer
+	 * @param maxIdle how many returned buffers are kept for reuse
+	 */
+	BufferPool(int bufferSize, int maxIdle) {
+		this.bufferSize = bufferSize;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * @return an empty buffer ready for filling
+	 */
+	synchronized ByteBuffer take() {
+		ByteBuffer buffer = idle.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+			allocated++;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Hand back a buffer that is no longer used.
+	 */
+	synchronized void give(ByteBuffer buffer) {
+		if (idle.size() < maxIdle) {
+			buffer.clear();
+			idle.push(buffer);
+		}
+	}
+
+	/**
+	 * @return number of buffers allocated so far
+	 */
+	synchronized int getAllocated() {
+		return allocated;
+	}
+}
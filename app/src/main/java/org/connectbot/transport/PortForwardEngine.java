@@ -0,0 +1,808 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+/**
+ * Forwards connections accepted on a local port through SSH channels, either
+ * to a fixed destination or, for a dynamic forward, to wherever the client's
+ * SOCKS 4, 4a or 5 request asks for. One thread runs a selector over the
+ * listening socket and every accepted socket, and all data moves through
+ * pooled direct buffers.
+ * <p>
+ * The SSH library only offers blocking streams for a channel, so each open
+ * channel has one pooled thread blocked reading from it, and writes to
+ * channels are done by short tasks on the same pool. Neither direction of a
+ * connection queues more than {@link #MAX_QUEUED} bytes: a socket is not
+ * read while its channel is behind, and a channel is not read while its
+ * socket is behind, which keeps the channel's window closed until the
+ * client catches up.
+ */
+final class PortForwardEngine implements Runnable {
+	private static final String TAG = "CB.PortForwardEngine";
+
+	/** Capacity of each pooled buffer. */
+	static final int BUFFER_SIZE = 16 * 1024;
+
+	/** Bytes queued in one direction of a connection before its source is no longer read. */
+	static final int MAX_QUEUED = 4 * BUFFER_SIZE;
+
+	private static final int MAX_IDLE_BUFFERS = 128;
+
+	/* longest SOCKS request accepted, well within one buffer */
+	private static final int MAX_HANDSHAKE = 600;
+
+	private static final int SOCKS_GREETING = 0;
+	private static final int SOCKS5_REQUEST = 1;
+	private static final int SOCKS_DONE = 2;
+
+	/**
+	 * A connection opened through the SSH server.
+	 */
+	interface Tunnel extends Closeable {
+		InputStream getInputStream();
+
+		OutputStream getOutputStream();
+	}
+
+	interface TunnelFactory {
+		/**
+		 * Open a connection to the given destination. Called on a pool thread,
+		 * so it may block.
+		 */
+		Tunnel open(String host, int port) throws IOException;
+	}
+
+	private static final class Link {
+		final SocketChannel socket;
+		SelectionKey key;
+
+		/* the SOCKS request read so far, until the tunnel is open */
+		ByteBuffer handshake;
+		int socksState = SOCKS_GREETING;
+		boolean socks4;
+
+		volatile Tunnel tunnel;
+		volatile boolean closed;
+
+		/* socket to tunnel */
+		final ConcurrentLinkedQueue<ByteBuffer> uplink = new ConcurrentLinkedQueue<>();
+		final AtomicInteger uplinkBytes = new AtomicInteger();
+		final AtomicBoolean uplinkScheduled = new AtomicBoolean();
+		volatile boolean socketEof;
+		volatile boolean uplinkDone;
+
+		/* tunnel to socket */
+		final ConcurrentLinkedQueue<ByteBuffer> downlink = new ConcurrentLinkedQueue<>();
+		final AtomicInteger downlinkBytes = new AtomicInteger();
+		final AtomicBoolean downlinkSignaled = new AtomicBoolean();
+		boolean tunnelEof;
+		boolean outputShut;
+
+		Link(SocketChannel socket) {
+			this.socket = socket;
+		}
+	}
+
+	private static final ThreadLocal<byte[]> chunks = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	private final TunnelFactory tunnels;
+	private final PortForwardStats stats;
+	private final String destHost;
+	private final int destPort;
+
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final BufferPool pool = new BufferPool(BUFFER_SIZE, MAX_IDLE_BUFFERS);
+	private final ExecutorService workers;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	/* only touched by the loop thread */
+	private final ArrayList<Link> links = new ArrayList<>();
+
+	private volatile int connectionCount;
+	private volatile Thread loop;
+	private volatile boolean closed;
+
+	/**
+	 * Start listening on the given address.
+	 * @param stats where the forward's traffic is counted
+	 * @param destHost where connections are forwarded to, or null to read a
+	 *                 SOCKS request from each connection instead
+	 */
+	PortForwardEngine(TunnelFactory tunnels, PortForwardStats stats, InetSocketAddress listen,
+			String destHost, int destPort) throws IOException {
+		this.tunnels = tunnels;
+		this.stats = stats;
+		this.destHost = destHost;
+		this.destPort = destPort;
+
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		try {
+			server.socket().setReuseAddress(true);
+			server.socket().bind(listen);
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			closeQuietly(server);
+			closeQuietly(selector);
+			throw e;
+		}
+
+		workers = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				thread.setName("PortForwardTunnel");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Start accepting connections.
+	 */
+	void start() {
+		Thread thread = new Thread(this);
+		thread.setName("PortForward");
+		thread.setDaemon(true);
+		loop = thread;
+		thread.start();
+	}
+
+	/**
+	 * Stop listening and drop every forwarded connection.
+	 */
+	void close() {
+		closed = true;
+		if (loop == null)
+			shutdown();
+		else
+			selector.wakeup();
+	}
+
+	/**
+	 * @return port the engine listens on
+	 */
+	int getLocalPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * @return number of accepted connections still open
+	 */
+	int getConnectionCount() {
+		return connectionCount;
+	}
+
+	/**
+	 * @return direct buffers allocated so far
+	 */
+	int getBuffersAllocated() {
+		return pool.getAllocated();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!closed) {
+				selector.select();
+
+				Runnable task;
+				while ((task = tasks.poll()) != null)
+					task.run();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid())
+						continue;
+
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+
+					Link link = (Link) key.attachment();
+					if (key.isWritable())
+						writeSocket(link);
+					if (key.isValid() && key.isReadable())
+						readSocket(link);
+				}
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Problem in port forward loop", e);
+		} finally {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Run a task on the loop thread.
+	 */
+	private void post(Runnable task) {
+		tasks.offer(task);
+		selector.wakeup();
+	}
+
+	private void accept() throws IOException {
+		SocketChannel socket;
+		while ((socket = server.accept()) != null) {
+			socket.configureBlocking(false);
+			socket.socket().setTcpNoDelay(true);
+
+			Link link = new Link(socket);
+			link.key = socket.register(selector, 0, link);
+			links.add(link);
+			connectionCount = links.size();
+			stats.connectionOpened();
+
+			if (destHost == null) {
+				link.handshake = ByteBuffer.allocate(MAX_HANDSHAKE);
+				updateInterest(link);
+			} else {
+				openTunnel(link, destHost, destPort);
+			}
+		}
+	}
+
+	/**
+	 * Read from a socket while there's room on its way to the tunnel.
+	 */
+	private void readSocket(Link link) {
+		try {
+			if (link.handshake != null) {
+				readHandshake(link);
+				return;
+			}
+
+			while (link.uplinkBytes.get() < MAX_QUEUED) {
+				ByteBuffer buffer = pool.take();
+				int count = link.socket.read(buffer);
+				if (count <= 0) {
+					pool.give(buffer);
+					if (count < 0)
+						link.socketEof = true;
+					break;
+				}
+
+				buffer.flip();
+				link.uplink.offer(buffer);
+				link.uplinkBytes.addAndGet(count);
+				stats.addSent(count);
+				if (buffer.limit() < buffer.capacity())
+					break;
+			}
+
+			scheduleUplink(link);
+			updateInterest(link);
+		} catch (IOException e) {
+			closeLink(link);
+		}
+	}
+
+	/**
+	 * Write what the tunnel sent to a socket, as far as the socket takes it.
+	 */
+	private void writeSocket(Link link) {
+		if (link.closed)
+			return;
+
+		try {
+			ByteBuffer buffer;
+			while ((buffer = link.downlink.peek()) != null) {
+				link.socket.write(buffer);
+				if (buffer.hasRemaining())
+					break;
+
+				link.downlink.poll();
+				int count = buffer.limit();
+				pool.give(buffer);
+				int left = link.downlinkBytes.addAndGet(-count);
+				if (left < MAX_QUEUED && left + count >= MAX_QUEUED) {
+					synchronized (link) {
+						link.notifyAll();
+					}
+				}
+			}
+
+			finishIfDone(link);
+			updateInterest(link);
+		} catch (IOException e) {
+			closeLink(link);
+		}
+	}
+
+	private void updateInterest(Link link) {
+		if (link.closed)
+			return;
+
+		boolean read;
+		if (link.handshake != null)
+			read = link.socksState != SOCKS_DONE;
+		else
+			read = link.tunnel != null && !link.socketEof && link.uplinkBytes.get() < MAX_QUEUED;
+
+		int ops = read ? SelectionKey.OP_READ : 0;
+		if (!link.downlink.isEmpty())
+			ops |= SelectionKey.OP_WRITE;
+		link.key.interestOps(ops);
+	}
+
+	/**
+	 * Pass the end of the tunnel's data on to the socket once everything
+	 * before it is written, and drop the connection once both directions
+	 * have ended.
+	 */
+	private void finishIfDone(Link link) throws IOException {
+		if (link.closed || !link.downlink.isEmpty())
+			return;
+
+		if (link.tunnelEof && !link.outputShut) {
+			if (link.tunnel == null) {
+				// only a refusal was left to send
+				closeLink(link);
+				return;
+			}
+			link.socket.socket().shutdownOutput();
+			link.outputShut = true;
+		}
+
+		if (link.outputShut && link.uplinkDone)
+			closeLink(link);
+	}
+
+	private void closeLink(Link link) {
+		if (link.closed)
+			return;
+		link.closed = true;
+
+		links.remove(link);
+		connectionCount = links.size();
+		stats.connectionClosed();
+		link.key.cancel();
+		closeQuietly(link.socket);
+		if (link.tunnel != null)
+			closeQuietly(link.tunnel);
+
+		// wake a reader waiting for room so it notices
+		synchronized (link) {
+			link.notifyAll();
+		}
+
+		ByteBuffer buffer;
+		while ((buffer = link.downlink.poll()) != null)
+			pool.give(buffer);
+		while ((buffer = link.uplink.poll()) != null)
+			pool.give(buffer);
+	}
+
+	private void queueDownlink(Link link, ByteBuffer buffer) {
+		link.downlink.offer(buffer);
+		link.downlinkBytes.addAndGet(buffer.remaining());
+	}
+
+	private void openTunnel(final Link link, final String host, final int port) {
+		updateInterest(link);
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				Tunnel tunnel = null;
+				try {
+					tunnel = tunnels.open(host, port);
+				} catch (IOException e) {
+					Log.w(TAG, "Could not open forwarded connection to " + host + ":" + port, e);
+				}
+
+				final Tunnel opened = tunnel;
+				post(new Runnable() {
+					@Override
+					public void run() {
+						onTunnelOpened(link, opened);
+					}
+				});
+			}
+		});
+	}
+
+	private void onTunnelOpened(Link link, Tunnel tunnel) {
+		if (link.closed) {
+			if (tunnel != null)
+				closeQuietly(tunnel);
+			return;
+		}
+
+		if (tunnel == null) {
+			if (link.handshake != null)
+				queueSocksReply(link, false);
+			link.tunnelEof = true;
+			writeSocket(link);
+			return;
+		}
+
+		link.tunnel = tunnel;
+		if (link.handshake != null) {
+			queueSocksReply(link, true);
+
+			// anything the client sent after its request goes through the tunnel
+			ByteBuffer rest = link.handshake;
+			link.handshake = null;
+			rest.flip();
+			if (rest.hasRemaining()) {
+				ByteBuffer buffer = pool.take();
+				buffer.put(rest);
+				buffer.flip();
+				link.uplink.offer(buffer);
+				link.uplinkBytes.addAndGet(buffer.remaining());
+				scheduleUplink(link);
+			}
+		}
+
+		startReader(link);
+		writeSocket(link);
+	}
+
+	private void startReader(final Link link) {
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				readTunnel(link);
+			}
+		});
+	}
+
+	/**
+	 * Read a tunnel until it ends, handing the data to the loop thread.
+	 * Runs on a pool thread for as long as the tunnel is open.
+	 */
+	private void readTunnel(final Link link) {
+		byte[] chunk = chunks.get();
+		InputStream in = link.tunnel.getInputStream();
+		try {
+			while (true) {
+				synchronized (link) {
+					while (link.downlinkBytes.get() >= MAX_QUEUED && !link.closed)
+						link.wait();
+				}
+				if (link.closed)
+					return;
+
+				int count = in.read(chunk, 0, chunk.length);
+				if (count < 0)
+					break;
+				if (count == 0)
+					continue;
+
+				ByteBuffer buffer = pool.take();
+				buffer.put(chunk, 0, count);
+				buffer.flip();
+				queueDownlink(link, buffer);
+				stats.addReceived(count);
+
+				if (link.downlinkSignaled.compareAndSet(false, true)) {
+					post(new Runnable() {
+						@Override
+						public void run() {
+							link.downlinkSignaled.set(false);
+							writeSocket(link);
+						}
+					});
+				}
+			}
+
+			post(new Runnable() {
+				@Override
+				public void run() {
+					link.tunnelEof = true;
+					writeSocket(link);
+				}
+			});
+		} catch (IOException e) {
+			if (!link.closed)
+				postClose(link);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void scheduleUplink(final Link link) {
+		if (link.tunnel == null || !link.uplinkScheduled.compareAndSet(false, true))
+			return;
+
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				writeTunnel(link);
+			}
+		});
+	}
+
+	/**
+	 * Write everything queued for a tunnel. Blocks while the channel's window
+	 * is full, which is what stops the socket from being read meanwhile.
+	 */
+	private void writeTunnel(final Link link) {
+		byte[] chunk = chunks.get();
+		OutputStream out = link.tunnel.getOutputStream();
+		try {
+			do {
+				boolean resume = false;
+				ByteBuffer buffer;
+				while ((buffer = link.uplink.poll()) != null) {
+					int count = buffer.remaining();
+					buffer.get(chunk, 0, count);
+					pool.give(buffer);
+					out.write(chunk, 0, count);
+
+					int left = link.uplinkBytes.addAndGet(-count);
+					if (left < MAX_QUEUED && left + count >= MAX_QUEUED)
+						resume = true;
+				}
+				out.flush();
+
+				if (link.socketEof && link.uplink.isEmpty() && !link.uplinkDone) {
+					out.close();
+					link.uplinkDone = true;
+					post(new Runnable() {
+						@Override
+						public void run() {
+							writeSocket(link);
+						}
+					});
+				} else if (resume) {
+					post(new Runnable() {
+						@Override
+						public void run() {
+							updateInterest(link);
+						}
+					});
+				}
+
+				// anything queued, or an EOF seen, while the flag was still set
+				// was left to us since scheduleUplink() couldn't take it
+				link.uplinkScheduled.set(false);
+			} while ((!link.uplink.isEmpty() || (link.socketEof && !link.uplinkDone))
+					&& link.uplinkScheduled.compareAndSet(false, true));
+		} catch (IOException e) {
+			link.uplinkScheduled.set(false);
+			if (!link.closed)
+				postClose(link);
+		}
+	}
+
+	private void postClose(final Link link) {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				closeLink(link);
+			}
+		});
+	}
+
+	private void readHandshake(Link link) throws IOException {
+		ByteBuffer handshake = link.handshake;
+		int count = link.socket.read(handshake);
+		if (count < 0 || !handshake.hasRemaining()) {
+			closeLink(link);
+			return;
+		}
+
+		byte[] data = handshake.array();
+		while (link.socksState != SOCKS_DONE && handshake.position() > 0) {
+			int consumed;
+			if (link.socksState == SOCKS5_REQUEST)
+				consumed = parseSocks5Request(link, data, handshake.position());
+			else if (data[0] == 4)
+				consumed = parseSocks4Request(link, data, handshake.position());
+			else if (data[0] == 5)
+				consumed = parseSocks5Greeting(link, data, handshake.position());
+			else
+				consumed = -1;
+
+			if (consumed < 0) {
+				closeLink(link);
+				return;
+			}
+			if (consumed == 0)
+				break;
+
+			handshake.flip();
+			handshake.position(consumed);
+			handshake.compact();
+		}
+		writeSocket(link);
+	}
+
+	/**
+	 * VN CD DSTPORT DSTIP USERID NUL, with HOST NUL following for 4a.
+	 * @return bytes consumed, 0 if more are needed or -1 if it's invalid
+	 */
+	private int parseSocks4Request(Link link, byte[] data, int length) {
+		link.socks4 = true;
+		if (length < 9)
+			return 0;
+
+		int userEnd = indexOfNul(data, 8, length);
+		if (userEnd < 0)
+			return 0;
+		int consumed = userEnd + 1;
+
+		int port = ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+		String host;
+		if (data[4] == 0 && data[5] == 0 && data[6] == 0 && data[7] != 0) {
+			int hostEnd = indexOfNul(data, consumed, length);
+			if (hostEnd < 0)
+				return 0;
+			host = new String(data, consumed, hostEnd - consumed);
+			consumed = hostEnd + 1;
+		} else {
+			host = (data[4] & 0xff) + "." + (data[5] & 0xff) + "." + (data[6] & 0xff) + "." + (data[7] & 0xff);
+		}
+
+		link.socksState = SOCKS_DONE;
+		if (data[1] != 1) {
+			// only CONNECT is supported
+			queueSocksReply(link, false);
+			link.tunnelEof = true;
+			return consumed;
+		}
+
+		openTunnel(link, host, port);
+		return consumed;
+	}
+
+	/**
+	 * VER NMETHODS METHODS; only "no authentication" is accepted.
+	 */
+	private int parseSocks5Greeting(Link link, byte[] data, int length) {
+		if (length < 2)
+			return 0;
+		int methods = data[1] & 0xff;
+		if (length < 2 + methods)
+			return 0;
+
+		boolean acceptable = false;
+		for (int i = 0; i < methods; i++)
+			acceptable |= data[2 + i] == 0;
+
+		ByteBuffer reply = pool.take();
+		reply.put((byte) 5).put((byte) (acceptable ? 0 : 0xff));
+		reply.flip();
+		queueDownlink(link, reply);
+
+		if (acceptable) {
+			link.socksState = SOCKS5_REQUEST;
+		} else {
+			link.socksState = SOCKS_DONE;
+			link.tunnelEof = true;
+		}
+		return 2 + methods;
+	}
+
+	/**
+	 * VER CMD RSV ATYP DST.ADDR DST.PORT
+	 */
+	private int parseSocks5Request(Link link, byte[] data, int length) throws IOException {
+		if (length < 5)
+			return 0;
+		if (data[0] != 5)
+			return -1;
+
+		int addressLength;
+		switch (data[3]) {
+		case 1:
+			addressLength = 4;
+			break;
+		case 3:
+			addressLength = 1 + (data[4] & 0xff);
+			break;
+		case 4:
+			addressLength = 16;
+			break;
+		default:
+			return -1;
+		}
+		int consumed = 4 + addressLength + 2;
+		if (length < consumed)
+			return 0;
+
+		String host;
+		if (data[3] == 3) {
+			host = new String(data, 5, addressLength - 1);
+		} else {
+			byte[] address = new byte[addressLength];
+			System.arraycopy(data, 4, address, 0, addressLength);
+			host = InetAddress.getByAddress(address).getHostAddress();
+		}
+		int port = ((data[consumed - 2] & 0xff) << 8) | (data[consumed - 1] & 0xff);
+
+		link.socksState = SOCKS_DONE;
+		if (data[1] != 1) {
+			queueSocksReply(link, false);
+			link.tunnelEof = true;
+			return consumed;
+		}
+
+		openTunnel(link, host, port);
+		return consumed;
+	}
+
+	private void queueSocksReply(Link link, boolean success) {
+		ByteBuffer reply = pool.take();
+		if (link.socks4) {
+			reply.put((byte) 0).put((byte) (success ? 0x5a : 0x5b));
+			reply.put(new byte[6]);
+		} else {
+			reply.put(new byte[] {5, (byte) (success ? 0 : 1), 0, 1, 0, 0, 0, 0, 0, 0});
+		}
+		reply.flip();
+		queueDownlink(link, reply);
+	}
+
+	private static int indexOfNul(byte[] data, int from, int length) {
+		for (int i = from; i < length; i++) {
+			if (data[i] == 0)
+				return i;
+		}
+		return -1;
+	}
+
+	private void shutdown() {
+		for (Link link : new ArrayList<>(links))
+			closeLink(link);
+		closeQuietly(server);
+		closeQuietly(selector);
+		workers.shutdown();
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
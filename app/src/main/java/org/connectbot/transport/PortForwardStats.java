@@ -0,0 +1,132 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.transport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Traffic through one port forward: bytes each way, connections, and the
+ * recent throughput. The counters are updated on the forwarding threads'
+ * data path, so they are striped rather than shared; the throughput is an
+ * exponentially weighted average that is brought up to date by
+ * {@link #sample()} whenever someone looks at it.
+ * <p>
+ * "Sent" is what the local client sent through the tunnel and "received"
+ * what came back to it.
+ */
+public final class PortForwardStats {
+	/** How quickly the throughput averages follow changes, in seconds. */
+	static final double RATE_TIME_CONSTANT = 5.0;
+
+	private final StripedCounter sent = new StripedCounter();
+	private final StripedCounter received = new StripedCounter();
+	private final StripedCounter connections = new StripedCounter();
+	private final AtomicInteger open = new AtomicInteger();
+
+	/* state of the throughput averages as of the last sample */
+	private boolean sampled;
+	private long lastSample;
+	private long lastSent;
+	private long lastReceived;
+	private double sendRate;
+	private double receiveRate;
+
+	void addSent(int count) {
+		sent.add(count);
+	}
+
+	void addReceived(int count) {
+		received.add(count);
+	}
+
+	void connectionOpened() {
+		connections.increment();
+		open.incrementAndGet();
+	}
+
+	void connectionClosed() {
+		open.decrementAndGet();
+	}
+
+	/**
+	 * @return bytes sent through the forward by local clients
+	 */
+	public long getBytesSent() {
+		return sent.sum();
+	}
+
+	/**
+	 * @return bytes that came back through the forward to local clients
+	 */
+	public long getBytesReceived() {
+		return received.sum();
+	}
+
+	/**
+	 * @return connections accepted since the forward was created
+	 */
+	public long getConnections() {
+		return connections.sum();
+	}
+
+	/**
+	 * @return connections currently open
+	 */
+	public int getOpenConnections() {
+		return open.get();
+	}
+
+	/**
+	 * Bring the throughput averages up to date. Call this periodically, for
+	 * example each time they are displayed.
+	 */
+	public void sample() {
+		sample(System.nanoTime());
+	}
+
+	synchronized void sample(long now) {
+		long totalSent = sent.sum();
+		long totalReceived = received.sum();
+
+		if (sampled && now > lastSample) {
+			double seconds = (now - lastSample) / 1e9;
+			double weight = 1 - Math.exp(-seconds / RATE_TIME_CONSTANT);
+			sendRate += weight * ((totalSent - lastSent) / seconds - sendRate);
+			receiveRate += weight * ((totalReceived - lastReceived) / seconds - receiveRate);
+		}
+
+		sampled = true;
+		lastSample = now;
+		lastSent = totalSent;
+		lastReceived = totalReceived;
+	}
+
+	/**
+	 * @return average bytes per second sent as of the last {@link #sample()}
+	 */
+	public synchronized double getSendRate() {
+		return sendRate;
+	}
+
+	/**
+	 * @return average bytes per second received as of the last {@link #sample()}
+	 */
+	public synchronized double getReceiveRate() {
+		return receiveRate;
+	}
+}
@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
@@ -35,6 +36,8 @@ import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -50,6 +53,7 @@ import org.connectbot.R;
 import org.connectbot.bean.HostBean;
 import org.connectbot.bean.PortForwardBean;
 import org.connectbot.bean.PubkeyBean;
+import org.connectbot.service.ConnectionTimings;
 import org.connectbot.service.TerminalBridge;
 import org.connectbot.service.TerminalManager;
 import org.connectbot.service.TerminalManager.KeyHolder;
@@ -66,11 +70,10 @@ import com.trilead.ssh2.ChannelCondition;
 import com.trilead.ssh2.Connection;
 import com.trilead.ssh2.ConnectionInfo;
 import com.trilead.ssh2.ConnectionMonitor;
-import com.trilead.ssh2.DynamicPortForwarder;
 import com.trilead.ssh2.ExtendedServerHostKeyVerifier;
 import com.trilead.ssh2.InteractiveCallback;
 import com.trilead.ssh2.KnownHosts;
-import com.trilead.ssh2.LocalPortForwarder;
+import com.trilead.ssh2.LocalStreamForwarder;
 import com.trilead.ssh2.Session;
 import com.trilead.ssh2.crypto.PEMDecoder;
 import com.trilead.ssh2.signature.DSASHA1Verify;
@@ -105,10 +108,16 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 	private static final String TAG = "CB.SSH";
 	private static final int DEFAULT_PORT = 22;
 
-	private static final String AUTH_PUBLICKEY = "publickey",
+	private static final String AUTH_NONE = "none",
+		AUTH_PUBLICKEY = "publickey",
 		AUTH_PASSWORD = "password",
 		AUTH_KEYBOARDINTERACTIVE = "keyboard-interactive";
 
+	/** Authentication methods in the order they are tried. */
+	private enum AuthStep {
+		NONE, PUBLICKEY, KEYBOARD_INTERACTIVE, PASSWORD, FAILED
+	}
+
 	private final static int AUTH_TRIES = 20;
 
 	private static final Pattern hostmask = Pattern.compile(
@@ -119,7 +128,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 	private volatile boolean connected = false;
 	private volatile boolean sessionOpen = false;
 
-	private boolean pubkeysExhausted = false;
+	private AuthStep authStep = AuthStep.NONE;
 	private boolean interactiveCanContinue = true;
 
 	private Connection connection;
@@ -136,6 +145,39 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 	private List<PortForwardBean> portForwards = new ArrayList<>();
 
+	/**
+	 * Opens the SSH channels that local and dynamic forwards carry their
+	 * connections over.
+	 */
+	private final PortForwardEngine.TunnelFactory tunnelFactory = new PortForwardEngine.TunnelFactory() {
+		@Override
+		public PortForwardEngine.Tunnel open(String host, int port) throws IOException {
+			Connection current = connection;
+			if (current == null)
+				throw new IOException("Not connected");
+
+			final LocalStreamForwarder forwarder = current.createLocalStreamForwarder(host, port);
+			final InputStream in = forwarder.getInputStream();
+			final OutputStream out = forwarder.getOutputStream();
+			return new PortForwardEngine.Tunnel() {
+				@Override
+				public InputStream getInputStream() {
+					return in;
+				}
+
+				@Override
+				public OutputStream getOutputStream() {
+					return out;
+				}
+
+				@Override
+				public void close() throws IOException {
+					forwarder.close();
+				}
+			};
+		}
+	};
+
 	private int columns;
 	private int rows;
 
@@ -150,8 +192,8 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		public boolean verifyServerHostKey(String hostname, int port,
 				String serverHostKeyAlgorithm, byte[] serverHostKey) throws IOException {
 
-			// read in all known hosts from hostdb
-			KnownHosts hosts = manager.hostdb.getKnownHosts();
+			// read in the known keys for this host from hostdb
+			KnownHosts hosts = manager.hostdb.getKnownHostsForHost(hostname, port);
 			Boolean result;
 
 			String matchName = String.format(Locale.US, "%s:%d", hostname, port);
@@ -239,88 +281,160 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		}
 	}
 
-	private void authenticate() {
-		try {
-			if (connection.authenticateWithNone(host.getUsername())) {
-				finishConnection();
-				return;
-			}
-		} catch (Exception e) {
-			Log.d(TAG, "Host does not support 'none' authentication.");
-		}
-
-		bridge.outputLine(manager.res.getString(R.string.terminal_auth));
+	/**
+	 * Take the next step of authentication, moving on to the next method the
+	 * server allows as soon as one fails.
+	 * @return {@code false} once there is nothing left to try
+	 */
+	private boolean authenticate() {
+		String username = host.getUsername();
+		long start = System.nanoTime();
 
 		try {
-			long pubkeyId = host.getPubkeyId();
-
-			if (!pubkeysExhausted &&
-					pubkeyId != HostDatabase.PUBKEYID_NEVER &&
-					connection.isAuthMethodAvailable(host.getUsername(), AUTH_PUBLICKEY)) {
-
-				// if explicit pubkey defined for this host, then prompt for password as needed
-				// otherwise just try all in-memory keys held in terminalmanager
-
-				if (pubkeyId == HostDatabase.PUBKEYID_ANY) {
-					// try each of the in-memory keys
-					bridge.outputLine(manager.res
-							.getString(R.string.terminal_auth_pubkey_any));
-					for (Entry<String, KeyHolder> entry : manager.loadedKeypairs.entrySet()) {
-						if (entry.getValue().bean.isConfirmUse()
-								&& !promptForPubkeyUse(entry.getKey()))
-							continue;
-
-						if (this.tryPublicKey(host.getUsername(), entry.getKey(),
-								entry.getValue().pair)) {
-							finishConnection();
-							break;
-						}
+			switch (authStep) {
+			case NONE:
+				authStep = AuthStep.PUBLICKEY;
+				try {
+					boolean success = connection.authenticateWithNone(username);
+					recordAuthAttempt(AUTH_NONE, start);
+					if (success) {
+						finishConnection();
+						return true;
 					}
-				} else {
-					bridge.outputLine(manager.res.getString(R.string.terminal_auth_pubkey_specific));
-					// use a specific key for this host, as requested
-					PubkeyBean pubkey = manager.pubkeydb.findPubkeyById(pubkeyId);
-
-					if (pubkey == null)
-						bridge.outputLine(manager.res.getString(R.string.terminal_auth_pubkey_invalid));
-					else
-						if (tryPublicKey(pubkey))
-							finishConnection();
+				} catch (Exception e) {
+					Log.d(TAG, "Host does not support 'none' authentication.");
+				}
+
+				bridge.outputLine(manager.res.getString(R.string.terminal_auth));
+				return true;
+
+			case PUBLICKEY:
+				authStep = AuthStep.KEYBOARD_INTERACTIVE;
+				if (host.getPubkeyId() != HostDatabase.PUBKEYID_NEVER &&
+						connection.isAuthMethodAvailable(username, AUTH_PUBLICKEY)) {
+					boolean success = authenticateWithPublicKeys();
+					recordAuthAttempt(AUTH_PUBLICKEY, start);
+					if (success)
+						finishConnection();
+				}
+				return true;
+
+			case KEYBOARD_INTERACTIVE:
+				if (!interactiveCanContinue ||
+						!connection.isAuthMethodAvailable(username, AUTH_KEYBOARDINTERACTIVE)) {
+					authStep = AuthStep.PASSWORD;
+					return true;
 				}
 
-				pubkeysExhausted = true;
-			} else if (interactiveCanContinue &&
-					connection.isAuthMethodAvailable(host.getUsername(), AUTH_KEYBOARDINTERACTIVE)) {
 				// this auth method will talk with us using InteractiveCallback interface
-				// it blocks until authentication finishes
+				// it blocks until authentication finishes; it is tried again
+				// only if the server actually asked us something
 				bridge.outputLine(manager.res.getString(R.string.terminal_auth_ki));
 				interactiveCanContinue = false;
-				if (connection.authenticateWithKeyboardInteractive(host.getUsername(), this)) {
+				boolean interactiveSuccess = connection.authenticateWithKeyboardInteractive(username, this);
+				recordAuthAttempt(AUTH_KEYBOARDINTERACTIVE, start);
+				if (interactiveSuccess) {
 					finishConnection();
 				} else {
 					bridge.outputLine(manager.res.getString(R.string.terminal_auth_ki_fail));
 				}
-			} else if (connection.isAuthMethodAvailable(host.getUsername(), AUTH_PASSWORD)) {
+				return true;
+
+			case PASSWORD:
+				if (!connection.isAuthMethodAvailable(username, AUTH_PASSWORD)) {
+					authStep = AuthStep.FAILED;
+					return true;
+				}
+
 				bridge.outputLine(manager.res.getString(R.string.terminal_auth_pass));
 				String password = bridge.getPromptHelper().requestStringPrompt(null,
 						manager.res.getString(R.string.prompt_password));
-				if (password != null
-						&& connection.authenticateWithPassword(host.getUsername(), password)) {
+				if (password == null) {
+					// the prompt was cancelled
+					return false;
+				}
+
+				// time spent waiting for the user doesn't count
+				start = System.nanoTime();
+				boolean passwordSuccess = connection.authenticateWithPassword(username, password);
+				recordAuthAttempt(AUTH_PASSWORD, start);
+				if (passwordSuccess) {
 					finishConnection();
 				} else {
 					bridge.outputLine(manager.res.getString(R.string.terminal_auth_pass_fail));
 				}
-			} else {
+				return true;
+
+			default:
 				bridge.outputLine(manager.res.getString(R.string.terminal_auth_fail));
+				return false;
 			}
 		} catch (IllegalStateException e) {
 			Log.e(TAG, "Connection went away while we were trying to authenticate", e);
-			return;
+			return false;
 		} catch (Exception e) {
 			Log.e(TAG, "Problem during handleAuthentication()", e);
+			return true;
 		}
 	}
 
+	/**
+	 * Try the host's public key, or every key in memory if it doesn't have
+	 * one of its own. The key that last worked for this host is tried first.
+	 * @return {@code true} for successful authentication
+	 */
+	private boolean authenticateWithPublicKeys() throws Exception {
+		long pubkeyId = host.getPubkeyId();
+
+		if (pubkeyId != HostDatabase.PUBKEYID_ANY) {
+			bridge.outputLine(manager.res.getString(R.string.terminal_auth_pubkey_specific));
+			// use a specific key for this host, as requested
+			PubkeyBean pubkey = manager.pubkeydb.findPubkeyById(pubkeyId);
+
+			if (pubkey == null) {
+				bridge.outputLine(manager.res.getString(R.string.terminal_auth_pubkey_invalid));
+				return false;
+			}
+
+			return tryPublicKey(pubkey);
+		}
+
+		// try each of the in-memory keys
+		bridge.outputLine(manager.res
+				.getString(R.string.terminal_auth_pubkey_any));
+
+		// the key that worked last time comes first, so usually it takes a
+		// single signature; the rest are in a stable order
+		List<Entry<String, KeyHolder>> candidates = new ArrayList<>(manager.loadedKeypairs.entrySet());
+		final byte[] lastPubkey = manager.getLastPubkey(host);
+		Collections.sort(candidates, new Comparator<Entry<String, KeyHolder>>() {
+			@Override
+			public int compare(Entry<String, KeyHolder> lhs, Entry<String, KeyHolder> rhs) {
+				boolean lhsLast = Arrays.equals(lastPubkey, lhs.getValue().openSSHPubkey);
+				boolean rhsLast = Arrays.equals(lastPubkey, rhs.getValue().openSSHPubkey);
+				if (lhsLast != rhsLast)
+					return lhsLast ? -1 : 1;
+				return lhs.getKey().compareTo(rhs.getKey());
+			}
+		});
+
+		for (Entry<String, KeyHolder> entry : candidates) {
+			if (entry.getValue().bean.isConfirmUse()
+					&& !promptForPubkeyUse(entry.getKey()))
+				continue;
+
+			if (this.tryPublicKey(host.getUsername(), entry.getKey(),
+					entry.getValue().pair))
+				return true;
+		}
+
+		return false;
+	}
+
+	private void recordAuthAttempt(String method, long start) {
+		bridge.getConnectionTimings().recordAuthAttempt(method, System.nanoTime() - start);
+	}
+
 	/**
 	 * Attempt connection with given {@code pubkey}.
 	 * @return {@code true} for successful authentication
@@ -329,66 +443,92 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 	 * @throws IOException
 	 */
 	private boolean tryPublicKey(PubkeyBean pubkey) throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
-		KeyPair pair = null;
+		// load this key from memory if its already there
+		KeyPair pair = manager.getKey(pubkey.getNickname());
+		boolean unlocked = false;
+
+		if (pair == null) {
+			// hosts connecting in parallel with the same key only unlock it
+			// once; hosts with other keys aren't held up
+			synchronized (manager.getKeyUnlockLock(pubkey.getNickname())) {
+				pair = manager.getKey(pubkey.getNickname());
+				if (pair == null) {
+					pair = unlockKey(pubkey);
+					if (pair == null)
+						return false;
+					unlocked = true;
+				}
+			}
+		}
 
-		if (manager.isKeyLoaded(pubkey.getNickname())) {
-			// load this key from memory if its already there
+		if (!unlocked) {
 			Log.d(TAG, String.format("Found unlocked key '%s' already in-memory", pubkey.getNickname()));
 
+			// asked outside the lock so other hosts can go on meanwhile
 			if (pubkey.isConfirmUse()) {
 				if (!promptForPubkeyUse(pubkey.getNickname()))
 					return false;
 			}
+		}
 
-			pair = manager.getKey(pubkey.getNickname());
-		} else {
-			// otherwise load key from database and prompt for password as needed
-			String password = null;
-			if (pubkey.isEncrypted()) {
-				password = bridge.getPromptHelper().requestStringPrompt(null,
-						manager.res.getString(R.string.prompt_pubkey_password, pubkey.getNickname()));
-
-				// Something must have interrupted the prompt.
-				if (password == null)
-					return false;
-			}
+		return tryPublicKey(host.getUsername(), pubkey.getNickname(), pair);
+	}
 
-			if (PubkeyDatabase.KEY_TYPE_IMPORTED.equals(pubkey.getType())) {
-				// load specific key using pem format
-				pair = PEMDecoder.decode(new String(pubkey.getPrivateKey(), "UTF-8").toCharArray(), password);
-			} else {
-				// load using internal generated format
-				PrivateKey privKey;
-				try {
-					privKey = PubkeyUtils.decodePrivate(pubkey.getPrivateKey(),
-							pubkey.getType(), password);
-				} catch (Exception e) {
-					String message = String.format("Bad password for key '%s'. Authentication failed.", pubkey.getNickname());
-					Log.e(TAG, message, e);
-					bridge.outputLine(message);
-					return false;
-				}
+	/**
+	 * Load a key from the database, prompting for its password as needed,
+	 * and keep it in memory.
+	 * @return the key, or {@code null} if it couldn't be unlocked
+	 */
+	private KeyPair unlockKey(PubkeyBean pubkey) throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
+		KeyPair pair;
 
-				PublicKey pubKey = PubkeyUtils.decodePublic(pubkey.getPublicKey(), pubkey.getType());
+		String password = null;
+		if (pubkey.isEncrypted()) {
+			password = bridge.getPromptHelper().requestStringPrompt(null,
+					manager.res.getString(R.string.prompt_pubkey_password, pubkey.getNickname()));
 
-				// convert key to trilead format
-				pair = new KeyPair(pubKey, privKey);
-				Log.d(TAG, "Unlocked key " + PubkeyUtils.formatKey(pubKey));
+			// Something must have interrupted the prompt.
+			if (password == null)
+				return null;
+		}
+
+		if (PubkeyDatabase.KEY_TYPE_IMPORTED.equals(pubkey.getType())) {
+			// load specific key using pem format
+			pair = PEMDecoder.decode(new String(pubkey.getPrivateKey(), "UTF-8").toCharArray(), password);
+		} else {
+			// load using internal generated format
+			PrivateKey privKey;
+			try {
+				privKey = PubkeyUtils.decodePrivate(pubkey.getPrivateKey(),
+						pubkey.getType(), password);
+			} catch (Exception e) {
+				String message = String.format("Bad password for key '%s'. Authentication failed.", pubkey.getNickname());
+				Log.e(TAG, message, e);
+				bridge.outputLine(message);
+				return null;
 			}
 
-			Log.d(TAG, String.format("Unlocked key '%s'", pubkey.getNickname()));
+			PublicKey pubKey = PubkeyUtils.decodePublic(pubkey.getPublicKey(), pubkey.getType());
 
-			// save this key in memory
-			manager.addKey(pubkey, pair);
+			// convert key to trilead format
+			pair = new KeyPair(pubKey, privKey);
+			Log.d(TAG, "Unlocked key " + PubkeyUtils.formatKey(pubKey));
 		}
 
-		return tryPublicKey(host.getUsername(), pubkey.getNickname(), pair);
+		Log.d(TAG, String.format("Unlocked key '%s'", pubkey.getNickname()));
+
+		// save this key in memory
+		manager.addKey(pubkey, pair);
+		return pair;
 	}
 
 	private boolean tryPublicKey(String username, String keyNickname, KeyPair pair) throws IOException {
 		//bridge.outputLine(String.format("Attempting 'publickey' with key '%s' [%s]...", keyNickname, trileadKey.toString()));
+		bridge.getConnectionTimings().countSignature();
 		boolean success = connection.authenticateWithPublicKey(username, pair);
-		if (!success)
+		if (success)
+			manager.setLastPubkey(host, PubkeyUtils.extractOpenSSHPublic(pair));
+		else
 			bridge.outputLine(manager.res.getString(R.string.terminal_auth_pubkey_fail, keyNickname));
 		return success;
 	}
@@ -399,6 +539,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 	 */
 	private void finishConnection() {
 		authenticated = true;
+		bridge.getConnectionTimings().mark(ConnectionTimings.Phase.AUTH);
 
 		for (PortForwardBean portForward : portForwards) {
 			try {
@@ -423,6 +564,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 			session.requestPTY(getEmulation(), columns, rows, width, height, null);
 			session.startShell();
+			bridge.getConnectionTimings().mark(ConnectionTimings.Phase.PTY);
 
 			stdin = session.getStdin();
 			stdout = session.getStdout();
@@ -439,6 +581,17 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 	@Override
 	public void connect() {
+		ConnectionTimings timings = bridge.getConnectionTimings();
+
+		try {
+			// resolve the name up front so the lookup is timed on its own;
+			// Connection then gets the address from the resolver's cache
+			InetAddress.getAllByName(host.getHostname());
+		} catch (UnknownHostException e) {
+			// Connection will fail and report this
+		}
+		timings.mark(ConnectionTimings.Phase.DNS);
+
 		connection = new Connection(host.getHostname(), host.getPort());
 		connection.addConnectionMonitor(this);
 
@@ -462,6 +615,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			*/
 			ConnectionInfo connectionInfo = connection.connect(new HostKeyVerifier());
 			connected = true;
+			timings.mark(ConnectionTimings.Phase.KEX);
 
 			bridge.outputLine(manager.res.getString(R.string.terminal_kex_algorithm,
 					connectionInfo.keyExchangeAlgorithm));
@@ -499,13 +653,12 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		}
 
 		try {
-			// enter a loop to keep trying until authentication
+			// move straight on to the next method until authenticated or
+			// there is nothing left to try
 			int tries = 0;
 			while (connected && !connection.isAuthenticationComplete() && tries++ < AUTH_TRIES) {
-				authenticate();
-
-				// sleep to make sure we dont kill system
-				Thread.sleep(1000);
+				if (!authenticate())
+					break;
 			}
 		} catch (Exception e) {
 			Log.e(TAG, "Problem in SSH connection thread during authentication", e);
@@ -516,6 +669,12 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 	public void close() {
 		connected = false;
 
+		// the forwards' listening sockets would outlive the connection otherwise
+		for (PortForwardBean portForward : portForwards) {
+			if (portForward.getIdentifier() instanceof PortForwardEngine)
+				((PortForwardEngine) portForward.getIdentifier()).close();
+		}
+
 		if (session != null) {
 			session.close();
 			session = null;
@@ -646,9 +805,9 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			return false;
 
 		if (HostDatabase.PORTFORWARD_LOCAL.equals(portForward.getType())) {
-			LocalPortForwarder lpf = null;
+			PortForwardEngine engine;
 			try {
-				lpf = connection.createLocalPortForwarder(
+				engine = new PortForwardEngine(tunnelFactory, portForward.getStats(),
 						new InetSocketAddress(InetAddress.getLocalHost(), portForward.getSourcePort()),
 						portForward.getDestAddr(), portForward.getDestPort());
 			} catch (Exception e) {
@@ -656,12 +815,8 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 				return false;
 			}
 
-			if (lpf == null) {
-				Log.e(TAG, "returned LocalPortForwarder object is null");
-				return false;
-			}
-
-			portForward.setIdentifier(lpf);
+			engine.start();
+			portForward.setIdentifier(engine);
 			portForward.setEnabled(true);
 			return true;
 		} else if (HostDatabase.PORTFORWARD_REMOTE.equals(portForward.getType())) {
@@ -675,17 +830,18 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			portForward.setEnabled(true);
 			return true;
 		} else if (HostDatabase.PORTFORWARD_DYNAMIC5.equals(portForward.getType())) {
-			DynamicPortForwarder dpf = null;
-
+			PortForwardEngine engine;
 			try {
-				dpf = connection.createDynamicPortForwarder(
-						new InetSocketAddress(InetAddress.getLocalHost(), portForward.getSourcePort()));
+				engine = new PortForwardEngine(tunnelFactory, portForward.getStats(),
+						new InetSocketAddress(InetAddress.getLocalHost(), portForward.getSourcePort()),
+						null, 0);
 			} catch (Exception e) {
 				Log.e(TAG, "Could not create dynamic port forward", e);
 				return false;
 			}
 
-			portForward.setIdentifier(dpf);
+			engine.start();
+			portForward.setIdentifier(engine);
 			portForward.setEnabled(true);
 			return true;
 		} else {
@@ -706,17 +862,16 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			return false;
 
 		if (HostDatabase.PORTFORWARD_LOCAL.equals(portForward.getType())) {
-			LocalPortForwarder lpf = null;
-			lpf = (LocalPortForwarder) portForward.getIdentifier();
+			PortForwardEngine engine = (PortForwardEngine) portForward.getIdentifier();
 
-			if (!portForward.isEnabled() || lpf == null) {
+			if (!portForward.isEnabled() || engine == null) {
 				Log.d(TAG, String.format("Could not disable %s; it appears to be not enabled or have no handler", portForward.getNickname()));
 				return false;
 			}
 
 			portForward.setEnabled(false);
 
-			lpf.close();
+			engine.close();
 
 			return true;
 		} else if (HostDatabase.PORTFORWARD_REMOTE.equals(portForward.getType())) {
@@ -731,17 +886,16 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 			return true;
 		} else if (HostDatabase.PORTFORWARD_DYNAMIC5.equals(portForward.getType())) {
-			DynamicPortForwarder dpf = null;
-			dpf = (DynamicPortForwarder) portForward.getIdentifier();
+			PortForwardEngine engine = (PortForwardEngine) portForward.getIdentifier();
 
-			if (!portForward.isEnabled() || dpf == null) {
+			if (!portForward.isEnabled() || engine == null) {
 				Log.d(TAG, String.format("Could not disable %s; it appears to be not enabled or have no handler", portForward.getNickname()));
 				return false;
 			}
 
 			portForward.setEnabled(false);
 
-			dpf.close();
+			engine.close();
 
 			return true;
 		} else {
@@ -0,0 +1,51 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.transport;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that several threads can add to without all of them contending
+ * for one cache line. Each thread adds to one of a few padded slots, and
+ * reading the counter sums them.
+ */
+final class StripedCounter {
+	/* a power of two */
+	private static final int STRIPES = 8;
+
+	/* longs per 64 byte cache line, so slots don't share one */
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray slots = new AtomicLongArray(STRIPES * PADDING);
+
+	void add(long delta) {
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		slots.addAndGet(stripe * PADDING, delta);
+	}
+
+	void increment() {
+		add(1);
+	}
+
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++)
+			sum += slots.get(i * PADDING);
+		return sum;
+	}
+}
@@ -193,31 +193,26 @@ public class Telnet extends AbsTransport {
 
 	@Override
 	public int read(byte[] buffer, int start, int len) throws IOException {
-		/* process all already read bytes */
-		int n = 0;
-
-		do {
-			n = handler.negotiate(buffer, start);
-			if (n > 0)
-				return n;
-		} while (n == 0);
-
-		while (n <= 0) {
+		while (true) {
+			/* process all already read bytes */
+			int n;
 			do {
-				n = handler.negotiate(buffer, start);
+				n = handler.negotiate(buffer, start, len);
 				if (n > 0)
 					return n;
 			} while (n == 0);
+
 			n = is.read(buffer, start, len);
 			if (n < 0) {
 				bridge.dispatchDisconnect(false);
 				throw new IOException("Remote end closed connection.");
 			}
 
-			handler.inputfeed(buffer, start, n);
-			n = handler.negotiate(buffer, start);
+			/* plain data is handed back where it was read, without a copy */
+			n = handler.inputfilter(buffer, start, n);
+			if (n > 0)
+				return n;
 		}
-		return n;
 	}
 
 	@Override
@@ -21,10 +21,12 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.connectbot.bean.HostBean;
 import org.connectbot.bean.PortForwardBean;
@@ -52,7 +54,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 	public final static String TAG = "CB.HostDatabase";
 
 	public final static String DB_NAME = "hosts";
-	public final static int DB_VERSION = 25;
+	public final static int DB_VERSION = 27;
 
 	public final static String TABLE_HOSTS = "hosts";
 	public final static String FIELD_HOST_NICKNAME = "nickname";
@@ -79,6 +81,10 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 	public final static String FIELD_KNOWNHOSTS_HOSTKEYALGO = "hostkeyalgo";
 	public final static String FIELD_KNOWNHOSTS_HOSTKEY = "hostkey";
 
+	public final static String TABLE_LASTPUBKEYS = "lastpubkeys";
+	public final static String FIELD_LASTPUBKEY_HOSTID = "hostid";
+	public final static String FIELD_LASTPUBKEY_PUBKEY = "pubkey";
+
 	public final static String TABLE_PORTFORWARDS = "portforwards";
 	public final static String FIELD_PORTFORWARD_HOSTID = "hostid";
 	public final static String FIELD_PORTFORWARD_NICKNAME = "nickname";
@@ -157,13 +163,27 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 		"CREATE INDEX " + TABLE_COLOR_DEFAULTS + FIELD_COLOR_SCHEME + "index ON "
 		+ TABLE_COLOR_DEFAULTS + " (" + FIELD_COLOR_SCHEME + ");";
 
+	public static final String CREATE_TABLE_HOSTS_HOSTNAME_INDEX =
+		"CREATE INDEX " + TABLE_HOSTS + FIELD_HOST_HOSTNAME + "index ON "
+		+ TABLE_HOSTS + " (" + FIELD_HOST_HOSTNAME + ", " + FIELD_HOST_PORT + ");";
+
+	public static final String CREATE_TABLE_LASTPUBKEYS = "CREATE TABLE " + TABLE_LASTPUBKEYS
+			+ " (_id INTEGER PRIMARY KEY, "
+			+ FIELD_LASTPUBKEY_HOSTID + " INTEGER UNIQUE, "
+			+ FIELD_LASTPUBKEY_PUBKEY + " BLOB)";
+
+	private static final String WHERE_HOSTNAME_AND_PORT = TABLE_HOSTS + "." + FIELD_HOST_HOSTNAME
+			+ " = ? AND " + TABLE_HOSTS + "." + FIELD_HOST_PORT + " = ?";
+
 	private static final String WHERE_SCHEME_AND_COLOR = FIELD_COLOR_SCHEME + " = ? AND "
 			+ FIELD_COLOR_NUMBER + " = ?";
 
 	static {
 		addTableName(TABLE_HOSTS);
+		addIndexName(TABLE_HOSTS + FIELD_HOST_HOSTNAME + "index");
 		addTableName(TABLE_KNOWNHOSTS);
 		addIndexName(TABLE_KNOWNHOSTS + FIELD_KNOWNHOSTS_HOSTID + "index");
+		addTableName(TABLE_LASTPUBKEYS);
 		addTableName(TABLE_PORTFORWARDS);
 		addIndexName(TABLE_PORTFORWARDS + FIELD_PORTFORWARD_HOSTID + "index");
 		addTableName(TABLE_COLORS);
@@ -181,6 +201,33 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 
 	private final SQLiteDatabase mDb;
 
+	/** Number of hosts whose keys are kept in {@link #mKnownHostsCache}. */
+	private static final int KNOWNHOSTS_CACHE_SIZE = 32;
+
+	/**
+	 * Host keys of recently verified hosts, keyed by "hostname:port". Hosts
+	 * without any saved keys are cached as an empty list.
+	 */
+	private final Map<String, List<KnownHostKey>> mKnownHostsCache =
+			new LinkedHashMap<String, List<KnownHostKey>>(KNOWNHOSTS_CACHE_SIZE, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Entry<String, List<KnownHostKey>> eldest) {
+					return size() > KNOWNHOSTS_CACHE_SIZE;
+				}
+			};
+
+	private final List<OnHostChangedListener> mHostListeners = new CopyOnWriteArrayList<>();
+
+	private static class KnownHostKey {
+		final String algorithm;
+		final byte[] key;
+
+		KnownHostKey(String algorithm, byte[] key) {
+			this.algorithm = algorithm;
+			this.key = key;
+		}
+	}
+
 	public static HostDatabase get(Context context) {
 		synchronized (sInstanceLock) {
 			if (sInstance != null) {
@@ -196,7 +243,8 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 		this(context, DB_NAME);
 	}
 
-	private HostDatabase(Context context, String dbName) {
+	@VisibleForTesting
+	HostDatabase(Context context, String dbName) {
 		super(context, dbName, null, DB_VERSION);
 
 		this.displayDensity = context.getResources().getDisplayMetrics().density;
@@ -212,6 +260,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 
 	private void createTables(SQLiteDatabase db) {
 		db.execSQL(CREATE_TABLE_HOSTS);
+		db.execSQL(CREATE_TABLE_HOSTS_HOSTNAME_INDEX);
 
 		db.execSQL("CREATE TABLE " + TABLE_KNOWNHOSTS
 				+ " (_id INTEGER PRIMARY KEY, "
@@ -222,6 +271,8 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 		db.execSQL("CREATE INDEX " + TABLE_KNOWNHOSTS + FIELD_KNOWNHOSTS_HOSTID + "index ON "
 				+ TABLE_KNOWNHOSTS + " (" + FIELD_KNOWNHOSTS_HOSTID + ");");
 
+		db.execSQL(CREATE_TABLE_LASTPUBKEYS);
+
 		db.execSQL("CREATE TABLE " + TABLE_PORTFORWARDS
 				+ " (_id INTEGER PRIMARY KEY, "
 				+ FIELD_PORTFORWARD_HOSTID + " INTEGER, "
@@ -255,6 +306,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 
 			mDb.execSQL("DROP TABLE IF EXISTS " + TABLE_HOSTS);
 			mDb.execSQL("DROP TABLE IF EXISTS " + TABLE_KNOWNHOSTS);
+			mDb.execSQL("DROP TABLE IF EXISTS " + TABLE_LASTPUBKEYS);
 			mDb.execSQL("DROP TABLE IF EXISTS " + TABLE_PORTFORWARDS);
 			mDb.execSQL("DROP TABLE IF EXISTS " + TABLE_COLORS);
 			mDb.execSQL("DROP TABLE IF EXISTS " + TABLE_COLOR_DEFAULTS);
@@ -265,6 +317,8 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 		} finally {
 			mDb.endTransaction();
 		}
+
+		clearKnownHostsCache();
 	}
 
 	@VisibleForTesting
@@ -396,6 +450,12 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 					+ " FROM " + TABLE_HOSTS);
 			db.execSQL("DROP TABLE " + TABLE_HOSTS);
 			db.execSQL("ALTER TABLE " + TABLE_HOSTS + "_upgrade RENAME TO " + TABLE_HOSTS);
+			// fall through
+		case 25:
+			db.execSQL(CREATE_TABLE_HOSTS_HOSTNAME_INDEX);
+			// fall through
+		case 26:
+			db.execSQL(CREATE_TABLE_LASTPUBKEYS);
 		}
 	}
 
@@ -418,6 +478,11 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 		} finally {
 			mDb.endTransaction();
 		}
+
+		if (host.getId() >= 0) {
+			for (OnHostChangedListener listener : mHostListeners)
+				listener.onHostSaved(host);
+		}
 	}
 
 	/**
@@ -441,6 +506,12 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 
 		host.setId(id);
 
+		// the hostname or port may have changed
+		clearKnownHostsCache();
+
+		for (OnHostChangedListener listener : mHostListeners)
+			listener.onHostSaved(host);
+
 		return host;
 	}
 
@@ -457,11 +528,27 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 		mDb.beginTransaction();
 		try {
 			mDb.delete(TABLE_KNOWNHOSTS, FIELD_KNOWNHOSTS_HOSTID + " = ?", hostIdArg);
+			mDb.delete(TABLE_LASTPUBKEYS, FIELD_LASTPUBKEY_HOSTID + " = ?", hostIdArg);
 			mDb.delete(TABLE_HOSTS, "_id = ?", hostIdArg);
 			mDb.setTransactionSuccessful();
 		} finally {
 			mDb.endTransaction();
 		}
+
+		clearKnownHostsCache();
+
+		for (OnHostChangedListener listener : mHostListeners)
+			listener.onHostDeleted(host);
+	}
+
+	@Override
+	public void addOnHostChangedListener(OnHostChangedListener listener) {
+		mHostListeners.add(listener);
+	}
+
+	@Override
+	public void removeOnHostChangedListener(OnHostChangedListener listener) {
+		mHostListeners.remove(listener);
 	}
 
 	/**
@@ -641,13 +728,111 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 		} finally {
 			mDb.endTransaction();
 		}
+		invalidateKnownHost(hostname, port);
 		Log.d(TAG, String.format("Finished saving hostkey information for '%s:%d' algo %s",
 				hostname, port, hostkeyalgo));
 	}
 
+	/**
+	 * Forget the hostkey of the given algorithm for this host. Only one key per
+	 * algorithm is kept, so {@code serverHostKey} is not needed to find it.
+	 */
 	@Override
 	public void removeKnownHost(String host, int port, String serverHostKeyAlgorithm, byte[] serverHostKey) {
-		throw new UnsupportedOperationException("removeKnownHost is not implemented");
+		HashMap<String, String> selection = new HashMap<>();
+		selection.put(FIELD_HOST_HOSTNAME, host);
+		selection.put(FIELD_HOST_PORT, String.valueOf(port));
+		HostBean hostBean = findHost(selection);
+
+		if (hostBean == null) {
+			return;
+		}
+
+		mDb.beginTransaction();
+		try {
+			mDb.delete(TABLE_KNOWNHOSTS, FIELD_KNOWNHOSTS_HOSTID + " = ? AND "
+							+ FIELD_KNOWNHOSTS_HOSTKEYALGO + " = ?",
+					new String[] {String.valueOf(hostBean.getId()), serverHostKeyAlgorithm});
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		invalidateKnownHost(host, port);
+	}
+
+	/**
+	 * Build the list of known hosts for Trilead library containing only the
+	 * keys saved for {@code hostname:port}. This is an indexed lookup, and
+	 * the keys of recently used hosts are cached.
+	 */
+	@Override
+	public KnownHosts getKnownHostsForHost(String hostname, int port) {
+		String matchName = hostname + ":" + port;
+
+		List<KnownHostKey> keys;
+		synchronized (mKnownHostsCache) {
+			keys = mKnownHostsCache.get(matchName);
+		}
+
+		if (keys == null) {
+			keys = queryKnownHostKeys(hostname, port);
+			synchronized (mKnownHostsCache) {
+				mKnownHostsCache.put(matchName, keys);
+			}
+		}
+
+		KnownHosts known = new KnownHosts();
+		for (KnownHostKey key : keys) {
+			try {
+				known.addHostkey(new String[] {matchName}, key.algorithm, key.key);
+			} catch (Exception e) {
+				Log.e(TAG, "Problem while adding a known host from database", e);
+			}
+		}
+
+		return known;
+	}
+
+	private List<KnownHostKey> queryKnownHostKeys(String hostname, int port) {
+		List<KnownHostKey> keys = new ArrayList<>();
+
+		Cursor c = mDb.query(TABLE_HOSTS + " INNER JOIN " + TABLE_KNOWNHOSTS
+						+ " ON " + TABLE_HOSTS + "._id = "
+						+ TABLE_KNOWNHOSTS + "." + FIELD_KNOWNHOSTS_HOSTID,
+				new String[] {FIELD_KNOWNHOSTS_HOSTKEYALGO, FIELD_KNOWNHOSTS_HOSTKEY},
+				WHERE_HOSTNAME_AND_PORT, new String[] {hostname, String.valueOf(port)},
+				null, null, null);
+
+		if (c != null) {
+			int COL_HOSTKEYALGO = c.getColumnIndexOrThrow(FIELD_KNOWNHOSTS_HOSTKEYALGO),
+					COL_HOSTKEY = c.getColumnIndexOrThrow(FIELD_KNOWNHOSTS_HOSTKEY);
+
+			while (c.moveToNext()) {
+				String hostkeyalgo = c.getString(COL_HOSTKEYALGO);
+				byte[] hostkey = c.getBlob(COL_HOSTKEY);
+
+				if (hostkeyalgo == null || hostkeyalgo.length() == 0) continue;
+				if (hostkey == null || hostkey.length == 0) continue;
+
+				keys.add(new KnownHostKey(hostkeyalgo, hostkey));
+			}
+
+			c.close();
+		}
+
+		return keys;
+	}
+
+	private void invalidateKnownHost(String hostname, int port) {
+		synchronized (mKnownHostsCache) {
+			mKnownHostsCache.remove(hostname + ":" + port);
+		}
+	}
+
+	private void clearKnownHostsCache() {
+		synchronized (mKnownHostsCache) {
+			mKnownHostsCache.clear();
+		}
 	}
 
 	/**
@@ -694,6 +879,54 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 		return known;
 	}
 
+	/**
+	 * @return OpenSSH encoded public key that last authenticated to the host
+	 *         or {@code null} if none is recorded
+	 */
+	@Override
+	public byte[] getLastPubkey(HostBean host) {
+		if (host.getId() < 0)
+			return null;
+
+		byte[] pubkey = null;
+
+		Cursor c = mDb.query(TABLE_LASTPUBKEYS, new String[] {FIELD_LASTPUBKEY_PUBKEY},
+				FIELD_LASTPUBKEY_HOSTID + " = ?", new String[] {String.valueOf(host.getId())},
+				null, null, null);
+
+		if (c != null) {
+			if (c.moveToFirst())
+				pubkey = c.getBlob(c.getColumnIndexOrThrow(FIELD_LASTPUBKEY_PUBKEY));
+
+			c.close();
+		}
+
+		return pubkey;
+	}
+
+	/**
+	 * Record the public key that authenticated to the host so it can be
+	 * tried first next time.
+	 * @param pubkey OpenSSH encoded public key
+	 */
+	@Override
+	public void saveLastPubkey(HostBean host, byte[] pubkey) {
+		if (host.getId() < 0)
+			return;
+
+		ContentValues values = new ContentValues();
+		values.put(FIELD_LASTPUBKEY_HOSTID, host.getId());
+		values.put(FIELD_LASTPUBKEY_PUBKEY, pubkey);
+
+		mDb.beginTransaction();
+		try {
+			mDb.insertWithOnConflict(TABLE_LASTPUBKEYS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+	}
+
 	@Override
 	public List<String> getHostKeyAlgorithmsForHost(String hostname, int port) {
 		HashMap<String, String> selection = new HashMap<>();
@@ -34,6 +34,16 @@ public final class PreferenceConstants {
 
 	public static final String SCROLLBACK = "scrollback";
 
+	public static final String DISK_SCROLLBACK = "diskscrollback";
+
+	public static final String MAX_FRAME_RATE = "maxframerate";
+
+	public static final String JUMP_SCROLL = "jumpscroll";
+
+	public static final String SESSION_LOG = "sessionlog";
+
+	public static final String SESSION_LOG_FORMAT = "sessionlogformat";
+
 	public static final String EMULATION = "emulation";
 
 	public static final String ROTATION = "rotation";
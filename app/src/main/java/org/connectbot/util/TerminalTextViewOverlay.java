@@ -56,6 +56,17 @@ public class TerminalTextViewOverlay extends androidx.appcompat.widget.AppCompat
 	private int oldBufferHeight = 0;
 	private int oldScrollY = -1;
 
+	/**
+	 * Archived rows above the window that are put in the text. Rows further
+	 * back are paged in when the text is scrolled to its top, so the text
+	 * never holds the whole disk scrollback.
+	 */
+	private static final int ARCHIVED_ROWS_PER_PAGE = 1000;
+
+	/* buffer row shown by the first line of the text */
+	private int textBase = 0;
+	private boolean pagingIn = false;
+
 	public TerminalTextViewOverlay(Context context, TerminalView terminalView) {
 		super(context);
 
@@ -74,12 +85,17 @@ public class TerminalTextViewOverlay extends androidx.appcompat.widget.AppCompat
 		int numCols = vb.getColumns();
 		oldBufferHeight = numRows;
 
+		textBase = Math.min(vb.getArchivedRows(),
+				Math.max(0, vb.getWindowBase() - ARCHIVED_ROWS_PER_PAGE));
+
 		StringBuilder buffer = new StringBuilder();
 		int previousTotalLength = 0;
 
-		for (int r = 0; r < numRows && vb.charArray[r] != null; r++) {
+		char[] line = new char[numCols];
+		for (int r = textBase; r < numRows && vb.getCellLine(r) != null; r++) {
+			vb.getChars(r, line, 0);
 			for (int c = 0; c < numCols; c++) {
-				buffer.append(vb.charArray[r][c]);
+				buffer.append(line[c]);
 			}
 
 			// Truncate all the new whitespace without removing the old data.
@@ -94,7 +110,7 @@ public class TerminalTextViewOverlay extends androidx.appcompat.widget.AppCompat
 			previousTotalLength = buffer.length();
 		}
 
-		oldScrollY = vb.getWindowBase() * getLineHeight();
+		oldScrollY = (vb.getWindowBase() - textBase) * getLineHeight();
 
 		setText(buffer);
 	}
@@ -118,7 +134,7 @@ public class TerminalTextViewOverlay extends androidx.appcompat.widget.AppCompat
 			newLines.append('\n');
 		}
 
-		oldScrollY = (vb.getWindowBase() + numNewRows) * getLineHeight();
+		oldScrollY = (vb.getWindowBase() - textBase + numNewRows) * getLineHeight();
 		oldBufferHeight = numRows;
 
 		append(newLines);
@@ -171,9 +187,21 @@ public class TerminalTextViewOverlay extends androidx.appcompat.widget.AppCompat
 		int lineMultiple = (y * 2 + 1) / (getLineHeight() * 2);
 
 		TerminalBridge bridge = terminalView.bridge;
-		bridge.buffer.setWindowBase(lineMultiple);
+		bridge.buffer.setWindowBase(textBase + lineMultiple);
 
 		super.scrollTo(0, y);
+
+		// scrolled to the top of the text with more scrollback on disk
+		if (lineMultiple == 0 && textBase > 0 && !pagingIn) {
+			pagingIn = true;
+			post(new Runnable() {
+				@Override
+				public void run() {
+					pagingIn = false;
+					refreshTextFromBuffer();
+				}
+			});
+		}
 	}
 
 	@Override
@@ -182,7 +210,7 @@ public class TerminalTextViewOverlay extends androidx.appcompat.widget.AppCompat
 			// Selection may be beginning. Sync the TextView with the buffer.
 			refreshTextFromBuffer();
 		} else if (event.getAction() == MotionEvent.ACTION_UP) {
-			super.scrollTo(0, terminalView.bridge.buffer.getWindowBase() * getLineHeight());
+			super.scrollTo(0, (terminalView.bridge.buffer.getWindowBase() - textBase) * getLineHeight());
 		}
 
 		// Mouse input is treated differently:
@@ -0,0 +1,245 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.telnet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TelnetProtocolHandlerTest {
+	private static final byte IAC = (byte) 255;
+	private static final byte DO = (byte) 253;
+	private static final byte WILL = (byte) 251;
+	private static final byte SB = (byte) 250;
+	private static final byte SE = (byte) 240;
+	private static final byte NOP = (byte) 241;
+
+	private final ByteArrayOutputStream replies = new ByteArrayOutputStream();
+	private TelnetProtocolHandler handler;
+	private Boolean localEcho;
+
+	@Before
+	public void setUp() {
+		handler = new TelnetProtocolHandler() {
+			@Override
+			protected String getTerminalType() {
+				return "xterm";
+			}
+
+			@Override
+			protected int[] getWindowSize() {
+				return new int[] {80, 24};
+			}
+
+			@Override
+			protected void setLocalEcho(boolean echo) {
+				localEcho = echo;
+			}
+
+			@Override
+			protected void notifyEndOfRecord() {
+			}
+
+			@Override
+			protected void write(byte[] b) throws IOException {
+				replies.write(b);
+			}
+
+			@Override
+			protected String getCharsetName() {
+				return "UTF-8";
+			}
+		};
+	}
+
+	/**
+	 * Same loop as the telnet transport's read().
+	 */
+	private int read(InputStream is, byte[] buffer, int start, int len) throws IOException {
+		while (true) {
+			int n;
+			do {
+				n = handler.negotiate(buffer, start, len);
+				if (n > 0)
+					return n;
+			} while (n == 0);
+
+			n = is.read(buffer, start, len);
+			if (n < 0)
+				return -1;
+
+			n = handler.inputfilter(buffer, start, n);
+			if (n > 0)
+				return n;
+		}
+	}
+
+	/**
+	 * Feeds the input a byte at a time and collects what comes out.
+	 */
+	private byte[] feedBytewise(byte[] input) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] out = new byte[16];
+		for (int i = 0; i < input.length; i++) {
+			byte[] one = {input[i]};
+			int n = handler.inputfilter(one, 0, 1);
+			data.write(one, 0, n);
+			while ((n = handler.negotiate(out, 0, out.length)) >= 0)
+				data.write(out, 0, n);
+		}
+		return data.toByteArray();
+	}
+
+	@Test
+	public void plainDataIsLeftInPlace() throws Exception {
+		byte[] input = "no commands here".getBytes("US-ASCII");
+		assertEquals(input.length, handler.inputfilter(input, 0, input.length));
+		assertEquals(-1, handler.negotiate(new byte[64], 0, 64));
+	}
+
+	@Test
+	public void dataAroundCommandsIsKept() throws Exception {
+		byte[] input = {'a', IAC, IAC, 'b', IAC, NOP, 'c', IAC, DO, 1, 'd'};
+		byte[] in = input.clone();
+		int n = handler.inputfilter(in, 0, in.length);
+		assertEquals(1, n);
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		data.write(in, 0, n);
+		byte[] out = new byte[64];
+		while ((n = handler.negotiate(out, 0, out.length)) >= 0)
+			data.write(out, 0, n);
+		assertArrayEquals(new byte[] {'a', IAC, 'b', 'c', 'd'}, data.toByteArray());
+		assertArrayEquals(new byte[] {IAC, WILL, 1}, replies.toByteArray());
+		assertEquals(Boolean.TRUE, localEcho);
+	}
+
+	@Test
+	public void commandsSplitAcrossReads() throws Exception {
+		byte[] input = {'x', IAC, IAC, IAC, DO, 24, IAC, SB, 24, 1, IAC, SE, 'y', IAC};
+		assertArrayEquals(new byte[] {'x', IAC, 'y'}, feedBytewise(input));
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(new byte[] {IAC, WILL, 24, IAC, SB, 24, 0});
+		expected.write("xterm".getBytes("US-ASCII"));
+		expected.write(new byte[] {IAC, SE});
+		assertArrayEquals(expected.toByteArray(), replies.toByteArray());
+
+		// the dangling IAC is completed by the next read
+		assertArrayEquals(new byte[] {IAC, 'z'}, feedBytewise(new byte[] {IAC, 'z'}));
+	}
+
+	@Test
+	public void outputIsLimitedToLength() throws Exception {
+		byte[] input = new byte[100];
+		input[0] = IAC;
+		input[1] = NOP;
+		for (int i = 2; i < input.length; i++)
+			input[i] = (byte) i;
+		assertEquals(0, handler.inputfilter(input, 0, input.length));
+
+		byte[] out = new byte[10];
+		assertEquals(0, handler.negotiate(out, 0, out.length));
+		for (int i = 2; i < input.length; i += 7) {
+			int n = handler.negotiate(out, 3, 7);
+			assertEquals(Math.min(7, input.length - i), n);
+			for (int j = 0; j < n; j++)
+				assertEquals(input[i + j], out[3 + j]);
+		}
+		assertEquals(-1, handler.negotiate(out, 0, out.length));
+	}
+
+	/**
+	 * Stream 64 KiB chunks with an escaped IAC and a NOP in each from a
+	 * server in the same process, through the transport's read loop, and
+	 * check that exactly the data comes out.
+	 */
+	void streamFromLocalServer(final int chunks) throws Exception {
+		final byte[] chunk = new byte[64 * 1024];
+		ByteArrayOutputStream expectedChunk = new ByteArrayOutputStream();
+		for (int i = 0; i < chunk.length; i++) {
+			chunk[i] = (byte) ('a' + i % 26);
+			if (i == 1000) {
+				chunk[i++] = IAC;
+				chunk[i] = IAC;
+				expectedChunk.write(IAC);
+			} else if (i == 40000) {
+				chunk[i++] = IAC;
+				chunk[i] = NOP;
+			} else
+				expectedChunk.write(chunk[i]);
+		}
+		final byte[] expected = expectedChunk.toByteArray();
+
+		final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		Thread stub = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Socket socket = server.accept();
+					OutputStream out = socket.getOutputStream();
+					for (int i = 0; i < chunks; i++)
+						out.write(chunk);
+					socket.close();
+				} catch (IOException e) {
+					// shows up as a short read
+				}
+			}
+		});
+		stub.start();
+
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		InputStream is = socket.getInputStream();
+		byte[] buffer = new byte[32 * 1024];
+		long total = 0;
+		int pos = 0;
+		boolean same = true;
+		int n;
+		while ((n = read(is, buffer, 0, buffer.length)) > 0) {
+			for (int i = 0; i < n; i++) {
+				same &= buffer[i] == expected[pos];
+				if (++pos == expected.length)
+					pos = 0;
+			}
+			total += n;
+		}
+		socket.close();
+		server.close();
+		stub.join();
+
+		assertTrue(same);
+		assertEquals((long) chunks * expected.length, total);
+		assertEquals(0, replies.size());
+	}
+
+	@Test
+	public void streamFromLocalServerKeepsData() throws Exception {
+		streamFromLocalServer(8);
+	}
+}
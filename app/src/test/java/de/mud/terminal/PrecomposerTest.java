@@ -0,0 +1,57 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrecomposerTest {
+	@Test
+	public void everyTableEntryIsFound() {
+		for (char[] row : Precomposer.precompositions) {
+			assertEquals(row[0], Precomposer.compose(row[1], row[2]));
+			assertEquals(row[0], Precomposer.precompose(row[1], row[2]));
+			assertTrue(Precomposer.isCombiner(row[2]));
+		}
+	}
+
+	@Test
+	public void unknownPairKeepsBase() {
+		assertEquals(-1, Precomposer.compose('q', '\u0308'));
+		assertEquals('q', Precomposer.precompose('q', '\u0308'));
+		assertEquals(-1, Precomposer.compose('\u0301', 'e'));
+	}
+
+	@Test
+	public void marksAreClassified() {
+		assertTrue(Precomposer.isCombining('\u0301'));
+		assertTrue(Precomposer.isCombining('\u20dd'));
+		assertTrue(Precomposer.isCombining('\ufe0f'));
+		assertFalse(Precomposer.isCombining('e'));
+		assertFalse(Precomposer.isCombining('\u00e9'));
+		assertFalse(Precomposer.isCombining('\u4e2d'));
+
+		// a spacing mark that still composes
+		assertFalse(Precomposer.isCombining('\u0bbe'));
+		assertTrue(Precomposer.isCombiner('\u0bbe'));
+		assertFalse(Precomposer.isCombiner('\u20dd'));
+	}
+}
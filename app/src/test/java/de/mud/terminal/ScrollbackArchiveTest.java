@@ -0,0 +1,192 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScrollbackArchiveTest {
+	private static final int WIDTH = 20;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+	private StyleTable styles;
+	private ScrollbackArchive archive;
+
+	@Before
+	public void setUp() throws Exception {
+		file = new File(folder.getRoot(), "scrollback.pages");
+		styles = new StyleTable();
+		archive = new ScrollbackArchive(file, 1000, 64 * 1024);
+	}
+
+	@After
+	public void tearDown() {
+		archive.close();
+	}
+
+	private int[] line(String text, long attributes) {
+		int style = styles.intern(attributes) << 16;
+		int[] cells = new int[WIDTH];
+		Arrays.fill(cells, ' ');
+		for (int i = 0; i < text.length(); i++)
+			cells[i] = style | text.charAt(i);
+		return cells;
+	}
+
+	private String text(int line) {
+		int[] cells = new int[WIDTH];
+		archive.read(line, cells, styles);
+		char[] chars = new char[WIDTH];
+		for (int i = 0; i < WIDTH; i++)
+			chars[i] = VDUBuffer.cellChar(cells[i]);
+		return new String(chars).trim();
+	}
+
+	@Test
+	public void linesComeBackWithTheirAttributes() {
+		long red = VDUBuffer.BOLD | (2L << VDUBuffer.COLOR_FG_SHIFT);
+		int[] mixed = line("plain", VDUBuffer.NORMAL);
+		int[] colored = line("red \u00e9\u4e2d", red);
+		System.arraycopy(colored, 0, mixed, 6, 7);
+
+		assertTrue(archive.append(mixed, styles));
+		assertEquals(1, archive.size());
+
+		// a fresh table, as after the buffer compacted its styles
+		StyleTable other = new StyleTable();
+		int[] cells = new int[WIDTH];
+		assertTrue(archive.read(0, cells, other));
+
+		for (int i = 0; i < WIDTH; i++) {
+			assertEquals(VDUBuffer.cellChar(mixed[i]), VDUBuffer.cellChar(cells[i]));
+			assertEquals(styles.get(VDUBuffer.cellStyle(mixed[i])),
+					other.get(VDUBuffer.cellStyle(cells[i])));
+		}
+	}
+
+	@Test
+	public void wrapMarkIsKept() {
+		int[] wrapped = line("0123456789abcdefghij", VDUBuffer.NORMAL);
+		wrapped[WIDTH - 1] |= VDUBuffer.WRAPPED;
+		archive.append(wrapped, styles);
+		archive.append(line("klm", VDUBuffer.NORMAL), styles);
+
+		int[] cells = new int[WIDTH];
+		archive.read(0, cells, styles);
+		assertArrayEquals(wrapped, cells);
+		archive.read(1, cells, styles);
+		assertEquals(0, cells[WIDTH - 1] & VDUBuffer.WRAPPED);
+	}
+
+	@Test
+	public void linesAreFittedToTheReadWidth() {
+		archive.append(line("0123456789abcdefghij", VDUBuffer.NORMAL), styles);
+
+		int[] narrow = new int[5];
+		archive.read(0, narrow, styles);
+		assertEquals('4', VDUBuffer.cellChar(narrow[4]));
+
+		int[] wide = new int[30];
+		archive.read(0, wide, styles);
+		assertEquals('j', VDUBuffer.cellChar(wide[19]));
+		assertEquals(' ', VDUBuffer.cellChar(wide[29]));
+	}
+
+	@Test
+	public void randomAccessAcrossSegments() throws Exception {
+		archive.close();
+		archive = new ScrollbackArchive(file, 1000, 4096);
+		for (int i = 0; i < 900; i++)
+			assertTrue(archive.append(line("line " + i, i), styles));
+
+		// several segments' worth, read out of order
+		assertTrue(archive.getFileSize() > 2 * 4096);
+		for (int i : new int[] {899, 0, 450, 63, 64, 65, 1, 898})
+			assertEquals("line " + i, text(i));
+	}
+
+	@Test
+	public void oldestSegmentsAreDroppedPastMaxLines() {
+		for (int i = 0; i < 10000; i++)
+			archive.append(line("line " + i, VDUBuffer.NORMAL), styles);
+
+		int size = archive.size();
+		assertTrue(size >= 1000);
+		assertTrue(size < 10000);
+		assertEquals(10000 - size, archive.getFirstLine());
+		assertEquals("line " + (10000 - size), text(0));
+		assertEquals("line 9999", text(size - 1));
+
+		// the space of dropped segments is reused
+		assertTrue(archive.getFileSize() < 10000L * WIDTH);
+	}
+
+	@Test
+	public void compressedLinesRoundTripExactly() {
+		archive.close();
+		archive = new ScrollbackArchive(100000);
+		int[][] appended = new int[5000][];
+		for (int i = 0; i < appended.length; i++) {
+			appended[i] = line("line " + i + " \u00e9\u4e2d", VDUBuffer.NORMAL);
+			appended[i][WIDTH - 1] = (styles.intern(i) << 16) | ('a' + i % 26);
+			assertTrue(archive.append(appended[i], styles));
+		}
+		assertEquals(appended.length, archive.size());
+		assertEquals(0, archive.getFileSize());
+
+		// jump between segments in both directions
+		int[] cells = new int[WIDTH];
+		for (int i : new int[] {4999, 0, 2500, 1, 4998, 3000, 2999, 17}) {
+			assertTrue(archive.read(i, cells, styles));
+			for (int c = 0; c < WIDTH; c++) {
+				assertEquals(VDUBuffer.cellChar(appended[i][c]), VDUBuffer.cellChar(cells[c]));
+				assertEquals(styles.get(VDUBuffer.cellStyle(appended[i][c])),
+						styles.get(VDUBuffer.cellStyle(cells[c])));
+			}
+		}
+
+		long[] signature = new long[2];
+		ScrollbackIndex.signature("line 1234 ", signature);
+		assertEquals(1234, archive.findCandidate(4999, true, signature[0], signature[1]));
+	}
+
+	@Test
+	public void closeDeletesTheFile() {
+		archive.append(line("gone", VDUBuffer.NORMAL), styles);
+		assertTrue(file.exists());
+
+		archive.close();
+		assertFalse(file.exists());
+		assertEquals(0, archive.size());
+		assertFalse(archive.append(line("late", VDUBuffer.NORMAL), styles));
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class StyleTableTest {
+	private StyleTable table;
+
+	@Before
+	public void setUp() {
+		table = new StyleTable();
+	}
+
+	@Test
+	public void normalIsStyleZero() {
+		assertEquals(0, table.intern(VDUBuffer.NORMAL));
+		assertEquals(VDUBuffer.NORMAL, table.get(0));
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	public void internReturnsSameIdForSameAttributes() {
+		long bold = VDUBuffer.BOLD;
+		long truecolor = (0xabcdefL + 257) << VDUBuffer.COLOR_FG_SHIFT;
+
+		int boldId = table.intern(bold);
+		int truecolorId = table.intern(truecolor);
+
+		assertNotEquals(boldId, truecolorId);
+		assertEquals(boldId, table.intern(bold));
+		assertEquals(truecolorId, table.intern(truecolor));
+		assertEquals(truecolor, table.get(truecolorId));
+		assertEquals(3, table.size());
+	}
+
+	@Test
+	public void fullTableRejectsNewStyles() {
+		for (long i = 1; i < StyleTable.MAX_STYLES; i++)
+			assertEquals(i, table.intern(i << VDUBuffer.COLOR_FG_SHIFT));
+
+		assertEquals(-1, table.intern(VDUBuffer.BOLD));
+		assertEquals(5, table.intern(5L << VDUBuffer.COLOR_FG_SHIFT));
+	}
+
+	@Test
+	public void compactRenumbersUsedStyles() {
+		int a = table.intern(VDUBuffer.BOLD);
+		int b = table.intern(VDUBuffer.UNDERLINE);
+		int c = table.intern(VDUBuffer.INVERT);
+
+		boolean[] used = new boolean[table.size()];
+		used[c] = true;
+		int[] remap = table.compact(used);
+
+		assertEquals(2, table.size());
+		assertEquals(0, remap[a]);
+		assertEquals(0, remap[b]);
+		assertEquals(1, remap[c]);
+		assertEquals(VDUBuffer.INVERT, table.get(1));
+		assertEquals(1, table.intern(VDUBuffer.INVERT));
+		assertEquals(2, table.intern(VDUBuffer.BOLD));
+	}
+}
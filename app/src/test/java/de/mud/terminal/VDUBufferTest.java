@@ -0,0 +1,607 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VDUBufferTest {
+	private static final int WIDTH = 20;
+	private static final int HEIGHT = 5;
+	private static final int SCROLLBACK = 50;
+
+	private VDUBuffer buffer;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setUp() {
+		buffer = new VDUBuffer(WIDTH, HEIGHT);
+		buffer.setDisplay(new NullDisplay());
+		buffer.setBufferSize(SCROLLBACK);
+	}
+
+	/**
+	 * Print a line on the bottom row and scroll it up, the way a terminal
+	 * does for a newline on the last line of the screen.
+	 */
+	private void printLine(String text) {
+		buffer.deleteArea(0, HEIGHT - 1, WIDTH, 1);
+		buffer.putString(0, HEIGHT - 1, text);
+		buffer.insertLine(HEIGHT - 1);
+	}
+
+	private String row(int row) {
+		char[] chars = new char[buffer.getColumns()];
+		buffer.getChars(row, chars, 0);
+		return new String(chars).trim();
+	}
+
+	@Test
+	public void scrollbackKeepsLinesInOrder() {
+		for (int i = 0; i < 30; i++)
+			printLine("line " + i);
+
+		assertEquals(HEIGHT + 30, buffer.getBufferSize());
+		assertEquals(buffer.getBufferSize() - HEIGHT, buffer.screenBase);
+		assertEquals(buffer.screenBase, buffer.windowBase);
+
+		// the screen ends with the last printed line followed by the blank one
+		assertEquals("line 29", row(buffer.screenBase + HEIGHT - 2));
+		assertEquals("", row(buffer.screenBase + HEIGHT - 1));
+
+		for (int i = 0; i < 30; i++)
+			assertEquals("line " + i, row(HEIGHT - 1 + i));
+	}
+
+	@Test
+	public void fullScrollbackDropsOldestLines() {
+		for (int i = 0; i < 500; i++)
+			printLine("line " + i);
+
+		assertEquals(SCROLLBACK, buffer.getBufferSize());
+		assertEquals(SCROLLBACK - HEIGHT, buffer.screenBase);
+
+		int last = buffer.screenBase + HEIGHT - 2;
+		for (int i = 0; i <= last; i++)
+			assertEquals("line " + (499 - last + i), row(i));
+	}
+
+	@Test
+	public void fullScrollbackRecyclesLineArrays() {
+		for (int i = 0; i < SCROLLBACK * 2; i++)
+			printLine("line " + i);
+
+		int[] oldest = buffer.getCellLine(0);
+
+		buffer.insertLine(HEIGHT - 1);
+
+		// the dropped line is reused as the new blank line on the screen
+		assertSame(oldest, buffer.getCellLine(buffer.screenBase + HEIGHT - 1));
+		assertEquals("", row(buffer.screenBase + HEIGHT - 1));
+		assertEquals(0L, buffer.getAttributes(0, HEIGHT - 1));
+	}
+
+	@Test
+	public void windowBaseStaysInScrollback() {
+		for (int i = 0; i < SCROLLBACK * 2; i++)
+			printLine("line " + i);
+
+		buffer.setWindowBase(10);
+		printLine("more");
+		assertEquals(10, buffer.windowBase);
+
+		buffer.setWindowBase(buffer.screenBase);
+		printLine("more");
+		assertEquals(buffer.screenBase, buffer.windowBase);
+	}
+
+	@Test
+	public void scrollRegionKeepsRowsAboveMargin() {
+		for (int r = 0; r < HEIGHT; r++)
+			buffer.putString(0, r, "row " + r);
+
+		buffer.setMargins(1, HEIGHT - 1);
+		buffer.insertLine(HEIGHT - 1, 2, VDUBuffer.SCROLL_UP);
+
+		int base = buffer.screenBase;
+		assertEquals("row 0", row(base));
+		assertEquals("row 3", row(base + 1));
+		assertEquals("row 4", row(base + 2));
+		assertEquals("", row(base + 3));
+		assertEquals("", row(base + 4));
+
+		// the lines scrolled out of the region went into the scrollback
+		assertEquals("row 1", row(base - 2));
+		assertEquals("row 2", row(base - 1));
+	}
+
+	@Test
+	public void scrollDownShiftsRegion() {
+		for (int r = 0; r < HEIGHT; r++)
+			buffer.putString(0, r, "row " + r);
+
+		buffer.insertLine(1, 2, VDUBuffer.SCROLL_DOWN);
+
+		int base = buffer.screenBase;
+		assertEquals("row 0", row(base));
+		assertEquals("", row(base + 1));
+		assertEquals("", row(base + 2));
+		assertEquals("row 1", row(base + 3));
+		assertEquals("row 2", row(base + 4));
+	}
+
+	@Test
+	public void deleteLineAfterWrap() {
+		for (int i = 0; i < SCROLLBACK * 2 + 3; i++)
+			printLine("line " + i);
+		buffer.deleteArea(0, 0, WIDTH, HEIGHT);
+		for (int r = 0; r < HEIGHT; r++)
+			buffer.putString(0, r, "row " + r);
+
+		buffer.deleteLine(1);
+
+		assertEquals("row 0", row(buffer.screenBase));
+		assertEquals("row 2", row(buffer.screenBase + 1));
+		assertEquals("row 4", row(buffer.screenBase + 3));
+		assertEquals("", row(buffer.screenBase + 4));
+	}
+
+	@Test
+	public void deleteLineBelowScrollRegion() {
+		for (int r = 0; r < HEIGHT; r++)
+			buffer.putString(0, r, "row " + r);
+		buffer.setMargins(0, 2);
+
+		// CSI M on the last row, which is outside the region
+		buffer.deleteLine(HEIGHT - 1);
+		assertEquals("row 3", row(buffer.screenBase + HEIGHT - 2));
+		assertEquals("", row(buffer.screenBase + HEIGHT - 1));
+
+		// scrolling recycles line arrays, which must not still be on screen
+		buffer.setMargins(0, HEIGHT - 1);
+		for (int i = 0; i < SCROLLBACK * 2; i++)
+			printLine("line " + i);
+		for (int a = 0; a < HEIGHT; a++)
+			for (int b = a + 1; b < HEIGHT; b++)
+				assertTrue(a + " and " + b, buffer.getCellLine(buffer.screenBase + a)
+						!= buffer.getCellLine(buffer.screenBase + b));
+		assertEquals("line " + (SCROLLBACK * 2 - 1), row(buffer.screenBase + HEIGHT - 2));
+	}
+
+	@Test
+	public void shrinkBufferKeepsNewestLines() {
+		for (int i = 0; i < SCROLLBACK * 2 + 7; i++)
+			printLine("line " + i);
+
+		buffer.setBufferSize(HEIGHT + 2);
+
+		assertEquals(HEIGHT + 2, buffer.getBufferSize());
+		assertEquals(2, buffer.screenBase);
+		assertEquals("line " + (SCROLLBACK * 2 + 7 - 1), row(buffer.screenBase + HEIGHT - 2));
+	}
+
+	@Test
+	public void resizeAfterWrapKeepsContent() {
+		for (int i = 0; i < SCROLLBACK * 2 + 7; i++)
+			printLine("line " + i);
+
+		buffer.setScreenSize(WIDTH + 10, HEIGHT, false);
+
+		assertEquals(WIDTH + 10, buffer.getCellLine(0).length);
+		assertEquals("line " + (SCROLLBACK * 2 + 7 - 1), row(buffer.screenBase + HEIGHT - 2));
+		for (int i = 1; i < buffer.screenBase; i++) {
+			int prev = Integer.parseInt(row(i - 1).substring(5));
+			assertEquals("line " + (prev + 1), row(i));
+		}
+	}
+
+	private void clearUpdates() {
+		Arrays.fill(buffer.update, false);
+		buffer.scrolledLines = 0;
+	}
+
+	@Test
+	public void putStringMarksOnlyTouchedColumns() {
+		clearUpdates();
+
+		buffer.putString(3, 2, "abc");
+		buffer.putChar(10, 2, 'x');
+
+		assertFalse(buffer.update[0]);
+		assertFalse(buffer.update[2]);
+		assertTrue(buffer.update[3]);
+		assertEquals(3, buffer.updateLeft[3]);
+		assertEquals(11, buffer.updateRight[3]);
+	}
+
+	@Test
+	public void deleteAreaMarksColumns() {
+		clearUpdates();
+
+		buffer.deleteArea(5, 1, 4, 2);
+
+		assertTrue(buffer.update[2]);
+		assertTrue(buffer.update[3]);
+		assertFalse(buffer.update[4]);
+		assertEquals(5, buffer.updateLeft[2]);
+		assertEquals(9, buffer.updateRight[3]);
+	}
+
+	@Test
+	public void scrollRecordsScrolledLines() {
+		clearUpdates();
+
+		buffer.putChar(7, HEIGHT - 1, 'x');
+		buffer.insertLine(HEIGHT - 1);
+
+		assertFalse(buffer.update[0]);
+		assertEquals(1, buffer.scrolledLines);
+
+		// the pending update moved up with its line
+		assertTrue(buffer.update[HEIGHT - 1]);
+		assertEquals(7, buffer.updateLeft[HEIGHT - 1]);
+		assertEquals(8, buffer.updateRight[HEIGHT - 1]);
+
+		// the new blank line needs to be drawn completely
+		assertTrue(buffer.update[HEIGHT]);
+		assertEquals(0, buffer.updateLeft[HEIGHT]);
+		assertEquals(WIDTH, buffer.updateRight[HEIGHT]);
+
+		for (int l = 1; l < HEIGHT - 1; l++)
+			assertFalse(buffer.update[l]);
+	}
+
+	@Test
+	public void scrollingWholeScreenRedrawsEverything() {
+		clearUpdates();
+
+		for (int i = 0; i < HEIGHT; i++)
+			buffer.insertLine(HEIGHT - 1);
+
+		assertTrue(buffer.update[0]);
+	}
+
+	@Test
+	public void scrollInRegionMarksRegion() {
+		clearUpdates();
+
+		buffer.setMargins(1, HEIGHT - 1);
+		buffer.insertLine(HEIGHT - 1);
+
+		assertEquals(0, buffer.scrolledLines);
+		assertFalse(buffer.update[1]);
+		for (int l = 2; l <= HEIGHT; l++)
+			assertTrue(buffer.update[l]);
+	}
+
+	@Test
+	public void attributesSurviveStorage() {
+		long bold = VDUBuffer.BOLD | (3L << VDUBuffer.COLOR_FG_SHIFT);
+		long rgb = VDUBuffer.UNDERLINE | ((0x123456L + 257) << VDUBuffer.COLOR_BG_SHIFT);
+
+		buffer.putChar(0, 0, 'a', bold);
+		buffer.putChars(1, 0, "bcd".toCharArray(), 0, 3, rgb);
+		buffer.putChar(4, 0, '\u00e9', VDUBuffer.NORMAL);
+
+		assertEquals("abcd\u00e9", row(buffer.screenBase).substring(0, 5));
+		assertEquals(bold, buffer.getAttributes(0, 0));
+		assertEquals(rgb, buffer.getAttributes(1, 0));
+		assertEquals(rgb, buffer.getAttributes(3, 0));
+		assertEquals(VDUBuffer.NORMAL, buffer.getAttributes(4, 0));
+
+		int[] cells = buffer.getCellLine(buffer.screenBase);
+		assertEquals(VDUBuffer.cellStyle(cells[1]), VDUBuffer.cellStyle(cells[3]));
+		assertEquals(rgb, buffer.getStyleAttributes(VDUBuffer.cellStyle(cells[2])));
+	}
+
+	@Test
+	public void unusedStylesAreReclaimed() {
+		long kept = VDUBuffer.BOLD | (5L << VDUBuffer.COLOR_FG_SHIFT);
+		buffer.putChar(0, 0, 'k', kept);
+
+		// more distinct truecolor attributes than the style table can index
+		for (int i = 0; i < 70000; i++)
+			buffer.putChar(1, 0, 'x', (i + 257L) << VDUBuffer.COLOR_FG_SHIFT);
+
+		assertEquals(kept, buffer.getAttributes(0, 0));
+		assertEquals((69999 + 257L) << VDUBuffer.COLOR_FG_SHIFT, buffer.getAttributes(1, 0));
+		assertEquals('k', buffer.getChar(0, 0));
+	}
+
+	private ScrollbackArchive attachArchive(int maxLines) throws Exception {
+		ScrollbackArchive archive = new ScrollbackArchive(
+				new File(folder.getRoot(), "scrollback.pages"), maxLines);
+		buffer.setScrollbackArchive(archive);
+		return archive;
+	}
+
+	@Test
+	public void archiveKeepsLinesThatLeaveMemory() throws Exception {
+		ScrollbackArchive archive = attachArchive(ScrollbackArchive.DEFAULT_MAX_LINES);
+		for (int i = 0; i < 1000; i++)
+			printLine("line " + i);
+
+		assertEquals(HEIGHT + 1000, buffer.getBufferSize());
+		assertEquals(buffer.getBufferSize() - SCROLLBACK, buffer.getArchivedRows());
+		assertEquals(buffer.getArchivedRows(), archive.size());
+		assertEquals(buffer.getBufferSize() - HEIGHT, buffer.screenBase);
+
+		for (int i = 0; i < 1000; i++)
+			assertEquals("line " + i, row(HEIGHT - 1 + i));
+		assertEquals("", row(buffer.screenBase + HEIGHT - 1));
+		archive.close();
+	}
+
+	@Test
+	public void windowScrollsIntoArchive() throws Exception {
+		ScrollbackArchive archive = attachArchive(ScrollbackArchive.DEFAULT_MAX_LINES);
+		long color = VDUBuffer.UNDERLINE | (4L << VDUBuffer.COLOR_FG_SHIFT);
+		for (int i = 0; i < 200; i++) {
+			buffer.putChar(0, HEIGHT - 1, '*', color);
+			buffer.putString(1, HEIGHT - 1, "line " + i);
+			buffer.insertLine(HEIGHT - 1);
+		}
+
+		buffer.setWindowBase(10);
+		assertEquals(10, buffer.windowBase);
+		assertTrue(buffer.windowBase + HEIGHT < buffer.getArchivedRows());
+		int[] cells = buffer.getCellLine(buffer.windowBase);
+		assertEquals('*', VDUBuffer.cellChar(cells[0]));
+		assertEquals(color, buffer.getStyleAttributes(VDUBuffer.cellStyle(cells[0])));
+		assertEquals("*line 6", row(buffer.windowBase));
+		archive.close();
+	}
+
+	@Test
+	public void archivedAttributesSurviveStyleCompaction() throws Exception {
+		ScrollbackArchive archive = attachArchive(ScrollbackArchive.DEFAULT_MAX_LINES);
+		long kept = VDUBuffer.BOLD | (5L << VDUBuffer.COLOR_FG_SHIFT);
+		buffer.putChar(0, HEIGHT - 1, 'k', kept);
+		buffer.insertLine(HEIGHT - 1);
+		for (int i = 0; i < 100; i++)
+			printLine("line " + i);
+
+		// fill the style table so it has to be compacted
+		for (int i = 0; i < 70000; i++)
+			buffer.putChar(1, 0, 'x', (i + 257L) << VDUBuffer.COLOR_FG_SHIFT);
+
+		int[] cells = buffer.getCellLine(HEIGHT - 1);
+		assertEquals('k', VDUBuffer.cellChar(cells[0]));
+		assertEquals(kept, buffer.getStyleAttributes(VDUBuffer.cellStyle(cells[0])));
+		archive.close();
+	}
+
+	@Test
+	public void resizeWithArchiveKeepsContent() throws Exception {
+		ScrollbackArchive archive = attachArchive(ScrollbackArchive.DEFAULT_MAX_LINES);
+		for (int i = 0; i < 200; i++)
+			printLine("line " + i);
+
+		buffer.setScreenSize(WIDTH + 10, HEIGHT + 2, false);
+		assertEquals(WIDTH + 10, buffer.getCellLine(0).length);
+		assertEquals("line 0", row(HEIGHT - 1));
+		assertEquals("line 199", row(HEIGHT - 1 + 199));
+		assertTrue(buffer.screenBase >= buffer.getArchivedRows());
+		archive.close();
+	}
+
+	@Test
+	public void findLiteralBackwardsAndForwards() {
+		for (int i = 0; i < 30; i++)
+			printLine(i % 10 == 3 ? "error in step " + i : "step " + i);
+
+		int bottom = buffer.screenBase + HEIGHT - 1;
+		SearchMatch match = buffer.find("error", false, bottom, WIDTH, true);
+		assertEquals("error in step 23", row(match.row));
+		assertEquals(0, match.start);
+		assertEquals(5, match.end);
+
+		match = buffer.find("error", false, match.row, match.start, true);
+		assertEquals("error in step 13", row(match.row));
+
+		match = buffer.find("error", false, match.row, match.start, false);
+		assertEquals("error in step 23", row(match.row));
+		assertEquals(null, buffer.find("error", false, match.row, match.start, false));
+		assertEquals(null, buffer.find("missing", false, bottom, WIDTH, true));
+	}
+
+	@Test
+	public void findWithinARow() {
+		printLine("abc abc abc");
+		int row = buffer.screenBase + HEIGHT - 2;
+
+		assertEquals(8, buffer.find("abc", false, row, WIDTH, true).start);
+		assertEquals(4, buffer.find("abc", false, row, 8, true).start);
+		assertEquals(4, buffer.find("abc", false, row, 0, false).start);
+	}
+
+	@Test
+	public void findIgnoringCase() {
+		printLine("Connection REFUSED");
+		int bottom = buffer.screenBase + HEIGHT - 1;
+
+		assertEquals(null, buffer.find("refused", false, bottom, WIDTH, true));
+		SearchMatch match = buffer.find("refused", true, bottom, WIDTH, true);
+		assertEquals(11, match.start);
+		assertEquals("Connection REFUSED", row(match.row));
+	}
+
+	@Test
+	public void findRegex() {
+		printLine("exit code 0");
+		printLine("exit code 127");
+		printLine("done");
+		int bottom = buffer.screenBase + HEIGHT - 1;
+
+		SearchMatch match = buffer.find(Pattern.compile("code [1-9]\\d*"), bottom, WIDTH, true);
+		assertEquals("exit code 127", row(match.row));
+		assertEquals(5, match.start);
+		assertEquals(13, match.end);
+
+		match = buffer.find(Pattern.compile("\\d+"), match.row, match.start, true);
+		assertEquals("exit code 0", row(match.row));
+	}
+
+	@Test
+	public void indexFollowsScrollbackThatWraps() {
+		printLine("needle first");
+		int bottom = buffer.screenBase + HEIGHT - 1;
+		assertEquals("needle first", row(buffer.find("needle", false, bottom, WIDTH, true).row));
+
+		// push it out of the scrollback, with a new one after it
+		for (int i = 0; i < SCROLLBACK; i++)
+			printLine(i == SCROLLBACK - 20 ? "needle second" : "hay " + i);
+
+		bottom = buffer.screenBase + HEIGHT - 1;
+		SearchMatch match = buffer.find("needle", false, bottom, WIDTH, true);
+		assertEquals("needle second", row(match.row));
+		assertEquals(null, buffer.find("needle", false, match.row, match.start, true));
+		assertEquals(null, buffer.find("first", false, bottom, WIDTH, true));
+	}
+
+	@Test
+	public void findReachesIntoArchive() throws Exception {
+		ScrollbackArchive archive = attachArchive(ScrollbackArchive.DEFAULT_MAX_LINES);
+		for (int i = 0; i < 1000; i++)
+			printLine(i == 7 || i == 990 ? "marker " + i : "line " + i);
+
+		int bottom = buffer.screenBase + HEIGHT - 1;
+		SearchMatch match = buffer.find("marker", false, bottom, WIDTH, true);
+		assertEquals("marker 990", row(match.row));
+		match = buffer.find("marker", false, match.row, match.start, true);
+		assertTrue(match.row < buffer.getArchivedRows());
+		assertEquals("marker 7", row(match.row));
+
+		match = buffer.find("MARKER", true, 0, -1, false);
+		assertEquals("marker 7", row(match.row));
+		match = buffer.find(Pattern.compile("marker 9\\d+"), 0, -1, false);
+		assertEquals("marker 990", row(match.row));
+		archive.close();
+	}
+
+	@Test
+	public void matchKeepsItsLineAsOldLinesAreDropped() {
+		for (int i = 0; i < 30; i++)
+			printLine(i == 20 ? "needle" : "hay " + i);
+		SearchMatch match = buffer.find("needle", false, buffer.screenBase + HEIGHT - 1, WIDTH, true);
+		assertEquals(buffer.getLineNumber(match.row), match.line);
+
+		// overflow the scrollback so rows are renumbered
+		for (int i = 0; i < 20; i++)
+			printLine("more " + i);
+		int row = buffer.getRowOfLine(match.line);
+		assertTrue(row < match.row);
+		assertEquals("needle", row(row));
+
+		for (int i = 0; i < SCROLLBACK; i++)
+			printLine("more " + i);
+		assertEquals(-1, buffer.getRowOfLine(match.line));
+	}
+
+	@Test
+	public void resizeLeavesOldLineNumbersBehind() {
+		for (int i = 0; i < 30; i++)
+			printLine("line " + i);
+		long line = buffer.getLineNumber(buffer.screenBase - 10);
+
+		buffer.setScreenSize(WIDTH / 2, HEIGHT, false);
+		assertEquals(-1, buffer.getRowOfLine(line));
+
+		// with the scrollback fitted up front, scrolling back doesn't renumber
+		buffer.reflowScrollback();
+		SearchMatch match = buffer.find("line 3", false, buffer.screenBase + HEIGHT - 1, WIDTH, true);
+		assertEquals("line 3", row(match.row));
+		buffer.setWindowBase(0);
+		assertEquals(match.row, buffer.getRowOfLine(match.line));
+	}
+
+	@Test
+	public void compressedScrollbackIsSmallerThanRowsInMemory() {
+		int width = 80;
+		int lines = 3000;
+		buffer = new VDUBuffer(width, HEIGHT);
+		buffer.setDisplay(new NullDisplay());
+		buffer.setBufferSize(SCROLLBACK);
+		ScrollbackArchive archive = new ScrollbackArchive(lines);
+		buffer.setScrollbackArchive(archive);
+
+		long bold = VDUBuffer.BOLD | (2L << VDUBuffer.COLOR_FG_SHIFT);
+		for (int i = 0; i < lines; i++) {
+			buffer.deleteArea(0, HEIGHT - 1, width, 1);
+			buffer.putString(0, HEIGHT - 1, "[" + (i % 60) + "s] ");
+			buffer.putString(6, HEIGHT - 1, "GET /static/asset-" + i + ".js 200",
+					i % 7 == 0 ? bold : VDUBuffer.NORMAL);
+			buffer.insertLine(HEIGHT - 1);
+		}
+
+		int archived = buffer.getArchivedRows();
+		assertEquals(archived, archive.size());
+		int first = HEIGHT - 1;
+		assertEquals("GET /static/asset-3.js 200", row(first + 3).substring(6));
+		assertEquals(bold, buffer.getStyleAttributes(VDUBuffer.cellStyle(buffer.getCellLine(first + 7)[6])));
+		assertEquals(VDUBuffer.NORMAL,
+				buffer.getStyleAttributes(VDUBuffer.cellStyle(buffer.getCellLine(first + 8)[6])));
+
+		// getHeapSize() counts the bytes the archive holds, not what the
+		// collector sees, so this doesn't depend on the JVM
+		long inMemory = 16 + 4L * width;
+		assertTrue(archive.getHeapSize() / archived + " bytes per line",
+				archive.getHeapSize() / archived * 4 < inMemory);
+		archive.close();
+	}
+
+	private static class NullDisplay implements VDUDisplay {
+		@Override
+		public void redraw() {
+		}
+
+		@Override
+		public void updateScrollBar() {
+		}
+
+		@Override
+		public void setVDUBuffer(VDUBuffer buffer) {
+		}
+
+		@Override
+		public VDUBuffer getVDUBuffer() {
+			return null;
+		}
+
+		@Override
+		public void setColor(int index, int red, int green, int blue) {
+		}
+
+		@Override
+		public void resetColors() {
+		}
+	}
+}
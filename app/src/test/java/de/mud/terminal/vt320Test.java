@@ -0,0 +1,356 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class vt320Test {
+	private static final int WIDTH = 10;
+	private static final int HEIGHT = 4;
+
+	private vt320 terminal;
+
+	@Before
+	public void setUp() {
+		terminal = createTerminal(WIDTH, HEIGHT);
+	}
+
+	static vt320 createTerminal(int width, int height) {
+		vt320 terminal = new vt320(width, height) {
+			@Override
+			public void debug(String notice) {
+			}
+
+			@Override
+			public void write(byte[] b) {
+			}
+
+			@Override
+			public void write(int b) {
+			}
+		};
+		terminal.setDisplay(new NullDisplay());
+		return terminal;
+	}
+
+	private String row(int l) {
+		return bufferRow(terminal.screenBase + l);
+	}
+
+	private String bufferRow(int row) {
+		char[] chars = new char[terminal.getColumns()];
+		terminal.getChars(row, chars, 0);
+		return new String(chars);
+	}
+
+	@Test
+	public void asciiRunWrapsAtEndOfLine() {
+		terminal.putString("0123456789abcdef");
+
+		assertEquals("0123456789", row(0));
+		assertEquals("abcdef    ", row(1));
+		assertEquals(6, terminal.getCursorColumn());
+		assertEquals(1, terminal.getCursorRow());
+	}
+
+	@Test
+	public void asciiRunScrollsAtBottom() {
+		terminal.putString("one\r\ntwo\r\nthree\r\nfour56789012");
+
+		assertEquals("two       ", row(0));
+		assertEquals("four567890", row(2));
+		assertEquals("12        ", row(3));
+	}
+
+	@Test
+	public void asciiRunKeepsAttributes() {
+		terminal.putString("ab\u001b[1mcd\u001b[0mef");
+
+		assertEquals("abcdef    ", row(0));
+		assertEquals(0, terminal.getAttributes(1, 0));
+		assertEquals(VDUBuffer.BOLD, terminal.getAttributes(2, 0));
+		assertEquals(VDUBuffer.BOLD, terminal.getAttributes(3, 0));
+		assertEquals(0, terminal.getAttributes(4, 0));
+	}
+
+	@Test
+	public void asciiRunFollowedByCombiningMark() {
+		terminal.putString("cafe\u0301!");
+
+		assertEquals("caf\u00e9!     ", row(0));
+	}
+
+	@Test
+	public void severalMarksFoldIntoOneCell() {
+		// Vietnamese, decomposed: e + dot below + circumflex, in either order
+		terminal.putString("vie\u0323\u0302t vie\u0302\u0323t");
+
+		assertEquals("vi\u1ec7t vi\u1ec7t ", row(0));
+	}
+
+	@Test
+	public void unknownMarksAreDropped() {
+		terminal.putString("q\u0308x\u20dd!");
+
+		assertEquals("qx!       ", row(0));
+	}
+
+	@Test
+	public void spacingMarkThatComposes() {
+		// Tamil o = e sign + aa sign
+		terminal.putString("\u0b95\u0bc6\u0bbe \u0b95\u0bbe");
+
+		assertEquals("\u0b95\u0bca \u0b95\u0bbe     ", row(0));
+	}
+
+	@Test
+	public void supplementaryCharactersTakeCells() {
+		terminal.putString("a\ud83d\ude00b\ud835\udc00c");
+
+		assertEquals('\ufffd', row(0).charAt(1));
+		assertEquals('b', row(0).charAt(3));
+		assertEquals('\ufffd', row(0).charAt(4));
+		assertEquals('c', row(0).charAt(5));
+		assertEquals(6, terminal.getCursorColumn());
+	}
+
+	@Test
+	public void surrogatePairSplitAcrossWrites() {
+		terminal.putString("a\ud83d");
+		terminal.putString("\ude00b");
+
+		assertEquals('\ufffd', row(0).charAt(1));
+		assertEquals('b', row(0).charAt(3));
+	}
+
+	static final String DECOMPOSED =
+			"Vie\u0323\u0302t Nam to\u0302\u0301i nay tro\u031b\u0300i\r\n"
+			+ "cafe\u0301 nai\u0308ve fac\u0327ade \u00fcber \u4e2d\u6587\r\n";
+
+	@Test
+	public void decomposedTextIsComposed() {
+		vt320 big = createTerminal(80, 24);
+		char[] chars = DECOMPOSED.toCharArray();
+		big.putString(chars, new byte[chars.length], 0, chars.length);
+
+		assertEquals(String.format("%-80s", "Vi\u1ec7t Nam t\u1ed1i nay tr\u1eddi"),
+				bufferRow(big, big.screenBase));
+		assertEquals(String.format("%-80s", "caf\u00e9 na\u00efve fa\u00e7ade \u00fcber \u4e2d\u6587"),
+				bufferRow(big, big.screenBase + 1));
+	}
+
+	@Test
+	public void asciiRunInInsertMode() {
+		terminal.putString("world\r\u001b[4hhello \u001b[4l");
+
+		assertEquals("hello worl", row(0));
+	}
+
+	@Test
+	public void asciiRunWithoutWraparound() {
+		terminal.putString("\u001b[?7l0123456789abc");
+
+		assertEquals("012345678c", row(0));
+		assertEquals("          ", row(1));
+	}
+
+	@Test
+	public void asciiRunWithLineDrawingCharset() {
+		terminal.putString("\u001b(0qqq\u001b(Bqq");
+
+		assertEquals("\u2500\u2500\u2500qq     ", row(0));
+	}
+
+	@Test
+	public void asciiRunAfterSwitchingBackToAscii() {
+		// sgr0 of xterm-256color designates G0 before resetting attributes
+		terminal.putString("\u001b(B\u001b[m");
+		assertTrue(terminal.canPutRun());
+
+		terminal.putString("\u001b(0");
+		assertFalse(terminal.canPutRun());
+
+		terminal.putString("\u001b(Babc");
+		assertTrue(terminal.canPutRun());
+		assertEquals("abc       ", row(0));
+
+		// SO to a G1 that is still ASCII
+		terminal.putString("\u000e");
+		assertTrue(terminal.canPutRun());
+		terminal.putString("\u001b)0");
+		assertFalse(terminal.canPutRun());
+		terminal.putString("\u000f");
+		assertTrue(terminal.canPutRun());
+	}
+
+	@Test
+	public void styleIdsFollowAttributes() {
+		terminal.putString("\u001b[1;31mAA\u001b[38;2;18;52;86;48;5;200mB"
+				+ "\u001b[0mC\u001b[1;31mD\u001b[38;2;18;52;86;48;5;200;4mE");
+
+		long red = VDUBuffer.BOLD | (1L + 1) << VDUBuffer.COLOR_FG_SHIFT;
+		long rgb = VDUBuffer.BOLD | (0x123456L + 257) << VDUBuffer.COLOR_FG_SHIFT
+				| (200L + 1) << VDUBuffer.COLOR_BG_SHIFT;
+		long[] expected = {red, red, rgb, VDUBuffer.NORMAL, red, rgb | VDUBuffer.UNDERLINE};
+
+		assertEquals("AABCDE    ", row(0));
+		for (int c = 0; c < expected.length; c++) {
+			assertEquals(expected[c], terminal.getAttributes(c, 0));
+			assertEquals(expected[c], terminal.getStyleAttributes(terminal.getStyle(c, 0)));
+
+			// runs found by style id are the same as those found by attributes
+			for (int other = 0; other < expected.length; other++)
+				assertEquals(expected[c] == expected[other],
+						terminal.getStyle(c, 0) == terminal.getStyle(other, 0));
+		}
+	}
+
+	@Test
+	public void wrappedLinesAreJoinedOnResize() {
+		terminal.putString("0123456789abcdef\r\nxy");
+		assertTrue(terminal.isWrapped(terminal.screenBase));
+		assertFalse(terminal.isWrapped(terminal.screenBase + 1));
+
+		terminal.setScreenSize(20, HEIGHT, false);
+		assertEquals("0123456789abcdef    ", row(0));
+		assertEquals("xy                  ", row(1));
+		assertEquals(2, terminal.getCursorColumn());
+		assertEquals(1, terminal.getCursorRow());
+
+		terminal.setScreenSize(WIDTH, HEIGHT, false);
+		assertEquals("0123456789", row(0));
+		assertEquals("abcdef    ", row(1));
+		assertEquals("xy        ", row(2));
+		assertEquals(2, terminal.getCursorRow());
+	}
+
+	@Test
+	public void lineBreaksAreKeptOnResize() {
+		terminal.putString("0123456789\r\nabc");
+		assertFalse(terminal.isWrapped(terminal.screenBase));
+
+		terminal.setScreenSize(20, HEIGHT, false);
+		assertEquals("0123456789          ", row(0));
+		assertEquals("abc                 ", row(1));
+	}
+
+	@Test
+	public void narrowingPushesTextIntoScrollback() {
+		terminal.putString("aaaaaaaaaa\r\nbbbbbbbbbb\r\ncccccccccc\r\n$ ");
+
+		terminal.setScreenSize(5, HEIGHT, false);
+		assertEquals("bbbbb", row(0));
+		assertEquals("ccccc", row(1));
+		assertEquals("ccccc", row(2));
+		assertEquals("$    ", row(3));
+		assertEquals(2, terminal.getCursorColumn());
+		assertEquals(3, terminal.getCursorRow());
+		assertEquals("aaaaa", bufferRow(terminal.screenBase - 3));
+		assertTrue(terminal.isWrapped(terminal.screenBase - 3));
+	}
+
+	@Test
+	public void scrollbackIsReflowedWhenScrolledBack() {
+		terminal.setBufferSize(100);
+		for (int i = 0; i < 20; i++)
+			terminal.putString("line " + (char) ('a' + i) + " 123456\r\n");
+		int rows = terminal.getBufferSize();
+
+		terminal.setScreenSize(20, HEIGHT, false);
+		// the old rows are still there, cut to the new width
+		assertEquals("line a 123          ", bufferRow(0));
+		// the screen and the line pulled down onto it take one row each
+		assertEquals(rows - 3, terminal.getBufferSize());
+
+		terminal.setWindowBase(0);
+		assertEquals(0, terminal.getWindowBase());
+		assertEquals("line a 123456       ", bufferRow(0));
+		assertEquals("line b 123456       ", bufferRow(1));
+		assertEquals(20 + 1, terminal.getBufferSize());
+		assertEquals("line t 123456       ", bufferRow(terminal.screenBase + HEIGHT - 2));
+	}
+
+	@Test
+	public void repeatedResizesKeepScrollbackIntact() {
+		vt320 big = createTerminal(80, 24);
+		big.setBufferSize(200);
+		String line = wideLine();
+		while (big.getBufferSize() < 200)
+			big.putString(line);
+
+		for (int i = 0; i < 20; i++)
+			big.setScreenSize(i % 2 == 0 ? 100 : 80, 24, false);
+
+		// the scrollback comes out right once it is looked at
+		big.setWindowBase(0);
+		String head = line.substring(0, 80);
+		String tail = String.format("%-80s", line.substring(80, 120));
+		for (int row = 0; row < big.screenBase; row++) {
+			String shown = bufferRow(big, row);
+			assertTrue(shown, shown.equals(head) || shown.equals(tail));
+		}
+	}
+
+	/**
+	 * @return a 120 column line of numbers, ending in a newline
+	 */
+	static String wideLine() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; text.length() < 120; i++)
+			text.append(i).append(' ');
+		return text.substring(0, 120) + "\r\n";
+	}
+
+	static String bufferRow(vt320 terminal, int row) {
+		char[] chars = new char[terminal.getColumns()];
+		terminal.getChars(row, chars, 0);
+		return new String(chars);
+	}
+
+	private static class NullDisplay implements VDUDisplay {
+		@Override
+		public void redraw() {
+		}
+
+		@Override
+		public void updateScrollBar() {
+		}
+
+		@Override
+		public void setVDUBuffer(VDUBuffer buffer) {
+		}
+
+		@Override
+		public VDUBuffer getVDUBuffer() {
+			return null;
+		}
+
+		@Override
+		public void setColor(int index, int red, int green, int blue) {
+		}
+
+		@Override
+		public void resetColors() {
+		}
+	}
+}
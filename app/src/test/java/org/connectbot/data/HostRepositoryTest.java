@@ -0,0 +1,155 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.connectbot.bean.HostBean;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(AndroidJUnit4.class)
+public class HostRepositoryTest {
+	private HostStorage storage;
+	private HostRepository repository;
+	private final List<Runnable> loads = new ArrayList<>();
+	private int changes;
+
+	@Before
+	public void setUp() {
+		storage = mock(HostStorage.class);
+		List<HostBean> stored = new ArrayList<>();
+		stored.add(host(1, "charlie", "blue"));
+		stored.add(host(2, "alpha", null));
+		stored.add(host(3, "bravo", "red"));
+		when(storage.getHosts(false)).thenReturn(stored);
+
+		Executor queued = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				loads.add(command);
+			}
+		};
+		repository = new HostRepository(storage, new Handler(Looper.getMainLooper()), queued);
+		repository.addOnHostsChangedListener(new HostRepository.OnHostsChangedListener() {
+			@Override
+			public void onHostsChanged() {
+				changes++;
+			}
+		});
+	}
+
+	private static HostBean host(long id, String nickname, String color) {
+		HostBean host = new HostBean(nickname, "ssh", "user", nickname + ".example.com", 22);
+		host.setId(id);
+		host.setColor(color);
+		return host;
+	}
+
+	private static List<String> nicknames(List<HostBean> hosts) {
+		List<String> names = new ArrayList<>();
+		for (HostBean host : hosts)
+			names.add(host.getNickname());
+		return names;
+	}
+
+	private void load() {
+		repository.load();
+		for (Runnable load : loads)
+			load.run();
+		loads.clear();
+		shadowOf(Looper.getMainLooper()).idle();
+	}
+
+	@Test
+	public void loadsOnceInBackground() {
+		verify(storage).addOnHostChangedListener(repository);
+
+		repository.load();
+		repository.load();
+		assertFalse(repository.isLoaded());
+		assertEquals(1, loads.size());
+		assertTrue(repository.getHosts(false).isEmpty());
+
+		load();
+		assertTrue(repository.isLoaded());
+		assertEquals(1, changes);
+
+		repository.load();
+		assertTrue(loads.isEmpty());
+		verify(storage, times(1)).getHosts(false);
+	}
+
+	@Test
+	public void sortsLikeTheDatabase() {
+		load();
+
+		assertEquals(Arrays.asList("alpha", "bravo", "charlie"), nicknames(repository.getHosts(false)));
+		// no color sorts first
+		assertEquals(Arrays.asList("alpha", "charlie", "bravo"), nicknames(repository.getHosts(true)));
+
+		repository.getHosts(false).clear();
+		assertEquals(3, repository.getHosts(false).size());
+	}
+
+	@Test
+	public void followsWritesWithoutReading() {
+		load();
+
+		HostBean charlie = repository.getHosts(false).get(2);
+		charlie.setNickname("aardvark");
+		repository.onHostSaved(charlie);
+		repository.onHostSaved(host(4, "delta", "green"));
+		repository.onHostDeleted(host(2, "alpha", null));
+		shadowOf(Looper.getMainLooper()).idle();
+
+		assertEquals(Arrays.asList("aardvark", "bravo", "delta"), nicknames(repository.getHosts(false)));
+		assertEquals(4, changes);
+		verify(storage, times(1)).getHosts(false);
+	}
+
+	@Test
+	public void writesDuringLoadWin() {
+		repository.load();
+		repository.onHostDeleted(host(1, "charlie", "blue"));
+		repository.onHostSaved(host(2, "zulu", null));
+		shadowOf(Looper.getMainLooper()).idle();
+		assertEquals(0, changes);
+
+		load();
+		assertEquals(Arrays.asList("bravo", "zulu"), nicknames(repository.getHosts(false)));
+		assertEquals(1, changes);
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.mock;
+
+import java.io.IOException;
+
+/**
+ * Transport that produces a fixed amount of output as fast as it is read,
+ * repeating the given text. Once everything has been read it fails like a
+ * closed connection, which ends a {@link org.connectbot.service.Relay}.
+ */
+public class FloodTransport extends NullTransport {
+	private final byte[] text;
+	private long remaining;
+	private int position;
+
+	public FloodTransport(byte[] text, long total) {
+		this.text = text;
+		this.remaining = total;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (remaining <= 0)
+			throw new IOException("all output has been read");
+
+		int count = (int) Math.min(Math.min(length, remaining), text.length - position);
+		System.arraycopy(text, position, buffer, offset, count);
+		position = (position + count) % text.length;
+		remaining -= count;
+		return count;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return remaining > 0;
+	}
+
+	@Override
+	public boolean isSessionOpen() {
+		return remaining > 0;
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import org.connectbot.service.ConnectionTimings.Phase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionTimingsTest {
+	@Test
+	public void phasesAreTimedFromThePreviousMark() throws Exception {
+		ConnectionTimings timings = new ConnectionTimings();
+
+		Thread.sleep(20);
+		timings.mark(Phase.DNS);
+		timings.mark(Phase.KEX);
+
+		assertTrue(timings.getDuration(Phase.DNS) >= 20);
+		assertTrue(timings.getDuration(Phase.KEX) < 20);
+		assertEquals(-1, timings.getDuration(Phase.AUTH));
+		assertEquals(-1, timings.getDuration(Phase.PTY));
+		assertTrue(timings.getTotal() >= timings.getDuration(Phase.DNS));
+	}
+
+	@Test
+	public void startForgetsEarlierAttempt() {
+		ConnectionTimings timings = new ConnectionTimings();
+		timings.mark(Phase.DNS);
+		timings.setTimedOut();
+
+		timings.start();
+
+		assertEquals(-1, timings.getDuration(Phase.DNS));
+		assertFalse(timings.isTimedOut());
+		assertFalse(timings.isConnected());
+	}
+
+	@Test
+	public void authAttemptsAddUp() {
+		ConnectionTimings timings = new ConnectionTimings();
+		timings.recordAuthAttempt("publickey", 5000000);
+		timings.recordAuthAttempt("password", 7000000);
+		timings.recordAuthAttempt("password", 3000000);
+
+		assertEquals(5, timings.getAuthDuration("publickey"));
+		assertEquals(10, timings.getAuthDuration("password"));
+		assertEquals(-1, timings.getAuthDuration("none"));
+
+		timings.countSignature();
+		timings.countSignature();
+		assertEquals(2, timings.getSignatureCount());
+		assertTrue(timings.toString(), timings.toString().contains("signatures=2 "));
+		assertTrue(timings.toString(), timings.toString().startsWith("auth[publickey=5ms password=10ms] "));
+	}
+
+	@Test
+	public void describesOutcome() {
+		ConnectionTimings timings = new ConnectionTimings();
+		timings.mark(Phase.DNS);
+		assertTrue(timings.toString(), timings.toString().startsWith("dns="));
+		assertTrue(timings.toString().endsWith("(failed)"));
+
+		timings.setConnected();
+		assertFalse(timings.toString().contains("("));
+
+		timings.setTimedOut();
+		assertTrue(timings.toString().endsWith("(timed out)"));
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FloodDetectorTest {
+	private static final long MILLIS = 1000 * 1000L;
+
+	private FloodDetector detector;
+
+	@Before
+	public void setUp() {
+		detector = new FloodDetector();
+	}
+
+	@Test
+	public void typingIsNotAFlood() {
+		long now = 0;
+		for (int i = 0; i < 50; i++) {
+			now += 20 * MILLIS;
+			assertFalse(detector.update(8, now));
+		}
+	}
+
+	@Test
+	public void sustainedOutputIsAFlood() {
+		long now = 0;
+		for (int i = 0; i < 20; i++) {
+			now += 10 * MILLIS;
+			detector.update(4096, now);
+		}
+		assertTrue(detector.isFlooding());
+	}
+
+	@Test
+	public void pauseEndsFlood() {
+		long now = 0;
+		for (int i = 0; i < 20; i++) {
+			now += 10 * MILLIS;
+			detector.update(4096, now);
+		}
+		assertTrue(detector.isFlooding());
+
+		now += 2000 * MILLIS;
+		assertFalse(detector.update(80, now));
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.connectbot.mock.NullTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InputWriterTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private RecordingTransport transport;
+	private InputWriter writer;
+	private Thread thread;
+
+	/**
+	 * Records every write and can be held up to simulate a slow network.
+	 */
+	private static class RecordingTransport extends NullTransport {
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		final List<Integer> writeSizes = new ArrayList<>();
+		boolean blocked = false;
+
+		@Override
+		public synchronized void write(byte[] buffer) throws IOException {
+			while (blocked) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			written.write(buffer);
+			writeSizes.add(buffer.length);
+			notifyAll();
+		}
+
+		synchronized void setBlocked(boolean blocked) {
+			this.blocked = blocked;
+			notifyAll();
+		}
+
+		synchronized byte[] awaitBytes(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (written.size() < count && System.currentTimeMillis() < deadline)
+				wait(100);
+			return written.toByteArray();
+		}
+	}
+
+	@Before
+	public void setUp() {
+		transport = new RecordingTransport();
+		writer = new InputWriter(null, transport);
+		thread = new Thread(writer);
+		thread.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		writer.close();
+		thread.join(5000);
+	}
+
+	@Test
+	public void keystrokesArriveInOrder() throws Exception {
+		for (char c : "hello".toCharArray())
+			writer.write(c);
+
+		assertArrayEquals("hello".getBytes("US-ASCII"), transport.awaitBytes(5));
+	}
+
+	@Test
+	public void keystrokesQueuedDuringSlowWriteAreBatched() throws Exception {
+		transport.setBlocked(true);
+		writer.write('a');
+
+		// wait for the writer to pick up the first key and stall on it
+		while (writer.getQueueDepth() > 0)
+			Thread.sleep(1);
+
+		for (char c : "bcdef".toCharArray())
+			writer.write(c);
+		assertEquals(5, writer.getQueueDepth());
+
+		transport.setBlocked(false);
+		assertArrayEquals("abcdef".getBytes("US-ASCII"), transport.awaitBytes(6));
+
+		synchronized (transport) {
+			assertEquals(2, transport.writeSizes.size());
+		}
+		assertEquals(2, writer.getWriteCount());
+	}
+
+	@Test
+	public void pasteIsChunkedAndKeepsItsPlace() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < InputWriter.CHUNK_SIZE * 3 + 10; i++)
+			text.append((char) ('a' + i % 26));
+		byte[] paste = text.toString().getBytes(UTF8);
+
+		transport.setBlocked(true);
+		writer.paste(text.toString(), UTF8);
+		writer.write('!');
+		transport.setBlocked(false);
+
+		byte[] written = transport.awaitBytes(paste.length + 1);
+		assertEquals(paste.length + 1, written.length);
+		for (int i = 0; i < paste.length; i++)
+			assertEquals(paste[i], written[i]);
+		assertEquals('!', written[paste.length]);
+
+		synchronized (transport) {
+			for (int size : transport.writeSizes)
+				assertTrue(size <= InputWriter.CHUNK_SIZE);
+		}
+	}
+
+	@Test
+	public void largePasteIsEncodedAsItIsSent() throws Exception {
+		transport.setBlocked(true);
+		writer.write('a');
+		while (writer.getQueueDepth() > 0)
+			Thread.sleep(1);
+
+		// multi-byte text, so chunk boundaries fall inside characters
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100000; i++)
+			text.append("\u65E5\u672C ").append(i % 10);
+		byte[] expected = text.toString().getBytes(UTF8);
+
+		writer.paste(text.toString(), UTF8);
+		writer.write('!');
+		assertTrue(writer.getQueueDepth() + " bytes queued",
+				writer.getQueueDepth() <= InputWriter.QUEUE_CAPACITY);
+
+		transport.setBlocked(false);
+		byte[] written = transport.awaitBytes(1 + expected.length + 1);
+		assertEquals(1 + expected.length + 1, written.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], written[1 + i]);
+		assertEquals('!', written[1 + expected.length]);
+	}
+
+	@Test
+	public void fullQueueRefusesInputWithoutBlocking() throws Exception {
+		transport.setBlocked(true);
+		writer.write('a');
+		while (writer.getQueueDepth() > 0)
+			Thread.sleep(1);
+
+		byte[] key = new byte[1024];
+		for (int i = 0; i < InputWriter.QUEUE_CAPACITY / key.length; i++)
+			assertTrue(writer.write(key));
+
+		assertFalse(writer.write('b'));
+		assertFalse(writer.write(key));
+		assertEquals(2, writer.getRejectedCount());
+		assertEquals(InputWriter.QUEUE_CAPACITY, writer.getQueueDepth());
+
+		// room again once the host reads
+		transport.setBlocked(false);
+		transport.awaitBytes(InputWriter.QUEUE_CAPACITY + 1);
+		assertTrue(writer.write('c'));
+	}
+
+	@Test
+	public void repliesGetThroughAFullQueue() throws Exception {
+		transport.setBlocked(true);
+		writer.write('a');
+		while (writer.getQueueDepth() > 0)
+			Thread.sleep(1);
+
+		byte[] key = new byte[InputWriter.QUEUE_CAPACITY];
+		assertTrue(writer.write(key));
+		assertFalse(writer.write('b'));
+
+		// a cursor position report the host is waiting for
+		byte[] report = "\033[24;80R".getBytes("US-ASCII");
+		writer.reply(report);
+		assertEquals(InputWriter.QUEUE_CAPACITY + report.length, writer.getQueueDepth());
+		assertEquals(1, writer.getRejectedCount());
+
+		transport.setBlocked(false);
+		byte[] written = transport.awaitBytes(1 + key.length + report.length);
+		assertEquals(1 + key.length + report.length, written.length);
+		for (int i = 0; i < report.length; i++)
+			assertEquals(report[i], written[1 + key.length + i]);
+	}
+
+	@Test(expected = IOException.class)
+	public void writeAfterCloseFails() throws Exception {
+		writer.close();
+		writer.write('x');
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.connectbot.mock.FloodTransport;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.os.Looper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import de.mud.terminal.vt320;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(AndroidJUnit4.class)
+public class RelayTest {
+	private static final long TOTAL = 4 * 1024 * 1024;
+
+	/** Main looper time that passes between two reads. */
+	private static final long READ_MILLIS = 4;
+
+	private static class Result {
+		long bytesRead;
+		long frames;
+		String screen;
+	}
+
+	/**
+	 * Runs a flood of output through a {@link Relay} into a bridge, on the
+	 * main thread, and lets the main looper run between reads so frames are
+	 * drawn as they would be.
+	 */
+	private Result flood(boolean jumpScroll) throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			text.append("/usr/share/locale/").append(i).append("/LC_MESSAGES/coreutils.mo\r\n");
+
+		final Result result = new Result();
+		FloodTransport transport = new FloodTransport(text.toString().getBytes("UTF-8"), TOTAL) {
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				shadowOf(Looper.getMainLooper()).idleFor(READ_MILLIS, TimeUnit.MILLISECONDS);
+				int count = super.read(buffer, offset, length);
+				result.bytesRead += count;
+				return count;
+			}
+		};
+
+		// the test bridge has no view, which would otherwise ask for frames
+		TerminalBridge bridge = new TerminalBridge() {
+			@Override
+			public void redraw() {
+				getFrameScheduler().requestFrame();
+			}
+		};
+
+		Relay relay = new Relay(bridge, transport, (vt320) bridge.buffer, "UTF-8");
+		relay.setJumpScroll(jumpScroll);
+		relay.run();
+		shadowOf(Looper.getMainLooper()).idle();
+
+		result.frames = bridge.getFrameScheduler().getFrameCount();
+
+		StringBuilder screen = new StringBuilder();
+		char[] line = new char[bridge.buffer.getColumns()];
+		for (int row = 0; row < bridge.buffer.getRows(); row++) {
+			bridge.buffer.getChars(bridge.buffer.screenBase + row, line, 0);
+			screen.append(line).append('\n');
+		}
+		result.screen = screen.toString();
+		return result;
+	}
+
+	@Test
+	public void jumpScrollDropsFramesButNoOutput() throws Exception {
+		Result normal = flood(false);
+		Result jump = flood(true);
+
+		assertEquals(TOTAL, normal.bytesRead);
+		assertEquals(TOTAL, jump.bytesRead);
+		assertEquals(normal.screen, jump.screen);
+
+		// one frame per frame interval without, one per flood interval with
+		assertTrue(normal.frames + " frames", normal.frames > 0);
+		assertTrue(jump.frames + " frames", jump.frames > 0);
+		assertTrue(jump.frames + " vs " + normal.frames + " frames", jump.frames * 4 < normal.frames);
+	}
+}
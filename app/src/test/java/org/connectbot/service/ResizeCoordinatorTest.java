@@ -0,0 +1,140 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(AndroidJUnit4.class)
+public class ResizeCoordinatorTest {
+	private int commits;
+	private int saves;
+	private ResizeCoordinator coordinator;
+
+	@Before
+	public void setUp() {
+		Executor direct = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		};
+		coordinator = new ResizeCoordinator(new Handler(Looper.getMainLooper()), direct,
+				new Runnable() {
+					@Override
+					public void run() {
+						commits++;
+					}
+				},
+				new Runnable() {
+					@Override
+					public void run() {
+						saves++;
+					}
+				});
+	}
+
+	private static void idle(long millis) {
+		shadowOf(Looper.getMainLooper()).idleFor(millis, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void burstOfRequestsResizesOnce() {
+		for (int i = 0; i < 20; i++) {
+			coordinator.requestResize();
+			idle(ResizeCoordinator.SETTLE_TIME / 4);
+		}
+		assertEquals(0, commits);
+		assertTrue(coordinator.isResizePending());
+
+		idle(ResizeCoordinator.SETTLE_TIME);
+		assertEquals(1, commits);
+		assertEquals(1, coordinator.getCommitCount());
+		assertFalse(coordinator.isResizePending());
+	}
+
+	@Test
+	public void gestureHoldsResizeUntilItEnds() {
+		coordinator.beginGesture();
+		coordinator.requestResize();
+		idle(ResizeCoordinator.SETTLE_TIME * 10);
+		assertEquals(0, commits);
+
+		coordinator.endGesture();
+		idle(0);
+		assertEquals(1, commits);
+	}
+
+	@Test
+	public void gestureWithoutRequestDoesNothing() {
+		coordinator.beginGesture();
+		coordinator.endGesture();
+		idle(ResizeCoordinator.SETTLE_TIME * 2);
+		assertEquals(0, commits);
+	}
+
+	@Test
+	public void cancelledResizeIsDropped() {
+		coordinator.requestResize();
+		coordinator.cancelResize();
+		idle(ResizeCoordinator.SETTLE_TIME * 2);
+		assertEquals(0, commits);
+	}
+
+	@Test
+	public void savesAreCoalesced() {
+		for (int i = 0; i < 50; i++)
+			coordinator.requestSave();
+		assertEquals(0, saves);
+
+		idle(ResizeCoordinator.SAVE_DELAY);
+		assertEquals(1, saves);
+
+		// a change after the save is saved again
+		coordinator.requestSave();
+		idle(ResizeCoordinator.SAVE_DELAY);
+		assertEquals(2, saves);
+		assertEquals(2, coordinator.getSaveCount());
+	}
+
+	@Test
+	public void flushSavesRightAway() {
+		coordinator.flushSave();
+		assertEquals(0, saves);
+
+		coordinator.requestSave();
+		coordinator.flushSave();
+		assertEquals(1, saves);
+
+		idle(ResizeCoordinator.SAVE_DELAY * 2);
+		assertEquals(1, saves);
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SessionLoggerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SessionLogger start(SessionLogger.Format format, long segmentSize) {
+		SessionLogger logger = new SessionLogger(folder.getRoot(), "host name", format, segmentSize, 80, 24);
+		logger.start();
+		return logger;
+	}
+
+	private static void finish(SessionLogger logger) throws InterruptedException {
+		logger.close();
+		logger.join(5000);
+	}
+
+	private static byte[] read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		if (file.getName().endsWith(".gz"))
+			in = new GZIPInputStream(in);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = in.read(buffer)) > 0)
+				out.write(buffer, 0, count);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private File[] segments() {
+		File[] files = folder.getRoot().listFiles();
+		Arrays.sort(files);
+		return files;
+	}
+
+	@Test
+	public void rawLogMatchesInput() throws Exception {
+		SessionLogger logger = start(SessionLogger.Format.RAW, SessionLogger.DEFAULT_SEGMENT_SIZE);
+		byte[] data = "line one\r\n\033[1mbold\033[0m\r\n".getBytes("UTF-8");
+		logger.log(data, 0, 10);
+		logger.log(data, 10, data.length - 10);
+		finish(logger);
+
+		File[] files = segments();
+		assertEquals(1, files.length);
+		assertTrue(files[0].getName().startsWith("host_name-"));
+		assertArrayEquals(data, read(files[0]));
+		assertEquals(data.length, logger.getLoggedBytes());
+	}
+
+	@Test
+	public void asciicastEventsAreDecodedAndEscaped() throws Exception {
+		SessionLogger logger = start(SessionLogger.Format.ASCIICAST, SessionLogger.DEFAULT_SEGMENT_SIZE);
+		byte[] data = "\"caf\u00e9\"\r\n\033".getBytes("UTF-8");
+		// split inside the two byte sequence for the accented letter
+		logger.log(data, 0, 5);
+		logger.log(data, 5, data.length - 5);
+		finish(logger);
+
+		String[] lines = new String(read(segments()[0]), "UTF-8").split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[0].startsWith("{\"version\": 2, \"width\": 80, \"height\": 24"));
+		assertTrue(lines[1].matches("\\[\\d+\\.\\d{6}, \"o\", \"\\\\\"caf\"\\]"));
+		assertTrue(lines[2].endsWith(", \"o\", \"\u00e9\\\"\\r\\n\\u001b\"]"));
+	}
+
+	@Test
+	public void finishedSegmentsAreCompressed() throws Exception {
+		SessionLogger logger = start(SessionLogger.Format.RAW, 1000);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		byte[] chunk = new byte[300];
+		for (int i = 0; i < 10; i++) {
+			Arrays.fill(chunk, (byte) ('a' + i));
+			logger.log(chunk, 0, chunk.length);
+			expected.write(chunk);
+		}
+		finish(logger);
+
+		File[] files = segments();
+		assertEquals(3, files.length);
+		assertTrue(files[0].getName().endsWith(".0.log.gz"));
+		assertTrue(files[1].getName().endsWith(".1.log.gz"));
+		assertTrue(files[2].getName().endsWith(".2.log"));
+
+		ByteArrayOutputStream logged = new ByteArrayOutputStream();
+		for (File file : files)
+			logged.write(read(file));
+		assertArrayEquals(expected.toByteArray(), logged.toByteArray());
+	}
+
+	@Test
+	public void outputIsDroppedRatherThanQueuedWithoutBound() throws Exception {
+		// never started, so nothing drains the queue
+		SessionLogger logger = new SessionLogger(folder.getRoot(), "idle", SessionLogger.Format.RAW,
+				SessionLogger.DEFAULT_SEGMENT_SIZE, 80, 24);
+		byte[] chunk = new byte[64 * 1024];
+		int chunks = (int) (SessionLogger.MAX_PENDING / chunk.length);
+		for (int i = 0; i < chunks + 3; i++)
+			logger.log(chunk, 0, chunk.length);
+
+		assertEquals(3L * chunk.length, logger.getDroppedBytes());
+	}
+
+	@Test
+	public void droppedOutputLeavesAMarker() throws Exception {
+		SessionLogger logger = new SessionLogger(folder.getRoot(), "slow", SessionLogger.Format.RAW,
+				SessionLogger.DEFAULT_SEGMENT_SIZE, 80, 24);
+		byte[] chunk = new byte[64 * 1024];
+		int chunks = (int) (SessionLogger.MAX_PENDING / chunk.length);
+		for (int i = 0; i < chunks + 3; i++)
+			logger.log(chunk, 0, chunk.length);
+
+		logger.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (logger.getLoggedBytes() < SessionLogger.MAX_PENDING && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+
+		byte[] after = "after".getBytes("UTF-8");
+		logger.log(after, 0, after.length);
+		finish(logger);
+
+		byte[] logged = read(segments()[0]);
+		String tail = new String(logged, (int) SessionLogger.MAX_PENDING,
+				logged.length - (int) SessionLogger.MAX_PENDING, "UTF-8");
+		assertEquals("\r\n[" + 3 * chunk.length + " bytes of output were not logged]\r\nafter", tail);
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Utf8DecoderTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private Utf8Decoder decoder;
+
+	@Before
+	public void setUp() {
+		decoder = new Utf8Decoder();
+	}
+
+	private String decode(byte[] bytes, int... splits) {
+		StringBuilder sb = new StringBuilder();
+		char[] out = new char[bytes.length + 1];
+		int start = 0;
+		for (int split : splits) {
+			sb.append(out, 0, decoder.decode(bytes, start, split - start, out));
+			start = split;
+		}
+		sb.append(out, 0, decoder.decode(bytes, start, bytes.length - start, out));
+		return sb.toString();
+	}
+
+	private static String reference(byte[] bytes) throws Exception {
+		CharsetDecoder cd = UTF8.newDecoder();
+		cd.onMalformedInput(CodingErrorAction.REPLACE);
+		cd.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		return cd.decode(ByteBuffer.wrap(bytes)).toString();
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] b = new byte[values.length];
+		for (int i = 0; i < values.length; i++)
+			b[i] = (byte) values[i];
+		return b;
+	}
+
+	@Test
+	public void ascii() {
+		assertEquals("hello\r\n", decode("hello\r\n".getBytes(UTF8)));
+		assertFalse(decoder.hasNonAscii());
+	}
+
+	@Test
+	public void multiByte() {
+		String text = "caf\u00E9 \u65E5\u672C\u8A9E \uD83D\uDE00";
+		assertEquals(text, decode(text.getBytes(UTF8)));
+		assertTrue(decoder.hasNonAscii());
+	}
+
+	@Test
+	public void sequenceSplitAcrossReads() {
+		byte[] b = "\u65E5\uD83D\uDE00".getBytes(UTF8);
+		for (int split = 1; split < b.length; split++) {
+			decoder.reset();
+			assertEquals("\u65E5\uD83D\uDE00", decode(b, split));
+		}
+	}
+
+	@Test
+	public void malformedInputIsReplaced() {
+		assertEquals("\uFFFDA", decode(bytes(0xE2, 0x82, 'A')));
+		assertEquals("\uFFFD\uFFFD", decode(bytes(0xC0, 0x80)));
+		assertEquals("\uFFFD", decode(bytes(0xED, 0xA0, 0x80)));
+		assertEquals("\uFFFD", decode(bytes(0xFF)));
+	}
+
+	@Test
+	public void matchesCharsetDecoder() throws Exception {
+		Random random = new Random(1);
+		int[] interesting = {0x00, 0x41, 0x7F, 0x80, 0x8F, 0x90, 0x9F, 0xA0, 0xBF, 0xC0, 0xC2,
+				0xDF, 0xE0, 0xED, 0xEF, 0xF0, 0xF4, 0xF5, 0xFF};
+
+		for (int round = 0; round < 2000; round++) {
+			byte[] b = new byte[random.nextInt(16)];
+			for (int i = 0; i < b.length; i++)
+				b[i] = (byte) (random.nextBoolean() ? interesting[random.nextInt(interesting.length)]
+						: random.nextInt(256));
+
+			// finish with ASCII so nothing is left pending at the end
+			byte[] input = new byte[b.length + 1];
+			System.arraycopy(b, 0, input, 0, b.length);
+			input[b.length] = 'x';
+
+			decoder.reset();
+			int split = random.nextInt(input.length);
+			assertEquals(reference(input), decode(input, split));
+		}
+	}
+}
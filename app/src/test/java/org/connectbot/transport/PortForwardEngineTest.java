@@ -0,0 +1,299 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.transport;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the engine against an echo server in the same process, with tunnels
+ * that are plain sockets standing in for SSH channels.
+ */
+public class PortForwardEngineTest {
+	private ServerSocket echoServer;
+	private Thread echoThread;
+	private PortForwardEngine engine;
+	private final PortForwardStats stats = new PortForwardStats();
+	private final List<String> opened = new ArrayList<>();
+
+	private final PortForwardEngine.TunnelFactory tunnels = new PortForwardEngine.TunnelFactory() {
+		@Override
+		public PortForwardEngine.Tunnel open(String host, int port) throws IOException {
+			synchronized (opened) {
+				opened.add(host + ":" + port);
+			}
+			final Socket socket = new Socket(host, port);
+			return new PortForwardEngine.Tunnel() {
+				@Override
+				public InputStream getInputStream() {
+					try {
+						return socket.getInputStream();
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+
+				@Override
+				public OutputStream getOutputStream() {
+					try {
+						return new OutputStream() {
+							private final OutputStream out = socket.getOutputStream();
+
+							@Override
+							public void write(int b) throws IOException {
+								out.write(b);
+							}
+
+							@Override
+							public void write(byte[] b, int off, int len) throws IOException {
+								out.write(b, off, len);
+							}
+
+							@Override
+							public void close() throws IOException {
+								// like an SSH channel EOF
+								socket.shutdownOutput();
+							}
+						};
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+
+				@Override
+				public void close() throws IOException {
+					socket.close();
+				}
+			};
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		echoServer = new ServerSocket(0, 256, InetAddress.getLoopbackAddress());
+		echoThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						final Socket socket = echoServer.accept();
+						Thread echo = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								echo(socket);
+							}
+						});
+						echo.setDaemon(true);
+						echo.start();
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		});
+		echoThread.setDaemon(true);
+		echoThread.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (engine != null)
+			engine.close();
+		echoServer.close();
+	}
+
+	private static void echo(Socket socket) {
+		try {
+			InputStream in = socket.getInputStream();
+			OutputStream out = socket.getOutputStream();
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) > 0)
+				out.write(buffer, 0, count);
+			socket.shutdownOutput();
+			socket.close();
+		} catch (IOException e) {
+			// dropped by the other side
+		}
+	}
+
+	private PortForwardEngine startEngine(String destHost, int destPort) throws IOException {
+		engine = new PortForwardEngine(tunnels, stats,
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), destHost, destPort);
+		engine.start();
+		return engine;
+	}
+
+	private Socket connect() throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), engine.getLocalPort());
+		socket.setSoTimeout(10000);
+		return socket;
+	}
+
+	private static byte[] readFully(InputStream in, int length) throws IOException {
+		byte[] data = new byte[length];
+		new DataInputStream(in).readFully(data);
+		return data;
+	}
+
+	@Test
+	public void localForwardCarriesBothDirections() throws Exception {
+		startEngine("127.0.0.1", echoServer.getLocalPort());
+		Socket socket = connect();
+
+		byte[] message = "hello through the tunnel".getBytes("US-ASCII");
+		socket.getOutputStream().write(message);
+		assertArrayEquals(message, readFully(socket.getInputStream(), message.length));
+		assertEquals(Arrays.asList("127.0.0.1:" + echoServer.getLocalPort()), opened);
+
+		// the end of the client's data reaches the server, and the server's
+		// close comes back
+		socket.shutdownOutput();
+		assertEquals(-1, socket.getInputStream().read());
+		socket.close();
+
+		waitForConnectionsToClose();
+		assertEquals(message.length, stats.getBytesSent());
+		assertEquals(message.length, stats.getBytesReceived());
+		assertEquals(1, stats.getConnections());
+		assertEquals(0, stats.getOpenConnections());
+	}
+
+	private void waitForConnectionsToClose() throws InterruptedException {
+		for (int i = 0; i < 100 && engine.getConnectionCount() > 0; i++)
+			Thread.sleep(20);
+		assertEquals(0, engine.getConnectionCount());
+	}
+
+	@Test
+	public void socks5ConnectsWhereAsked() throws Exception {
+		startEngine(null, 0);
+		Socket socket = connect();
+		OutputStream out = socket.getOutputStream();
+		InputStream in = socket.getInputStream();
+		int port = echoServer.getLocalPort();
+
+		out.write(new byte[] {5, 1, 0});
+		assertArrayEquals(new byte[] {5, 0}, readFully(in, 2));
+
+		byte[] host = "127.0.0.1".getBytes("US-ASCII");
+		out.write(new byte[] {5, 1, 0, 3, (byte) host.length});
+		out.write(host);
+		// the first data follows the request without waiting for the reply
+		out.write(new byte[] {(byte) (port >> 8), (byte) port, 'p', 'i', 'n', 'g'});
+
+		byte[] reply = readFully(in, 10);
+		assertEquals(5, reply[0]);
+		assertEquals(0, reply[1]);
+		assertArrayEquals("ping".getBytes("US-ASCII"), readFully(in, 4));
+		assertEquals(Arrays.asList("127.0.0.1:" + port), opened);
+		socket.close();
+	}
+
+	@Test
+	public void socks4aRefusalIsReported() throws Exception {
+		startEngine(null, 0);
+		Socket socket = connect();
+
+		// port 1 on loopback isn't listening
+		socket.getOutputStream().write(new byte[] {4, 1, 0, 1, 0, 0, 0, 1, 'u', 0,
+				'l', 'o', 'c', 'a', 'l', 'h', 'o', 's', 't', 0});
+		byte[] reply = readFully(socket.getInputStream(), 8);
+		assertEquals(0, reply[0]);
+		assertEquals(0x5b, reply[1]);
+		assertEquals(-1, socket.getInputStream().read());
+		assertEquals(Arrays.asList("localhost:1"), opened);
+		socket.close();
+	}
+
+	/**
+	 * Echo distinct data through several forwarded sockets at once and check
+	 * that each gets its own data back, followed by the server's close.
+	 */
+	void echoThroughSockets(final int sockets, final int perSocket) throws Exception {
+		startEngine("127.0.0.1", echoServer.getLocalPort());
+
+		ExecutorService clients = Executors.newFixedThreadPool(sockets);
+		List<Future<Boolean>> results = new ArrayList<>();
+		for (int i = 0; i < sockets; i++) {
+			final byte seed = (byte) i;
+			results.add(clients.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					final Socket socket = connect();
+					final byte[] data = new byte[perSocket];
+					for (int j = 0; j < data.length; j++)
+						data[j] = (byte) (seed + j * 31);
+
+					Thread writer = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								socket.getOutputStream().write(data);
+								socket.shutdownOutput();
+							} catch (IOException e) {
+								// shows up as a short read
+							}
+						}
+					});
+					writer.start();
+					byte[] echoed = readFully(socket.getInputStream(), perSocket);
+					boolean ended = socket.getInputStream().read() == -1;
+					writer.join();
+					socket.close();
+					return ended && Arrays.equals(data, echoed);
+				}
+			}));
+		}
+		for (Future<Boolean> result : results)
+			assertTrue(result.get(60, TimeUnit.SECONDS));
+		clients.shutdown();
+
+		waitForConnectionsToClose();
+		assertEquals(sockets, stats.getConnections());
+		assertEquals((long) sockets * perSocket, stats.getBytesSent());
+		assertEquals((long) sockets * perSocket, stats.getBytesReceived());
+	}
+
+	@Test
+	public void concurrentSocketsKeepTheirOwnData() throws Exception {
+		echoThroughSockets(8, 64 * 1024);
+	}
+}
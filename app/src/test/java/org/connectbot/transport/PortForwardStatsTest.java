@@ -0,0 +1,95 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.transport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PortForwardStatsTest {
+	private static final long SECOND = 1000000000L;
+
+	@Test
+	public void countsFromManyThreadsAddUp() throws Exception {
+		final PortForwardStats stats = new PortForwardStats();
+		Thread[] threads = new Thread[16];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 100000; j++) {
+						stats.addSent(3);
+						stats.addReceived(5);
+					}
+					stats.connectionOpened();
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		stats.connectionClosed();
+
+		assertEquals(16L * 100000 * 3, stats.getBytesSent());
+		assertEquals(16L * 100000 * 5, stats.getBytesReceived());
+		assertEquals(16, stats.getConnections());
+		assertEquals(15, stats.getOpenConnections());
+	}
+
+	@Test
+	public void rateFollowsSteadyTraffic() {
+		PortForwardStats stats = new PortForwardStats();
+		long now = 0;
+		stats.sample(now);
+		assertEquals(0, stats.getSendRate(), 0);
+
+		// 1000 bytes a second for a while
+		for (int i = 0; i < 60; i++) {
+			stats.addSent(1000);
+			now += SECOND;
+			stats.sample(now);
+		}
+		assertEquals(1000, stats.getSendRate(), 1);
+		assertEquals(0, stats.getReceiveRate(), 0);
+
+		// and the average decays once the traffic stops
+		now += (long) (PortForwardStats.RATE_TIME_CONSTANT * SECOND);
+		stats.sample(now);
+		assertEquals(1000 / Math.E, stats.getSendRate(), 1);
+	}
+
+	@Test
+	public void rateDoesNotDependOnSampleInterval() {
+		PortForwardStats often = new PortForwardStats();
+		PortForwardStats seldom = new PortForwardStats();
+		often.sample(0);
+		seldom.sample(0);
+
+		for (int i = 1; i <= 40; i++) {
+			often.addReceived(500);
+			seldom.addReceived(500);
+			often.sample(i * SECOND / 2);
+			if (i % 4 == 0)
+				seldom.sample(i * SECOND / 2);
+		}
+		assertEquals(1000, often.getReceiveRate(), 50);
+		assertEquals(1000, seldom.getReceiveRate(), 50);
+		assertTrue(often.getReceiveRate() > 0);
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.util;
+
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.connectbot.bean.HostBean;
+import org.connectbot.data.HostStorage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.trilead.ssh2.KnownHosts;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class HostDatabaseTest {
+	private static final String ALGORITHM = "ssh-rsa";
+
+	private static byte[] hostKey;
+	private static byte[] otherHostKey;
+
+	private HostDatabase hostdb;
+
+	@Before
+	public void setUp() throws Exception {
+		if (hostKey == null) {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(1024);
+			hostKey = PubkeyUtils.extractOpenSSHPublic(generator.generateKeyPair());
+			otherHostKey = PubkeyUtils.extractOpenSSHPublic(generator.generateKeyPair());
+		}
+
+		// an in-memory database instead of the shared instance
+		hostdb = new HostDatabase(ApplicationProvider.getApplicationContext(), null);
+	}
+
+	@After
+	public void tearDown() {
+		hostdb.close();
+	}
+
+	private int verify(String hostname, int port, byte[] key) throws Exception {
+		return hostdb.getKnownHostsForHost(hostname, port)
+				.verifyHostkey(hostname + ":" + port, ALGORITHM, key);
+	}
+
+	@Test
+	public void lookupOnlyMatchesHostnameAndPort() throws Exception {
+		hostdb.saveHost(new HostBean("a", "ssh", "user", "a.example.com", 22));
+		hostdb.saveHost(new HostBean("a2", "ssh", "user", "a.example.com", 2222));
+		hostdb.saveKnownHost("a.example.com", 22, ALGORITHM, hostKey);
+
+		assertEquals(KnownHosts.HOSTKEY_IS_OK, verify("a.example.com", 22, hostKey));
+		assertEquals(KnownHosts.HOSTKEY_HAS_CHANGED, verify("a.example.com", 22, otherHostKey));
+		assertEquals(KnownHosts.HOSTKEY_IS_NEW, verify("a.example.com", 2222, hostKey));
+		assertEquals(KnownHosts.HOSTKEY_IS_NEW, verify("b.example.com", 22, hostKey));
+	}
+
+	@Test
+	public void savingKeyInvalidatesCache() throws Exception {
+		hostdb.saveHost(new HostBean("a", "ssh", "user", "a.example.com", 22));
+
+		assertEquals(KnownHosts.HOSTKEY_IS_NEW, verify("a.example.com", 22, hostKey));
+
+		hostdb.saveKnownHost("a.example.com", 22, ALGORITHM, hostKey);
+		assertEquals(KnownHosts.HOSTKEY_IS_OK, verify("a.example.com", 22, hostKey));
+
+		hostdb.saveKnownHost("a.example.com", 22, ALGORITHM, otherHostKey);
+		assertEquals(KnownHosts.HOSTKEY_IS_OK, verify("a.example.com", 22, otherHostKey));
+		assertEquals(KnownHosts.HOSTKEY_HAS_CHANGED, verify("a.example.com", 22, hostKey));
+	}
+
+	@Test
+	public void removingKeyInvalidatesCache() throws Exception {
+		hostdb.saveHost(new HostBean("a", "ssh", "user", "a.example.com", 22));
+		hostdb.saveKnownHost("a.example.com", 22, ALGORITHM, hostKey);
+		assertEquals(KnownHosts.HOSTKEY_IS_OK, verify("a.example.com", 22, hostKey));
+
+		hostdb.removeKnownHost("a.example.com", 22, ALGORITHM, hostKey);
+		assertEquals(KnownHosts.HOSTKEY_IS_NEW, verify("a.example.com", 22, hostKey));
+	}
+
+	@Test
+	public void changingHostnameInvalidatesCache() throws Exception {
+		HostBean host = hostdb.saveHost(new HostBean("a", "ssh", "user", "a.example.com", 22));
+		hostdb.saveKnownHost("a.example.com", 22, ALGORITHM, hostKey);
+		assertEquals(KnownHosts.HOSTKEY_IS_OK, verify("a.example.com", 22, hostKey));
+
+		host.setHostname("b.example.com");
+		hostdb.saveHost(host);
+		assertEquals(KnownHosts.HOSTKEY_IS_NEW, verify("a.example.com", 22, hostKey));
+		assertEquals(KnownHosts.HOSTKEY_IS_OK, verify("b.example.com", 22, hostKey));
+	}
+
+	@Test
+	public void hostWritesAreReported() {
+		final List<String> events = new ArrayList<>();
+		HostStorage.OnHostChangedListener listener = new HostStorage.OnHostChangedListener() {
+			@Override
+			public void onHostSaved(HostBean host) {
+				events.add("saved " + host.getNickname() + " " + host.getId());
+			}
+
+			@Override
+			public void onHostDeleted(HostBean host) {
+				events.add("deleted " + host.getNickname());
+			}
+		};
+		hostdb.addOnHostChangedListener(listener);
+
+		HostBean host = hostdb.saveHost(new HostBean("a", "ssh", "user", "a.example.com", 22));
+		hostdb.touchHost(host);
+		hostdb.deleteHost(host);
+		hostdb.removeOnHostChangedListener(listener);
+		hostdb.saveHost(new HostBean("b", "ssh", "user", "b.example.com", 22));
+
+		List<String> expected = new ArrayList<>();
+		expected.add("saved a " + host.getId());
+		expected.add("saved a " + host.getId());
+		expected.add("deleted a");
+		assertEquals(expected, events);
+	}
+
+	@Test
+	public void lastPubkeyIsRememberedPerHost() throws Exception {
+		HostBean a = hostdb.saveHost(new HostBean("a", "ssh", "user", "a.example.com", 22));
+		HostBean b = hostdb.saveHost(new HostBean("b", "ssh", "user", "b.example.com", 22));
+
+		assertNull(hostdb.getLastPubkey(a));
+
+		hostdb.saveLastPubkey(a, hostKey);
+		hostdb.saveLastPubkey(a, otherHostKey);
+		hostdb.saveLastPubkey(b, hostKey);
+
+		assertArrayEquals(otherHostKey, hostdb.getLastPubkey(a));
+		assertArrayEquals(hostKey, hostdb.getLastPubkey(b));
+
+		hostdb.deleteHost(a);
+		assertNull(hostdb.getLastPubkey(a));
+	}
+}